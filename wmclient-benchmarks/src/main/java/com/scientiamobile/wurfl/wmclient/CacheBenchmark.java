@@ -0,0 +1,95 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cache implementations used by WmClient under contention: a group of threads reads keys picked from a
+ * skewed distribution, while another group puts entries that are (mostly) not in the cache.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int KEY_SPACE = 1 << 16;
+
+    @Param({"ConcurrentLRUCache", "TinyLFUCache"})
+    public String cacheType;
+
+    @Param({"20000"})
+    public int cacheSize;
+
+    private WmCache<String, String> cache;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        switch (cacheType) {
+            case "ConcurrentLRUCache":
+                cache = new ConcurrentLRUCache<>(cacheSize);
+                break;
+            case "TinyLFUCache":
+                cache = new TinyLFUCache<>(cacheSize);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown cache type " + cacheType);
+        }
+
+        keys = new String[KEY_SPACE];
+        for (int i = 0; i < KEY_SPACE; i++) {
+            keys[i] = "Mozilla/5.0 (Linux; Android 13; SM-S" + i + ") AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Mobile Safari/537.36";
+        }
+        for (int i = 0; i < cacheSize; i++) {
+            cache.putEntry(keys[i], keys[i]);
+        }
+    }
+
+    // Most reads go to a small set of hot keys, like real traffic where a few devices are very popular
+    private String nextKey() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int hot = cacheSize / 10;
+        return random.nextInt(10) < 8 ? keys[random.nextInt(hot)] : keys[random.nextInt(KEY_SPACE)];
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(6)
+    public String get() {
+        return cache.getEntry(nextKey());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(2)
+    public void put() {
+        String key = keys[ThreadLocalRandom.current().nextInt(KEY_SPACE)];
+        cache.putEntry(key, key);
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(8)
+    public String getOnly() {
+        return cache.getEntry(nextKey());
+    }
+}
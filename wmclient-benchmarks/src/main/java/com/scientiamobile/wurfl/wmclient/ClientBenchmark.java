@@ -0,0 +1,100 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures WmClient against an in-process WM stub server: cache key computation, header extraction, cache hits and
+ * full lookups on cache misses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+    // latency added by the stub server to every response
+    @Param({"0"})
+    public int serverLatencyMillis;
+
+    private WmStubServer server;
+    private WmClient client;
+    private Map<String, String> headers;
+    private Map<String, String> lookupHeaders;
+    private final AtomicLong missCounter = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        server = new WmStubServer(0).start();
+        client = WmClient.create("http", "localhost", String.valueOf(server.getPort()), "");
+        client.setCacheSize(100000);
+        server.setLatency(serverLatencyMillis, TimeUnit.MILLISECONDS);
+
+        headers = new HashMap<>();
+        headers.put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8");
+        headers.put("Accept-Encoding", "gzip, deflate, br");
+        headers.put("Accept-Language", "en-US,en;q=0.9");
+        headers.put("Connection", "keep-alive");
+        headers.put("Host", "www.example.com");
+        headers.put("user-agent", "Mozilla/5.0 (Linux; Android 13; SM-S918B) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.6099.144 Mobile Safari/537.36");
+        headers.put("sec-ch-ua", "\"Not_A Brand\";v=\"8\", \"Chromium\";v=\"120\", \"Google Chrome\";v=\"120\"");
+        headers.put("sec-ch-ua-mobile", "?1");
+        headers.put("sec-ch-ua-platform", "\"Android\"");
+        headers.put("sec-ch-ua-model", "\"SM-S918B\"");
+        lookupHeaders = client.getLookupHeaders(headers);
+
+        // fills the cache entry used by the cache hit benchmark
+        client.lookupHeaders(headers);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.destroyConnection();
+        server.stop();
+    }
+
+    @Benchmark
+    public Map<String, String> extractLookupHeaders() {
+        return client.getLookupHeaders(headers);
+    }
+
+    @Benchmark
+    public HeadersKey userAgentCacheKey() throws WmException {
+        return client.getUserAgentCacheKey(lookupHeaders, WmClient.USERAGENT_CACHE_TYPE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Model.JSONDeviceData lookupHeadersCacheHit() throws WmException {
+        return client.lookupHeaders(headers);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(4)
+    public Model.JSONDeviceData lookupUseragentCacheMiss() throws WmException {
+        // a new user agent at every call, so that every lookup goes to the server
+        return client.lookupUseragent("Mozilla/5.0 (benchmark " + missCounter.incrementAndGet() + ")");
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the JSON serialization of lookup requests and the parsing of device lookup responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private Model.Request request;
+    private byte[] responseBody;
+    private final WmDataHandler<Model.JSONDeviceData> handler = new WmDataHandler<>(Model.JSONDeviceData.class);
+
+    @Setup
+    public void setup() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", "Mozilla/5.0 (Linux; Android 13; SM-S918B) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.6099.144 Mobile Safari/537.36");
+        headers.put("Sec-CH-UA", "\"Not_A Brand\";v=\"8\", \"Chromium\";v=\"120\", \"Google Chrome\";v=\"120\"");
+        headers.put("Sec-CH-UA-Mobile", "?1");
+        headers.put("Sec-CH-UA-Platform", "\"Android\"");
+        headers.put("Sec-CH-UA-Model", "\"SM-S918B\"");
+        request = Model.newRequest(headers, WmStubServer.STATIC_CAPS, WmStubServer.VIRTUAL_CAPS, null);
+
+        Map<String, String> caps = new LinkedHashMap<>();
+        for (String cap : WmStubServer.STATIC_CAPS) {
+            caps.put(cap, "value of " + cap);
+        }
+        for (String vcap : WmStubServer.VIRTUAL_CAPS) {
+            caps.put(vcap, "true");
+        }
+        caps.put("wurfl_id", "samsung_sm_s918b_ver1");
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("capabilities", caps);
+        response.put("error", "");
+        response.put("mtime", 1700000000);
+        response.put("ltime", "2024-01-01 00:00:00");
+        responseBody = WmJson.GSON.toJson(response).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String serializeRequest() {
+        return WmJson.GSON.toJson(request);
+    }
+
+    @Benchmark
+    public Model.JSONDeviceData parseResponse() throws IOException {
+        HttpResponse res = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        res.setEntity(new ByteArrayEntity(responseBody, ContentType.APPLICATION_JSON));
+        return handler.handleResponse(res);
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Base class for bounded caches that do not serialize readers.<br>
+ * Entries are stored in a ConcurrentHashMap, so that a cache hit is a plain map lookup. Instead of updating the eviction policy
+ * while holding a lock, readers record the access in a {@link StripedReadBuffer}, which is replayed on the policy by whichever
+ * thread manages to acquire the eviction lock (readers only try to acquire it, they never wait).
+ * Writes always take the eviction lock and let the policy evict entries before the new one becomes visible, so the cache never
+ * holds more entries than its policy allows.<br>
+ * Subclasses implement the eviction policy on top of one or more {@link AccessQueue}, and are always invoked holding the eviction lock.<br>
+ * Besides the entry count bound of the policy, a cache can be bounded by the total weight of its entries (ie: their estimated
+ * size in bytes), in which case the policy victims are evicted until the total weight is within bounds, and entries can expire
+ * after a given time since they were written. Expired entries are not returned by getEntry, and are removed when they reach the end of
+ * the policy queues or when their key is written again.
+ */
+abstract class BufferedCache<K, E> implements WmCache<K, E> {
+
+    final static int DEFAULT_SIZE = 20000;
+
+    private final ConcurrentHashMap<K, Node<K, E>> cache;
+    private final StripedReadBuffer<Node<K, E>> readBuffer;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // only updated holding the eviction lock
+    private volatile long evictionCount;
+
+    private final long maxWeight;
+    private final CacheWeigher<? super K, ? super E> weigher;
+    private final long expireAfterWriteNanos;
+    // only updated holding the eviction lock
+    private volatile long totalWeight;
+
+    BufferedCache(int initialCapacity) {
+        this(initialCapacity, -1, null, -1);
+    }
+
+    /**
+     * @param initialCapacity       initial capacity of the entries map
+     * @param maxWeight             maximum total weight of the entries, or a negative value if the cache is only bounded by count
+     * @param weigher               computes the entry weights, required if maxWeight is not negative
+     * @param expireAfterWriteNanos time after which an entry expires since it was written, or a negative value if entries never expire
+     */
+    BufferedCache(int initialCapacity, long maxWeight, CacheWeigher<? super K, ? super E> weigher, long expireAfterWriteNanos) {
+        if (maxWeight >= 0 && weigher == null) {
+            throw new IllegalArgumentException("A weigher is required to bound the cache weight");
+        }
+        this.cache = new ConcurrentHashMap<>(initialCapacity);
+        this.readBuffer = new StripedReadBuffer<>();
+        this.maxWeight = maxWeight;
+        this.weigher = maxWeight >= 0 ? weigher : null;
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+    }
+
+    @Override
+    public E getEntry(K key) {
+        Node<K, E> entry = cache.get(key);
+        if (entry == null || (expireAfterWriteNanos >= 0 && isExpired(entry, System.nanoTime()))) {
+            return null;
+        }
+
+        if (readBuffer.offer(entry)) {
+            tryDrainReadBuffer();
+        }
+        return entry.value;
+    }
+
+    @Override
+    public E getExpiredEntry(K key) {
+        Node<K, E> entry = cache.get(key);
+        return entry != null && isExpired(entry, System.nanoTime()) ? entry.value : null;
+    }
+
+    @Override
+    public void putEntry(K key, E value) {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            int weight = weigher != null ? weigher.weigh(key, value) : 0;
+            long now = expireAfterWriteNanos >= 0 ? System.nanoTime() : 0;
+            Node<K, E> entry = cache.get(key);
+            if (weigher != null && weight > maxWeight) {
+                // a value heavier than the cache maximum weight is never kept, and replaces nothing
+                if (entry != null) {
+                    evict(entry);
+                }
+            } else if (entry != null) {
+                totalWeight += weight - entry.weight;
+                entry.weight = weight;
+                entry.value = value;
+                entry.writeNanos = now;
+                onAccess(entry);
+            } else {
+                entry = new Node<>(key, value);
+                entry.weight = weight;
+                entry.writeNanos = now;
+                // weight is added first, since the policy may evict the new entry itself
+                totalWeight += weight;
+                onInsert(entry);
+                if (entry.queue != null) {
+                    cache.put(key, entry);
+                }
+            }
+            evictExpiredAndOverweight(now);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            cache.clear();
+            // Accesses still in the read buffer refer to removed nodes: clearing the queues marks them so that they are skipped on drain
+            onClear();
+            drainReadBuffer();
+            totalWeight = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super E> action) {
+        long now = expireAfterWriteNanos >= 0 ? System.nanoTime() : 0;
+        for (Node<K, E> entry : cache.values()) {
+            if (!isExpired(entry, now)) {
+                action.accept(entry.key, entry.value);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return total weight of the cached entries, 0 if the cache is not bounded by weight
+     */
+    long totalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Called when an entry is read or its value is replaced. The entry may have already been evicted, in which case its queue is null.
+     *
+     * @param node the accessed entry
+     */
+    abstract void onAccess(Node<K, E> node);
+
+    /**
+     * Called before a new entry is made visible to readers. The policy must link the node in one of its queues, unless it decides
+     * to reject it, and evict as many entries as needed to stay within its bounds.
+     *
+     * @param node the new entry
+     */
+    abstract void onInsert(Node<K, E> node);
+
+    /**
+     * Called when cache is cleared: the policy must empty all its queues.
+     */
+    abstract void onClear();
+
+    /**
+     * @return the entry the policy would evict first, null if the cache is empty
+     */
+    abstract Node<K, E> nextVictim();
+
+    /**
+     * Removes the given entry from its queue and from the cache. Must be called holding the eviction lock.
+     *
+     * @param node the entry to evict
+     */
+    void evict(Node<K, E> node) {
+        if (node.queue != null) {
+            node.queue.unlink(node);
+        }
+        cache.remove(node.key, node);
+        totalWeight -= node.weight;
+        evictionCount++;
+    }
+
+    // Must be called holding evictionLock. Only entries at the end of the policy queues are checked for expiration, so that
+    // a write never scans the whole cache.
+    private void evictExpiredAndOverweight(long now) {
+        Node<K, E> victim;
+        while ((victim = nextVictim()) != null
+                && ((weigher != null && totalWeight > maxWeight) || isExpired(victim, now))) {
+            evict(victim);
+        }
+    }
+
+    private boolean isExpired(Node<K, E> node, long now) {
+        return expireAfterWriteNanos >= 0 && now - node.writeNanos >= expireAfterWriteNanos;
+    }
+
+    private void tryDrainReadBuffer() {
+        if (evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    // Must be called holding evictionLock
+    private void drainReadBuffer() {
+        readBuffer.drainTo(this::onAccess);
+    }
+
+    // represents a cache entry. Links are guarded by the eviction lock, value is read without locking.
+    static final class Node<K, E> {
+        final K key;
+        volatile E value;
+        // time of the last write, read without locking
+        volatile long writeNanos;
+        // guarded by the eviction lock
+        int weight;
+        private Node<K, E> next;
+        private Node<K, E> previous;
+        // the queue this node is linked to, null if node has been evicted
+        AccessQueue<K, E> queue;
+
+        Node(K key, E value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // A doubly linked list of nodes, ordered from the most recently used (head) to the least recently used (tail)
+    static final class AccessQueue<K, E> {
+        private Node<K, E> head;
+        private Node<K, E> tail;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        Node<K, E> peekLast() {
+            return tail;
+        }
+
+        void linkHead(Node<K, E> node) {
+            node.previous = null;
+            node.next = head;
+            if (head != null) {
+                head.previous = node;
+            }
+            head = node;
+            if (tail == null) {
+                tail = node;
+            }
+            node.queue = this;
+            size++;
+        }
+
+        void moveToHead(Node<K, E> node) {
+            if (node != head) {
+                unlink(node);
+                linkHead(node);
+            }
+        }
+
+        void unlink(Node<K, E> node) {
+            Node<K, E> previous = node.previous;
+            Node<K, E> next = node.next;
+            if (previous != null) {
+                previous.next = next;
+            } else {
+                head = next;
+            }
+            if (next != null) {
+                next.previous = previous;
+            } else {
+                tail = previous;
+            }
+            node.previous = null;
+            node.next = null;
+            node.queue = null;
+            size--;
+        }
+
+        void clear() {
+            while (head != null) {
+                unlink(head);
+            }
+        }
+    }
+}
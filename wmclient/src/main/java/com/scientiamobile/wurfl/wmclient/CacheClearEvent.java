@@ -0,0 +1,45 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted when the client caches are cleared because WM server has loaded a new WURFL file.
+ */
+@Name("com.scientiamobile.wurfl.wmclient.CacheClear")
+@Label("WM Cache Clear")
+@Category({"WURFL Microservice", "Client"})
+@Description("Client caches cleared because the WURFL file load time on server has changed")
+@StackTrace(false)
+class CacheClearEvent extends Event {
+
+    @Label("Old Load Time")
+    String oldLtime;
+
+    @Label("New Load Time")
+    String newLtime;
+
+    @Label("User Agent Entries Dropped")
+    int userAgentEntriesDropped;
+
+    @Label("Device ID Entries Dropped")
+    int deviceIdEntriesDropped;
+}
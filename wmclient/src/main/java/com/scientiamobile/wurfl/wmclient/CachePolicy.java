@@ -0,0 +1,41 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Eviction policies available for the WM client user agent cache (see {@link WmClient#setCacheSize(int, CachePolicy)}).
+ */
+public enum CachePolicy {
+
+    /**
+     * Evicts the least recently used entry. This is the default policy.
+     */
+    LRU,
+
+    /**
+     * W-TinyLFU policy: a new entry is kept only if it is requested more often than the entry it would replace.
+     * It keeps a higher hit ratio than LRU when traffic contains many user agents that are seen only once, such as bot bursts.
+     */
+    W_TINY_LFU,
+
+    /**
+     * Stores cached user agents outside of the Java heap, for caches holding millions of entries without increasing garbage
+     * collection work. Entries cost about 25 bytes each of direct memory, plus the devices, each stored once. Evicts entries
+     * with the CLOCK policy, an approximation of LRU. It does not support the maximum weight and expiration time of
+     * {@link WmClientConfig}: setCacheSize rejects it if the client configuration sets them. JVM direct memory must be large enough
+     * for it (see -XX:MaxDirectMemorySize).
+     */
+    OFF_HEAP
+}
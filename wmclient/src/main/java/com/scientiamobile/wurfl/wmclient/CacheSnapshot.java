@@ -0,0 +1,243 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content of the device caches saved to file, used to fill the caches of a new client without looking up the devices again.<br>
+ * The file is gzip compressed and starts with the WURFL load time, the important headers and the capability names of the cached
+ * devices: a snapshot is only valid for a client using the same values. Each distinct device is written once (see
+ * {@link DeviceCodec}), followed by the user agent entries (header fingerprint, headers encoding of the keys created with
+ * cache key verification, and device index) and the device ID entries (WURFL ID and device index).
+ */
+final class CacheSnapshot {
+
+    private static final int MAGIC = 0x574d4353;
+    // version 2 saves the headers encoding of user agent keys
+    private static final int VERSION = 2;
+
+    final String ltime;
+    final String[] importantHeaders;
+    final String[] capabilities;
+    final Map<HeadersKey, Model.JSONDeviceData> userAgents;
+    final Map<String, Model.JSONDeviceData> deviceIds;
+
+    CacheSnapshot(String ltime, String[] importantHeaders, String[] capabilities, Map<HeadersKey, Model.JSONDeviceData> userAgents,
+                  Map<String, Model.JSONDeviceData> deviceIds) {
+        this.ltime = ltime;
+        this.importantHeaders = importantHeaders != null ? importantHeaders : new String[0];
+        this.capabilities = capabilities != null ? capabilities : new String[0];
+        this.userAgents = userAgents;
+        this.deviceIds = deviceIds;
+    }
+
+    /**
+     * Copies the entries of the given caches. Entries are copied before writing, so that caches are not locked during I/O.
+     */
+    static CacheSnapshot of(String ltime, String[] importantHeaders, CapabilityLayout layout,
+                            WmCache<HeadersKey, Model.JSONDeviceData> uaCache, WmCache<String, Model.JSONDeviceData> devIdCache) {
+        Map<HeadersKey, Model.JSONDeviceData> userAgents = new LinkedHashMap<>();
+        Map<String, Model.JSONDeviceData> deviceIds = new LinkedHashMap<>();
+        if (uaCache != null) {
+            uaCache.forEach(userAgents::put);
+        }
+        if (devIdCache != null) {
+            devIdCache.forEach(deviceIds::put);
+        }
+        return new CacheSnapshot(ltime, importantHeaders, capabilityNames(layout), userAgents, deviceIds);
+    }
+
+    /**
+     * @return true if the devices of this snapshot are the ones WM server returns to a client with the given configuration
+     */
+    boolean matches(String ltime, String[] importantHeaders, CapabilityLayout layout) {
+        return this.ltime != null && this.ltime.equals(ltime)
+                && Arrays.equals(this.importantHeaders, importantHeaders != null ? importantHeaders : new String[0])
+                && Arrays.equals(capabilities, capabilityNames(layout));
+    }
+
+    int size() {
+        return userAgents.size() + deviceIds.size();
+    }
+
+    /**
+     * Writes this snapshot to a temporary file, then moves it to the given one, so that a failed write does not leave a partial
+     * snapshot.
+     */
+    void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                write(out);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        DeviceCodec.writeString(out, ltime);
+        writeStrings(out, importantHeaders);
+        writeStrings(out, capabilities);
+
+        // cached devices are shared by entries: each one is written once
+        Map<Model.JSONDeviceData, Integer> indexes = new IdentityHashMap<>();
+        List<Model.JSONDeviceData> devices = new ArrayList<>();
+        for (Model.JSONDeviceData device : userAgents.values()) {
+            indexOf(device, indexes, devices);
+        }
+        for (Model.JSONDeviceData device : deviceIds.values()) {
+            indexOf(device, indexes, devices);
+        }
+        out.writeInt(devices.size());
+        for (Model.JSONDeviceData device : devices) {
+            DeviceCodec.write(out, device);
+        }
+
+        out.writeInt(userAgents.size());
+        for (Map.Entry<HeadersKey, Model.JSONDeviceData> entry : userAgents.entrySet()) {
+            out.writeLong(entry.getKey().getHi());
+            out.writeLong(entry.getKey().getLo());
+            writeLongString(out, entry.getKey().getRaw());
+            out.writeInt(indexes.get(entry.getValue()));
+        }
+        out.writeInt(deviceIds.size());
+        for (Map.Entry<String, Model.JSONDeviceData> entry : deviceIds.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(indexes.get(entry.getValue()));
+        }
+    }
+
+    /**
+     * Reads a snapshot. User agent keys have their headers encoding only if the client which saved them verified cache keys.
+     *
+     * @throws IOException if the file cannot be read or is not a cache snapshot
+     */
+    static CacheSnapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported cache snapshot version " + version + ": " + file);
+            }
+            String ltime = DeviceCodec.readString(in);
+            String[] importantHeaders = readStrings(in);
+            String[] capabilities = readStrings(in);
+
+            Model.JSONDeviceData[] devices = new Model.JSONDeviceData[in.readInt()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = DeviceCodec.read(in);
+            }
+
+            int count = in.readInt();
+            Map<HeadersKey, Model.JSONDeviceData> userAgents = new LinkedHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                HeadersKey key = new HeadersKey(in.readLong(), in.readLong(), readLongString(in));
+                userAgents.put(key, devices[in.readInt()]);
+            }
+            count = in.readInt();
+            Map<String, Model.JSONDeviceData> deviceIds = new LinkedHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String wurflId = in.readUTF();
+                deviceIds.put(wurflId, devices[in.readInt()]);
+            }
+            return new CacheSnapshot(ltime, importantHeaders, capabilities, userAgents, deviceIds);
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupted cache snapshot: " + file, e);
+        }
+    }
+
+    private static void indexOf(Model.JSONDeviceData device, Map<Model.JSONDeviceData, Integer> indexes, List<Model.JSONDeviceData> devices) {
+        if (!indexes.containsKey(device)) {
+            indexes.put(device, devices.size());
+            devices.add(device);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            DeviceCodec.writeString(out, s);
+        }
+    }
+
+    // Headers encodings can be longer than the 64KB limit of writeUTF
+    private static void writeLongString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = DeviceCodec.readString(in);
+        }
+        return strings;
+    }
+
+    private static String[] capabilityNames(CapabilityLayout layout) {
+        if (layout == null) {
+            return new String[0];
+        }
+        String[] names = new String[layout.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = layout.name(i);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Immutable snapshot of the statistics of a WmClient cache: user agent/headers cache or device ID cache.<br>
+ * A lookup is a hit when the device is found in cache, a miss otherwise (also when caching is disabled).
+ * Loads are the requests sent to WM server because of a miss: concurrent misses on the same key share a single load.
+ */
+public final class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long staleHitCount;
+    private final long evictionCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTimeNanos;
+    private final int inFlightCount;
+    private final int size;
+
+    CacheStats(long hitCount, long missCount, long staleHitCount, long evictionCount, long loadSuccessCount, long loadFailureCount,
+               long totalLoadTimeNanos, int inFlightCount, int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.staleHitCount = staleHitCount;
+        this.evictionCount = evictionCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.inFlightCount = inFlightCount;
+        this.size = size;
+    }
+
+    /**
+     * @return number of lookups that found the device in cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of lookups that did not find the device in cache
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of hits that found a device from a previous WURFL file, returned while it is refreshed in background
+     * (see {@link WmClientConfig.Builder#staleWhileRevalidate(int)}). Stale hits are also counted as hits
+     */
+    public long getStaleHitCount() {
+        return staleHitCount;
+    }
+
+    /**
+     * @return number of lookups, hits plus misses
+     */
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return ratio of lookups that found the device in cache, 1.0 if no lookup has been done
+     */
+    public double getHitRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return number of entries evicted by the current cache to stay within its maximum size. Entries removed because the WURFL
+     * file on server has changed are not counted
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of devices successfully loaded from WM server
+     */
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * @return number of failed requests to WM server
+     */
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return total time spent loading devices from WM server, in nanoseconds, including failed loads
+     */
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    /**
+     * @return average time spent loading a device from WM server, in nanoseconds
+     */
+    public double getAverageLoadPenaltyNanos() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return loadCount == 0 ? 0 : (double) totalLoadTimeNanos / loadCount;
+    }
+
+    /**
+     * @return number of loads running at the time the snapshot was taken
+     */
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * @return number of entries in cache at the time the snapshot was taken
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", staleHits=" + staleHitCount + ", hitRate=" + String.format("%.4f", getHitRate())
+                + ", evictions=" + evictionCount + ", loadSuccesses=" + loadSuccessCount + ", loadFailures=" + loadFailureCount
+                + ", totalLoadTimeNanos=" + totalLoadTimeNanos + ", inFlight=" + inFlightCount + ", size=" + size + "}";
+    }
+}
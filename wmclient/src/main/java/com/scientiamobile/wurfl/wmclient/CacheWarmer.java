@@ -0,0 +1,59 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/**
+ * Command line tool creating a cache snapshot from a list of user agents or header sets, so that applications configured
+ * with {@link WmClientConfig.Builder#cacheSnapshot(Path)} start with a warm cache:
+ * <pre>
+ * java -cp wurfl-microservice-[version].jar:[dependencies] com.scientiamobile.wurfl.wmclient.CacheWarmer \
+ *     http://localhost:8080 top-user-agents.txt wm-cache.snapshot [max concurrency] [cache size]
+ * </pre>
+ * See {@link WmClient#warmUpCache(java.util.stream.Stream, int)} for the input file format. Capabilities are not filtered:
+ * the snapshot is loaded by clients that do not set requested capabilities.
+ */
+public final class CacheWarmer {
+
+    private CacheWarmer() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: CacheWarmer <WM server URL> <user agents file> <snapshot file> [max concurrency] [cache size]");
+            System.exit(1);
+        }
+        Path input = Paths.get(args[1]);
+        Path snapshot = Paths.get(args[2]);
+        int maxConcurrency = args.length > 3 ? Integer.parseInt(args[3]) : WmClient.DEFAULT_BATCH_CONCURRENCY;
+        int cacheSize = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+
+        WmClient client = WmClient.create(Collections.singletonList(args[0]),
+                WmClientConfig.builder().maxConnectionsPerRoute(maxConcurrency).build());
+        try {
+            client.setCacheSize(cacheSize);
+            long start = System.nanoTime();
+            int detected = client.warmUpCache(input, maxConcurrency);
+            long millis = (System.nanoTime() - start) / 1000000;
+            int saved = client.saveCacheSnapshot(snapshot);
+            System.out.println("Detected " + detected + " devices in " + millis + " ms, saved " + saved + " cache entries to " + snapshot);
+        } finally {
+            client.destroyConnection();
+        }
+    }
+}
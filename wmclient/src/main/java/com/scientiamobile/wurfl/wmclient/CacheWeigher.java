@@ -0,0 +1,28 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Computes the weight of cache entries, used by caches bounded by total weight instead of (or as well as) entry count.
+ */
+interface CacheWeigher<K, E> {
+
+    /**
+     * @param key   the cache key
+     * @param value the cached value
+     * @return the entry weight, must not be negative. It is computed when the entry is added to cache and is not updated later
+     */
+    int weigh(K key, E value);
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Capability names that can be returned by the WM server, shared by all the compact capability maps of a client.<br>
+ * Each name has a fixed slot, so that a device only needs an array of values. Values are dictionary encoded: the first
+ * distinct short values seen (ie: "true", "false", "Smartphone", OS versions, etc.) get a 16 bit code, while the others are
+ * stored as they are.<br>
+ * Dictionary values are parsed as booleans and integers when they are added, so typed capability accessors do not parse them
+ * again on each cache hit.
+ */
+final class CapabilityLayout {
+
+    // Value codes with a special meaning, dictionary codes start from FIRST_CODE
+    static final char ABSENT = 0;
+    static final char NULL_VALUE = 1;
+    static final char RAW = 2;
+    static final char FIRST_CODE = 3;
+
+    // Values longer than this are unlikely to be shared by many devices
+    static final int MAX_ENCODED_LENGTH = 32;
+    static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private final String[] names;
+    private final Map<String, Integer> slots;
+
+    private final ConcurrentHashMap<String, Character> codes = new ConcurrentHashMap<>();
+    private volatile Value[] dictionary = new Value[FIRST_CODE + 64];
+    private int dictionarySize = FIRST_CODE;
+
+    private CapabilityLayout(String[] names) {
+        this.names = names;
+        this.slots = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            slots.put(names[i], i);
+        }
+        encode("true");
+        encode("false");
+        encode("");
+    }
+
+    /**
+     * Creates the layout of the capabilities returned by WM server. wurfl_id is always returned, even if it is not listed.
+     *
+     * @param capabilityLists lists of capability names, null lists are skipped
+     * @return a new layout
+     */
+    static CapabilityLayout of(String[]... capabilityLists) {
+        Set<String> names = new LinkedHashSet<>();
+        names.add("wurfl_id");
+        for (String[] list : capabilityLists) {
+            if (list != null) {
+                names.addAll(Arrays.asList(list));
+            }
+        }
+        return new CapabilityLayout(names.toArray(new String[0]));
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return the slot of the given capability, or -1 if it is not part of this layout
+     */
+    int slot(Object name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return the dictionary code of the given value, or RAW if the value must be stored as it is
+     */
+    char encode(String value) {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+        Character code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (value.length() > MAX_ENCODED_LENGTH) {
+            return RAW;
+        }
+        synchronized (this) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (dictionarySize >= MAX_DICTIONARY_SIZE) {
+                return RAW;
+            }
+            Value[] values = dictionary;
+            if (dictionarySize == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length * 2, MAX_DICTIONARY_SIZE));
+            }
+            char newCode = (char) dictionarySize++;
+            values[newCode] = new Value(value);
+            // the value is published before its code, so that any thread reading the code can decode it
+            dictionary = values;
+            codes.put(value, newCode);
+            return newCode;
+        }
+    }
+
+    /**
+     * @param code a dictionary code returned by encode, or NULL_VALUE
+     * @return the decoded value
+     */
+    String decode(char code) {
+        return code == NULL_VALUE ? null : dictionary[code].text;
+    }
+
+    /**
+     * @param code a dictionary code returned by encode
+     * @return the parsed dictionary value
+     */
+    Value value(char code) {
+        return dictionary[code];
+    }
+
+    synchronized int dictionarySize() {
+        return dictionarySize - FIRST_CODE;
+    }
+
+    /**
+     * Converts a capability value to the enum constant with the same name. Names are compared ignoring case, with any character
+     * other than letters and digits matching an underscore: "Feature Phone" and "Smart-TV" match FEATURE_PHONE and SMART_TV.
+     *
+     * @return the matching enum constant, or null if value is null or no constant matches
+     */
+    static <E extends Enum<E>> E toEnum(String value, Class<E> enumType) {
+        if (value == null) {
+            return null;
+        }
+        for (E constant : enumType.getEnumConstants()) {
+            if (constant.name().equals(value)) {
+                return constant;
+            }
+        }
+        StringBuilder normalizedName = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            normalizedName.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        String normalized = normalizedName.toString();
+        for (E constant : enumType.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(normalized)) {
+                return constant;
+            }
+        }
+        return null;
+    }
+
+    // A dictionary value with its typed forms
+    static final class Value {
+        final String text;
+        final boolean booleanValue;
+        final boolean isInt;
+        final int intValue;
+        // last enum constant matching this value: capability values are usually converted to a single enum type
+        private volatile Enum<?> enumValue;
+
+        Value(String text) {
+            this.text = text;
+            this.booleanValue = Boolean.parseBoolean(text);
+            Integer parsed = parseInt(text);
+            this.isInt = parsed != null;
+            this.intValue = parsed != null ? parsed : 0;
+        }
+
+        <E extends Enum<E>> E toEnum(Class<E> enumType) {
+            Enum<?> cached = enumValue;
+            if (cached != null && cached.getDeclaringClass() == enumType) {
+                return enumType.cast(cached);
+            }
+            E constant = CapabilityLayout.toEnum(text, enumType);
+            if (constant != null) {
+                enumValue = constant;
+            }
+            return constant;
+        }
+
+        // Integer.parseInt, without exceptions for the values that are obviously not integers
+        private static Integer parseInt(String text) {
+            int start = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+            if (text.length() == start || text.length() > 11) {
+                return null;
+            }
+            for (int i = start; i < text.length(); i++) {
+                if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                    return null;
+                }
+            }
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                // out of int range
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted when the client loads device makes and models or device OS versions from WM server.
+ */
+@Name("com.scientiamobile.wurfl.wmclient.CatalogLoad")
+@Label("WM Catalog Load")
+@Category({"WURFL Microservice", "Client"})
+@Description("Load of device makes/models or OS versions from a WURFL Microservice server")
+@StackTrace(false)
+class CatalogLoadEvent extends Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Items")
+    int itemCount;
+
+    @Label("Response Bytes")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Success")
+    boolean success;
+}
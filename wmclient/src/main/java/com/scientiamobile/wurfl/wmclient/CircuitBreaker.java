@@ -0,0 +1,174 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Stops sending lookups to WM server while it is unhealthy, so that callers fail fast instead of waiting for timeouts.<br>
+ * The breaker is closed while the rate of failed or slow calls among the last {@value #WINDOW_SIZE} calls stays below the threshold.
+ * When it is reached (after at least {@value #MIN_CALLS} calls) the breaker opens, and calls are rejected for the open duration.
+ * Then the breaker is half open: {@value #HALF_OPEN_CALLS} trial calls are allowed, which close the breaker if all of them
+ * succeed, or open it again as soon as one fails.<br>
+ * Each permit belongs to the state it was issued in: results of calls issued before the last state change are ignored, so that
+ * a slow call sent while the breaker was closed is not taken as the result of a trial call.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * State of a circuit breaker
+     */
+    public enum State {
+        /**
+         * Calls are sent, and their results are recorded
+         */
+        CLOSED,
+        /**
+         * Calls are rejected
+         */
+        OPEN,
+        /**
+         * A limited number of trial calls are sent, to decide whether the breaker closes or opens again
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} when the call is rejected
+     */
+    static final long REJECTED = -1;
+
+    static final int WINDOW_SIZE = 20;
+    static final int MIN_CALLS = 10;
+    static final int HALF_OPEN_CALLS = 3;
+
+    private final int failureRatePercent;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    // incremented by each state change
+    private long generation;
+    private final boolean[] window = new boolean[WINDOW_SIZE];
+    private int windowIndex;
+    private int windowCount;
+    private int badCount;
+    private long openedAt;
+    private int trialCalls;
+    private int trialSuccesses;
+    private long openCount;
+    private long rejectedCount;
+
+    /**
+     * @param failureRatePercent percentage of failed or slow calls opening the breaker
+     * @param slowCallNanos      duration above which a successful call counts as a failure, or a negative value to ignore latency
+     * @param openNanos          time during which calls are rejected once the breaker opens
+     */
+    CircuitBreaker(int failureRatePercent, long slowCallNanos, long openNanos) {
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallNanos = slowCallNanos;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * @return a permit if the call can be sent, in which case its result must be recorded with {@link #onResult(long, long, boolean)},
+     * or {@link #REJECTED}
+     */
+    synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejectedCount++;
+                return REJECTED;
+            }
+            transition(State.HALF_OPEN);
+            trialCalls = 0;
+            trialSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialCalls >= HALF_OPEN_CALLS) {
+                rejectedCount++;
+                return REJECTED;
+            }
+            trialCalls++;
+        }
+        return generation;
+    }
+
+    /**
+     * @param permit       the permit returned by {@link #tryAcquire()} for the call
+     * @param latencyNanos duration of the call
+     * @param success      false if the call failed with an I/O or HTTP error
+     */
+    synchronized void onResult(long permit, long latencyNanos, boolean success) {
+        if (permit != generation) {
+            // issued before the last state change
+            return;
+        }
+        boolean bad = !success || (slowCallNanos >= 0 && latencyNanos > slowCallNanos);
+        if (state == State.HALF_OPEN) {
+            if (bad) {
+                open();
+            } else if (++trialSuccesses >= HALF_OPEN_CALLS) {
+                transition(State.CLOSED);
+                resetWindow();
+            }
+            return;
+        }
+        if (windowCount == WINDOW_SIZE && window[windowIndex]) {
+            badCount--;
+        }
+        window[windowIndex] = bad;
+        windowIndex = (windowIndex + 1) % WINDOW_SIZE;
+        windowCount = Math.min(windowCount + 1, WINDOW_SIZE);
+        if (bad) {
+            badCount++;
+        }
+        if (windowCount >= MIN_CALLS && badCount * 100 >= failureRatePercent * windowCount) {
+            open();
+        }
+    }
+
+    synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAt = System.nanoTime();
+        openCount++;
+        resetWindow();
+    }
+
+    private void transition(State newState) {
+        state = newState;
+        generation++;
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCount = 0;
+        badCount = 0;
+    }
+}
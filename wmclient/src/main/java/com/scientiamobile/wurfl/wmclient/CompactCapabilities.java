@@ -0,0 +1,282 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable map of device capabilities, used by cached devices.<br>
+ * Capability names are not stored: the map holds one value slot per capability of the shared {@link CapabilityLayout}, where common
+ * values are 16 bit dictionary codes. Values not in the dictionary are kept, already parsed like dictionary values, in a second
+ * array allocated only when needed.
+ * Compared to a LinkedHashMap, there are no entry objects and no copies of the capability names.
+ */
+final class CompactCapabilities extends AbstractMap<String, String> {
+
+    // estimated heap used by a parsed raw value, besides its text
+    private static final int RAW_VALUE_BYTES = 32;
+
+    private final CapabilityLayout layout;
+    private final char[] codes;
+    private final CapabilityLayout.Value[] rawValues;
+    private final int size;
+    private int hash;
+
+    private CompactCapabilities(CapabilityLayout layout, char[] codes, CapabilityLayout.Value[] rawValues, int size) {
+        this.layout = layout;
+        this.codes = codes;
+        this.rawValues = rawValues;
+        this.size = size;
+    }
+
+    CapabilityLayout layout() {
+        return layout;
+    }
+
+    /**
+     * Creates a compact copy of the given capabilities.
+     *
+     * @param layout       capabilities layout
+     * @param capabilities capabilities received from server
+     * @return the compact capabilities, or null if some capability is not part of the layout
+     */
+    static CompactCapabilities of(CapabilityLayout layout, Map<String, String> capabilities) {
+        char[] codes = new char[layout.size()];
+        CapabilityLayout.Value[] rawValues = null;
+        for (Map.Entry<String, String> capability : capabilities.entrySet()) {
+            int slot = layout.slot(capability.getKey());
+            if (slot < 0) {
+                return null;
+            }
+            char code = layout.encode(capability.getValue());
+            if (code == CapabilityLayout.RAW) {
+                if (rawValues == null) {
+                    rawValues = new CapabilityLayout.Value[codes.length];
+                }
+                rawValues[slot] = new CapabilityLayout.Value(capability.getValue());
+            }
+            codes[slot] = code;
+        }
+        return new CompactCapabilities(layout, codes, rawValues, capabilities.size());
+    }
+
+    /**
+     * Writes the slot and value code of each capability, followed by its value if it is not in the dictionary. Names and
+     * dictionary values are not written: the capabilities can only be read with the same layout.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int slot = 0; slot < codes.length; slot++) {
+            char code = codes[slot];
+            if (code != CapabilityLayout.ABSENT) {
+                out.writeChar(slot);
+                out.writeChar(code);
+                if (code == CapabilityLayout.RAW) {
+                    DeviceCodec.writeString(out, rawValues[slot].text);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads capabilities written by {@link #write(DataOutput)} with the given layout.
+     */
+    static CompactCapabilities read(CapabilityLayout layout, DataInput in) throws IOException {
+        int size = in.readInt();
+        char[] codes = new char[layout.size()];
+        CapabilityLayout.Value[] rawValues = null;
+        for (int i = 0; i < size; i++) {
+            int slot = in.readChar();
+            char code = in.readChar();
+            if (code == CapabilityLayout.RAW) {
+                if (rawValues == null) {
+                    rawValues = new CapabilityLayout.Value[codes.length];
+                }
+                rawValues[slot] = new CapabilityLayout.Value(DeviceCodec.readString(in));
+            }
+            codes[slot] = code;
+        }
+        return new CompactCapabilities(layout, codes, rawValues, size);
+    }
+
+    private String valueAt(int slot) {
+        char code = codes[slot];
+        return code == CapabilityLayout.RAW ? rawValues[slot].text : layout.decode(code);
+    }
+
+    @Override
+    public String get(Object key) {
+        int slot = layout.slot(key);
+        return slot >= 0 && codes[slot] != CapabilityLayout.ABSENT ? valueAt(slot) : null;
+    }
+
+    /**
+     * @return estimated heap used by this map, in bytes. Capability names and dictionary values are shared, so they are not counted
+     */
+    long estimatedBytes() {
+        long bytes = 32 + DeviceWeigher.arrayBytes(codes.length, 2);
+        if (rawValues != null) {
+            bytes += DeviceWeigher.arrayBytes(rawValues.length, 4);
+            for (CapabilityLayout.Value value : rawValues) {
+                if (value != null) {
+                    bytes += RAW_VALUE_BYTES + DeviceWeigher.stringBytes(value.text);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Typed accessors: dictionary and raw values are already parsed
+
+    boolean getBoolean(String name) {
+        CapabilityLayout.Value value = parsedValue(name);
+        return value != null && value.booleanValue;
+    }
+
+    int getInt(String name) {
+        CapabilityLayout.Value value = parsedValue(name);
+        // values that are not ints throw the NumberFormatException of Integer.parseInt
+        return value != null && value.isInt ? value.intValue : Integer.parseInt(value != null ? value.text : null);
+    }
+
+    <E extends Enum<E>> E getEnum(String name, Class<E> enumType) {
+        CapabilityLayout.Value value = parsedValue(name);
+        return value != null ? value.toEnum(enumType) : null;
+    }
+
+    private CapabilityLayout.Value parsedValue(String name) {
+        int slot = layout.slot(name);
+        if (slot < 0) {
+            return null;
+        }
+        char code = codes[slot];
+        if (code == CapabilityLayout.RAW) {
+            return rawValues[slot];
+        }
+        return code >= CapabilityLayout.FIRST_CODE ? layout.value(code) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = layout.slot(key);
+        return slot >= 0 && codes[slot] != CapabilityLayout.ABSENT;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof CompactCapabilities) {
+            CompactCapabilities other = (CompactCapabilities) o;
+            // same codes are the same values, but the same value may also have been stored as raw value
+            if (other.layout == layout && Arrays.equals(other.codes, codes) && sameRawValues(other.rawValues, rawValues)) {
+                return true;
+            }
+            if (other.size != size || (hash != 0 && other.hash != 0 && hash != other.hash)) {
+                return false;
+            }
+        }
+        return super.equals(o);
+    }
+
+    private static boolean sameRawValues(CapabilityLayout.Value[] a, CapabilityLayout.Value[] b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        for (int slot = 0; slot < a.length; slot++) {
+            if (a[slot] != b[slot] && (a[slot] == null || b[slot] == null || !a[slot].text.equals(b[slot].text))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // as defined by Map.hashCode, cached since the map is immutable
+        int h = hash;
+        if (h == 0) {
+            for (int slot = 0; slot < codes.length; slot++) {
+                if (codes[slot] != CapabilityLayout.ABSENT) {
+                    h += layout.name(slot).hashCode() ^ Objects.hashCode(valueAt(slot));
+                }
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        private int next = advance(0);
+
+        private int advance(int slot) {
+            while (slot < codes.length && codes[slot] == CapabilityLayout.ABSENT) {
+                slot++;
+            }
+            return slot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < codes.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next >= codes.length) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = new SimpleImmutableEntry<>(layout.name(next), valueAt(next));
+            next = advance(next + 1);
+            return entry;
+        }
+    }
+}
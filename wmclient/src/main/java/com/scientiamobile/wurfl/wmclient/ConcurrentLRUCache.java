@@ -0,0 +1,82 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Least recently used cache that does not serialize readers.<br>
+ * Cache hits are recorded in a read buffer and applied to the LRU order lazily (see {@link BufferedCache}).
+ * Since read buffers are lossy, eviction order is an approximation of the LRU order under heavy read load.
+ */
+class ConcurrentLRUCache<K, E> extends BufferedCache<K, E> {
+
+    private final int maxSize;
+    // LRU list, guarded by the eviction lock
+    private final AccessQueue<K, E> queue = new AccessQueue<>();
+
+    /**
+     * Created an instance of ConcurrentLRUCache with the given maximum size.<br>
+     *
+     * @param maxSize The cache's maximum size
+     */
+    ConcurrentLRUCache(int maxSize) {
+        super(maxSize > 0 ? maxSize : DEFAULT_SIZE);
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_SIZE;
+    }
+
+    /**
+     * Created an instance of ConcurrentLRUCache bounded by entry count, by total weight and by entry age.<br>
+     *
+     * @param maxSize               The cache's maximum size
+     * @param maxWeight             maximum total weight of the entries, negative for no weight bound
+     * @param weigher               computes the entry weights, required if maxWeight is not negative
+     * @param expireAfterWriteNanos time after which an entry expires since it was written, negative if entries never expire
+     */
+    ConcurrentLRUCache(int maxSize, long maxWeight, CacheWeigher<? super K, ? super E> weigher, long expireAfterWriteNanos) {
+        super(maxSize > 0 ? maxSize : DEFAULT_SIZE, maxWeight, weigher, expireAfterWriteNanos);
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_SIZE;
+    }
+
+    /**
+     * Created an instance of ConcurrentLRUCache with the default maximum size.<br>
+     */
+    ConcurrentLRUCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    @Override
+    void onAccess(Node<K, E> node) {
+        if (node.queue == queue) {
+            queue.moveToHead(node);
+        }
+    }
+
+    @Override
+    void onInsert(Node<K, E> node) {
+        while (queue.size() >= maxSize) {
+            evict(queue.peekLast());
+        }
+        queue.linkHead(node);
+    }
+
+    @Override
+    void onClear() {
+        queue.clear();
+    }
+
+    @Override
+    Node<K, E> nextVictim() {
+        return queue.peekLast();
+    }
+}
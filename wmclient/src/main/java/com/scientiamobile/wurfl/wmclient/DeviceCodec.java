@@ -0,0 +1,142 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary encoding of the device data stored outside of the heap caches (off heap cache records, cache snapshots).<br>
+ * A device is its mtime, ltime and error, followed by the number of capabilities (-1 if null) and their name/value pairs.
+ * Strings are written as a presence flag followed by their modified UTF-8 encoding.<br>
+ * When a {@link CapabilityLayout} is given, compact capabilities of that layout are written as slots and dictionary codes
+ * instead (see {@link CompactCapabilities#write}): such devices can only be read with the same layout instance, so this form is
+ * used by the off heap cache, but not by cache snapshots, which are read by other clients.
+ */
+final class DeviceCodec {
+
+    // capability count of compact capabilities written with the slots and codes of their layout
+    private static final int COMPACT = -2;
+
+    private DeviceCodec() {
+    }
+
+    static void write(DataOutput out, Model.JSONDeviceData device) throws IOException {
+        write(out, device, null);
+    }
+
+    /**
+     * Writes a device, with its capabilities in compact form if they are compact capabilities of the given layout.
+     */
+    static void write(DataOutput out, Model.JSONDeviceData device, CapabilityLayout layout) throws IOException {
+        out.writeInt(device.mtime);
+        writeString(out, device.ltime);
+        writeString(out, device.error);
+        if (device.capabilities == null) {
+            out.writeInt(-1);
+        } else if (layout != null && device.capabilities instanceof CompactCapabilities
+                && ((CompactCapabilities) device.capabilities).layout() == layout) {
+            out.writeInt(COMPACT);
+            ((CompactCapabilities) device.capabilities).write(out);
+        } else {
+            out.writeInt(device.capabilities.size());
+            for (Map.Entry<String, String> capability : device.capabilities.entrySet()) {
+                writeString(out, capability.getKey());
+                writeString(out, capability.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads a device. Its capabilities are unmodifiable, since devices read from a cache are shared by lookups.
+     */
+    static Model.JSONDeviceData read(DataInput in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * Reads a device written with the given layout, which can be null if the device was written without layout.
+     */
+    static Model.JSONDeviceData read(DataInput in, CapabilityLayout layout) throws IOException {
+        int mtime = in.readInt();
+        String ltime = readString(in);
+        String error = readString(in);
+        int count = in.readInt();
+        Map<String, String> capabilities = null;
+        if (count == COMPACT) {
+            if (layout == null) {
+                throw new IOException("Compact capabilities cannot be read without their layout");
+            }
+            capabilities = CompactCapabilities.read(layout, in);
+        } else if (count >= 0) {
+            capabilities = new LinkedHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                capabilities.put(readString(in), readString(in));
+            }
+            capabilities = Collections.unmodifiableMap(capabilities);
+        }
+        Model.JSONDeviceData device = Model.m.new JSONDeviceData(capabilities, error, mtime);
+        device.ltime = ltime;
+        return device;
+    }
+
+    static byte[] encode(Model.JSONDeviceData device) {
+        return encode(device, null);
+    }
+
+    static byte[] encode(Model.JSONDeviceData device, CapabilityLayout layout) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out, device, layout);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Model.JSONDeviceData decode(byte[] bytes) {
+        return decode(bytes, null);
+    }
+
+    static Model.JSONDeviceData decode(byte[] bytes, CapabilityLayout layout) {
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(bytes)), layout);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
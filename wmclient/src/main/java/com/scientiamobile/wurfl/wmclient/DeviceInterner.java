@@ -0,0 +1,189 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes cached lookups resolving to the same device share a single immutable JSONDeviceData instance.<br>
+ * Many distinct user agents get the same detection result, but each server response is parsed into its own object: interning
+ * keeps one instance per distinct result, so that a large user agent cache holds far fewer capability maps.<br>
+ * Devices are bucketed by WURFL file load time (ltime), WURFL ID and requested capabilities. These are not enough to share a device:
+ * virtual capabilities (ie: advertised browser version) depend on the lookup headers, so two devices of the same bucket are the same
+ * only when they also have the same error and capability values. The mtime of the first interned response is kept.<br>
+ * WmClient clears the interner when WM server loads a new WURFL file.<br>
+ * Interned devices are weakly referenced, so they are released as soon as no cache entry or caller uses them anymore.
+ */
+final class DeviceInterner {
+
+    private final ConcurrentHashMap<Key, WeakKey> devices = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Model.JSONDeviceData> released = new ReferenceQueue<>();
+
+    /**
+     * Returns the shared instance of the given device. If it is the first one with its content, the device capabilities are made
+     * unmodifiable (compact capabilities already are) and the device itself becomes the shared instance.
+     *
+     * @param device a device just received from server, not yet visible to other threads
+     * @return the shared device instance
+     */
+    Model.JSONDeviceData intern(Model.JSONDeviceData device) {
+        expungeReleased();
+
+        Probe probe = new Probe(device);
+        if (device.capabilities != null && !(device.capabilities instanceof CompactCapabilities)) {
+            device.capabilities = Collections.unmodifiableMap(device.capabilities);
+        }
+        WeakKey existing = devices.get(probe);
+        while (true) {
+            if (existing != null) {
+                Model.JSONDeviceData shared = existing.get();
+                if (shared != null) {
+                    return shared;
+                }
+                // released but not expunged yet
+                devices.remove(existing, existing);
+            }
+
+            WeakKey key = new WeakKey(device, probe.hash, released);
+            existing = devices.putIfAbsent(key, key);
+            if (existing == null) {
+                return device;
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct devices currently interned, including released ones not expunged yet
+     */
+    int size() {
+        return devices.size();
+    }
+
+    void clear() {
+        devices.clear();
+        expungeReleased();
+    }
+
+    private void expungeReleased() {
+        Reference<? extends Model.JSONDeviceData> ref;
+        while ((ref = released.poll()) != null) {
+            devices.remove(ref, ref);
+        }
+    }
+
+    // Hashes the bucket of the device, without hashing its capability values
+    private static int bucketHash(Model.JSONDeviceData device) {
+        int hash = Objects.hashCode(device.ltime);
+        Map<String, String> capabilities = device.capabilities;
+        if (capabilities == null) {
+            return hash;
+        }
+        hash = 31 * hash + Objects.hashCode(capabilities.get("wurfl_id"));
+        // compact capabilities share the layout of the requested capabilities
+        return 31 * hash + (capabilities instanceof CompactCapabilities
+                ? System.identityHashCode(((CompactCapabilities) capabilities).layout())
+                : capabilities.keySet().hashCode());
+    }
+
+    private static boolean sameContent(Model.JSONDeviceData d1, Model.JSONDeviceData d2) {
+        return Objects.equals(d1.ltime, d2.ltime) && Objects.equals(d1.error, d2.error) && Objects.equals(d1.capabilities, d2.capabilities);
+    }
+
+    // Common contract of the map keys and of the probes used to look them up
+    private interface Key {
+        Model.JSONDeviceData device();
+
+        int keyHash();
+
+        static boolean keyEquals(Key k1, Object o) {
+            if (k1 == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k2 = (Key) o;
+            Model.JSONDeviceData d1 = k1.device();
+            Model.JSONDeviceData d2 = k2.device();
+            // a released key is only equal to itself
+            return d1 != null && d2 != null && k1.keyHash() == k2.keyHash() && sameContent(d1, d2);
+        }
+    }
+
+    private static final class Probe implements Key {
+        private final Model.JSONDeviceData device;
+        private final int hash;
+
+        Probe(Model.JSONDeviceData device) {
+            this.device = device;
+            this.hash = bucketHash(device);
+        }
+
+        @Override
+        public Model.JSONDeviceData device() {
+            return device;
+        }
+
+        @Override
+        public int keyHash() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return Key.keyEquals(this, o);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class WeakKey extends WeakReference<Model.JSONDeviceData> implements Key {
+        private final int hash;
+
+        WeakKey(Model.JSONDeviceData device, int hash, ReferenceQueue<Model.JSONDeviceData> queue) {
+            super(device, queue);
+            this.hash = hash;
+        }
+
+        @Override
+        public Model.JSONDeviceData device() {
+            return get();
+        }
+
+        @Override
+        public int keyHash() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return Key.keyEquals(this, o);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
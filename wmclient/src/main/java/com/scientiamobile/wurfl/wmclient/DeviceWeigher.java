@@ -0,0 +1,74 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.Map;
+
+/**
+ * Estimates the heap used by a device cache entry, in bytes: key, device data, capabilities and cache internal nodes.<br>
+ * Estimates assume a 64-bit JVM with compressed references and compact (one byte per char) strings. Interned devices
+ * ({@link DeviceInterner}) are counted by each entry referencing them, so the estimated total is an upper bound.
+ */
+final class DeviceWeigher implements CacheWeigher<Object, Model.JSONDeviceData> {
+
+    static final DeviceWeigher INSTANCE = new DeviceWeigher();
+
+    // cache node, ConcurrentHashMap node and read buffer share
+    private static final int ENTRY_OVERHEAD = 72;
+    private static final int DEVICE_OVERHEAD = 32;
+    private static final int MAP_OVERHEAD = 64;
+    private static final int MAP_ENTRY_OVERHEAD = 40;
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int HEADERS_KEY_BYTES = 32;
+
+    private DeviceWeigher() {
+    }
+
+    @Override
+    public int weigh(Object key, Model.JSONDeviceData device) {
+        long bytes = ENTRY_OVERHEAD;
+        if (key instanceof HeadersKey) {
+            bytes += HEADERS_KEY_BYTES + stringBytes(((HeadersKey) key).getRaw());
+        } else if (key instanceof String) {
+            bytes += stringBytes((String) key);
+        }
+        if (device != null) {
+            bytes += DEVICE_OVERHEAD + stringBytes(device.ltime) + stringBytes(device.error) + capabilitiesBytes(device.capabilities);
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    static long stringBytes(String s) {
+        return s != null ? 24 + ARRAY_OVERHEAD + s.length() : 0;
+    }
+
+    static long arrayBytes(int length, int elementBytes) {
+        return ARRAY_OVERHEAD + (long) length * elementBytes;
+    }
+
+    private static long capabilitiesBytes(Map<String, String> capabilities) {
+        if (capabilities == null) {
+            return 0;
+        }
+        if (capabilities instanceof CompactCapabilities) {
+            return ((CompactCapabilities) capabilities).estimatedBytes();
+        }
+        long bytes = MAP_OVERHEAD + arrayBytes(capabilities.size() * 2, 4);
+        for (Map.Entry<String, String> capability : capabilities.entrySet()) {
+            bytes += MAP_ENTRY_OVERHEAD + stringBytes(capability.getKey()) + stringBytes(capability.getValue());
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.Map;
+
+/**
+ * Key of the user agent cache: a 128-bit fingerprint of the values of the important headers of a lookup.<br>
+ * The fingerprint is the MurmurHash3 (x64, 128-bit) of an unambiguous encoding of the headers, where each non-empty value is
+ * preceded by the index of its header in the important headers list and by its length. Distinct header combinations always have
+ * distinct encodings, so keys can only collide if their 128-bit hashes do (the probability is negligible even with billions of keys).<br>
+ * The key is hashed while reading the header values, without building a concatenated string: it costs a single small object per
+ * lookup and uses much less memory than a user agent string when cached. When verification is enabled, the encoding is also kept
+ * as a string and compared by {@link #equals(Object)}, which rules out any collision at the cost of memory.
+ */
+final class HeadersKey {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long SEED = 0x9747b28cL;
+
+    private final long hi;
+    private final long lo;
+    private final String raw;
+
+    HeadersKey(long hi, long lo, String raw) {
+        this.hi = hi;
+        this.lo = lo;
+        this.raw = raw;
+    }
+
+    /**
+     * Creates the key of the given headers.
+     *
+     * @param importantHeaders names of the headers used for detection, in WM server order
+     * @param headers          lookup headers, mapped by their name as it appears in important headers
+     * @param keepRaw          if true, the key keeps the headers encoding to verify equality
+     * @return the key, or null if none of the important headers has a value
+     */
+    static HeadersKey of(String[] importantHeaders, Map<String, String> headers, boolean keepRaw) {
+        Murmur3 hash = new Murmur3();
+        StringBuilder raw = keepRaw ? new StringBuilder() : null;
+        boolean empty = true;
+        for (int i = 0; i < importantHeaders.length; i++) {
+            String value = headers.get(importantHeaders[i]);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            empty = false;
+            int length = value.length();
+            hash.put((char) i);
+            hash.put((char) (length >>> 16));
+            hash.put((char) length);
+            for (int c = 0; c < length; c++) {
+                hash.put(value.charAt(c));
+            }
+            if (raw != null) {
+                raw.append(i).append(':').append(length).append(':').append(value);
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        hash.finish();
+        return new HeadersKey(hash.h1, hash.h2, raw != null ? raw.toString() : null);
+    }
+
+    long getHi() {
+        return hi;
+    }
+
+    long getLo() {
+        return lo;
+    }
+
+    /**
+     * @return the headers encoding, or null if the key has been created without keeping it
+     */
+    String getRaw() {
+        return raw;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HeadersKey)) {
+            return false;
+        }
+        HeadersKey other = (HeadersKey) o;
+        return hi == other.hi && lo == other.lo && (raw == null || other.raw == null || raw.equals(other.raw));
+    }
+
+    @Override
+    public int hashCode() {
+        // bits are already well mixed
+        return (int) lo;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", hi, lo);
+    }
+
+    // MurmurHash3 x64 128-bit, fed with UTF-16 chars (little endian) so that strings are hashed without encoding them
+    private static final class Murmur3 {
+        long h1 = SEED;
+        long h2 = SEED;
+        private long k1;
+        private long k2;
+        private int count;
+
+        void put(char c) {
+            int position = count & 7;
+            if (position < 4) {
+                k1 |= (long) c << (position << 4);
+            } else {
+                k2 |= (long) c << ((position - 4) << 4);
+            }
+            count++;
+            if ((count & 7) == 0) {
+                mixBlock();
+            }
+        }
+
+        private void mixBlock() {
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+            k1 = 0;
+            k2 = 0;
+        }
+
+        void finish() {
+            if ((count & 7) != 0) {
+                h1 ^= mixK1(k1);
+                h2 ^= mixK2(k2);
+            }
+            long length = (long) count << 1;
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            h2 += h1;
+        }
+
+        private static long mixK1(long k) {
+            k *= C1;
+            k = Long.rotateLeft(k, 31);
+            return k * C2;
+        }
+
+        private static long mixK2(long k) {
+            k *= C2;
+            k = Long.rotateLeft(k, 33);
+            return k * C1;
+        }
+
+        private static long fmix64(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
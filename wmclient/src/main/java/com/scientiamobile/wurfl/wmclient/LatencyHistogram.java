@@ -0,0 +1,102 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies, with microsecond resolution.<br>
+ * Values are counted in log-linear buckets, like HdrHistogram does: each power of two range is split in
+ * {@value #HALF_SUB_BUCKETS} linear sub-buckets, so that any recorded value is reported with a relative error below 1/16 (~6%),
+ * using a fixed amount of memory. Recording is a few atomic increments and never blocks; snapshots can be taken at any time,
+ * while values are being recorded, and are only weakly consistent with concurrent recordings.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    // about 19 hours, higher values are counted in the last bucket
+    static final long MAX_TRACKABLE_MICROS = (1L << 36) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_TRACKABLE_MICROS);
+        counts.incrementAndGet(bucketIndex(micros));
+        totalCount.increment();
+        totalMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    long count() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return a snapshot of the values recorded so far
+     */
+    LatencySnapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new LatencySnapshot(snapshotCounts, count, totalMicros.sum(), maxMicros.get());
+    }
+
+    // Values below SUB_BUCKETS have their own bucket, higher values share a bucket with the values having the same
+    // highest SUB_BUCKET_BITS - 1 bits
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (mantissa - HALF_SUB_BUCKETS);
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long mantissa = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return mantissa << shift;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Immutable snapshot of the latencies of the requests sent to a WM server endpoint. All values are in microseconds.<br>
+ * Percentiles are approximated: the reported value is the upper bound of the histogram bucket holding it,
+ * which is at most ~6% higher than the actual recorded value.
+ */
+public final class LatencySnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long totalMicros;
+    private final long maxMicros;
+
+    LatencySnapshot(long[] counts, long count, long totalMicros, long maxMicros) {
+        this.counts = counts;
+        this.count = count;
+        this.totalMicros = totalMicros;
+        this.maxMicros = maxMicros;
+    }
+
+    // Returns a snapshot of the latencies of both snapshots
+    LatencySnapshot merge(LatencySnapshot other) {
+        long[] merged = counts.clone();
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] += other.counts[i];
+        }
+        return new LatencySnapshot(merged, count + other.count, totalMicros + other.totalMicros, Math.max(maxMicros, other.maxMicros));
+    }
+
+    /**
+     * @return number of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean latency in microseconds, 0 if no latency has been recorded
+     */
+    public double getMeanMicros() {
+        return count == 0 ? 0 : (double) totalMicros / count;
+    }
+
+    /**
+     * @return maximum recorded latency in microseconds
+     */
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded latencies fall.
+     *
+     * @param percentile a value between 0 and 100, ie: 99.9
+     * @return latency in microseconds, 0 if no latency has been recorded
+     */
+    public long getValueAtPercentileMicros(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{count=" + count + ", mean=" + Math.round(getMeanMicros()) + "us, p50=" + getValueAtPercentileMicros(50)
+                + "us, p99=" + getValueAtPercentileMicros(99) + "us, p99.9=" + getValueAtPercentileMicros(99.9) + "us, max=" + maxMicros + "us}";
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted by every device lookup, including cache hits. Its duration is the lookup time as seen by the caller.
+ */
+@Name("com.scientiamobile.wurfl.wmclient.Lookup")
+@Label("WM Lookup")
+@Category({"WURFL Microservice", "Client"})
+@Description("Device lookup performed by a WURFL Microservice client")
+@StackTrace(false)
+class LookupEvent extends Event {
+
+    static final String HIT = "HIT";
+    // the lookup found a device from a previous WURFL file, which is refreshed in background
+    static final String STALE = "STALE";
+    static final String MISS = "MISS";
+    // the lookup waited for the response of a request sent by another lookup on the same key
+    static final String SHARED = "SHARED";
+    // the lookup cannot use the cache, ie: empty headers
+    static final String NOT_CACHED = "NOT_CACHED";
+
+    private static final EventType TYPE = EventType.getEventType(LookupEvent.class);
+
+    // shared by lookups while no recording enables this event: its fields are written but it is never begun nor committed
+    static final LookupEvent DISABLED = new LookupEvent();
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Cache Result")
+    @Description("HIT, STALE (hit on an entry from a previous WURFL file), MISS, SHARED (waited for a request sent by another lookup) or NOT_CACHED")
+    String cacheResult;
+
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Bytes")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Success")
+    boolean success;
+
+    /**
+     * @return a begun event for a new lookup, or {@link #DISABLED} when no recording enables this event, so that lookups do not allocate it
+     */
+    static LookupEvent start() {
+        if (!TYPE.isEnabled()) {
+            return DISABLED;
+        }
+        LookupEvent event = new LookupEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -159,6 +159,49 @@ public class Model {
             this.error = error;
             this.mtime = mtime;
         }
+
+        /**
+         * Returns a boolean capability value. Values of cached devices are parsed once, when they are added to the cache; values of
+         * devices that are not cached, or whose capabilities are not known to the client, are parsed on each call.
+         * @param capName capability name
+         * @return true if the capability value is "true" (ignoring case), false otherwise or if the capability is missing
+         */
+        public boolean getBoolean(String capName) {
+            if (capabilities instanceof CompactCapabilities) {
+                return ((CompactCapabilities) capabilities).getBoolean(capName);
+            }
+            return capabilities != null && Boolean.parseBoolean(capabilities.get(capName));
+        }
+
+        /**
+         * Returns an integer capability value (ie: resolution_width). Values of cached devices are parsed once, when they are added
+         * to the cache; values of devices that are not cached, or whose capabilities are not known to the client, are parsed on each call.
+         * @param capName capability name
+         * @return the capability value as int
+         * @throws NumberFormatException if the capability is missing or its value is not an integer, as Integer.parseInt does
+         */
+        public int getInt(String capName) {
+            if (capabilities instanceof CompactCapabilities) {
+                return ((CompactCapabilities) capabilities).getInt(capName);
+            }
+            return Integer.parseInt(capabilities != null ? capabilities.get(capName) : null);
+        }
+
+        /**
+         * Returns a capability value as an enum constant (ie: form_factor). The constant name must be equal to the value, ignoring case
+         * and with any character other than letters and digits replaced by an underscore: "Feature Phone" is FEATURE_PHONE.
+         * The conversion of cached device values is cached too.
+         * @param capName capability name
+         * @param enumType enum class
+         * @param <E> enum type
+         * @return the matching enum constant, or null if the capability is missing or no constant matches its value
+         */
+        public <E extends Enum<E>> E getEnum(String capName, Class<E> enumType) {
+            if (capabilities instanceof CompactCapabilities) {
+                return ((CompactCapabilities) capabilities).getEnum(capName, enumType);
+            }
+            return CapabilityLayout.toEnum(capabilities != null ? capabilities.get(capName) : null, enumType);
+        }
     }
 
     /**
@@ -0,0 +1,419 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * User agent cache storing its entries outside of the Java heap, for caches holding millions of user agents without increasing
+ * garbage collection work.<br>
+ * Keys are the 128-bit header fingerprints of {@link HeadersKey}, stored in an open addressing (linear probing) index held in a
+ * direct buffer: an entry costs {@value #SLOT_BYTES} bytes of index, plus one byte for its CLOCK reference bit. Devices are serialized
+ * in direct buffer segments, and each distinct device is stored once however many user agents resolve to it. Compact capabilities
+ * are stored as the slots and dictionary codes of their {@link CapabilityLayout}, which stays on the heap: names and common values
+ * are not copied in each record. Decoded devices are kept in a small table, so that hits on popular devices do not decode them again.<br>
+ * When the cache is full, entries are evicted with the CLOCK policy (an approximation of LRU): a hit sets the entry reference bit,
+ * and the clock hand evicts the first entry without the bit set, clearing the bits it passes.<br>
+ * Device records are only released when the cache is cleared (ie: WM server loads a new WURFL file): the number of distinct devices
+ * is much lower than the number of user agents. If record segments get full anyway (ie: many WURFL files loaded while serving stale
+ * entries), the cache is cleared.<br>
+ * Lookups do not lock: the index is read optimistically and read again holding a read lock if a write happened meanwhile.
+ * Writes hold an exclusive lock. Keys are compared by fingerprint only, header values kept by verified keys are not stored.
+ */
+final class OffHeapCache implements WmCache<HeadersKey, Model.JSONDeviceData> {
+
+    // index slot layout: fingerprint high bits, fingerprint low bits, record reference, state
+    static final int SLOT_BYTES = 24;
+    private static final int HI = 0;
+    private static final int LO = 8;
+    private static final int REF = 16;
+    private static final int STATE = 20;
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+
+    // record references are segment index and offset in segment
+    private static final int SEGMENT_BITS = 22;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int MAX_SEGMENTS = 512;
+
+    static final long DEFAULT_MAX_RECORD_BYTES = 256L * 1024 * 1024;
+
+    private static final int DECODED_SIZE = 4096;
+
+    private final int maxEntries;
+    private final int mask;
+    private final ByteBuffer index;
+    // CLOCK reference bits, one byte per slot. Written by readers without locking: a lost update only affects eviction order
+    private final ByteBuffer referenced;
+    private final ByteBuffer[] segments = new ByteBuffer[MAX_SEGMENTS];
+    private final int maxSegments;
+    private final UnaryOperator<Model.JSONDeviceData> onDecode;
+    private final StampedLock lock = new StampedLock();
+
+    // guarded by the write lock
+    private final Map<Long, Integer> records = new HashMap<>();
+    private int segmentCount;
+    private int writeSegment;
+    private int writeOffset;
+    private int hand;
+    // layout of the compact records, set by the first compact device stored after clear. Read holding a lock.
+    private CapabilityLayout layout;
+
+    private volatile int size;
+    private volatile long evictionCount;
+    // incremented by clear, so that decoded devices of removed records are not used
+    private volatile int generation;
+    private final AtomicReferenceArray<Decoded> decoded = new AtomicReferenceArray<>(DECODED_SIZE);
+
+    /**
+     * @param maxEntries   maximum number of cached user agents
+     * @param maxRecordBytes maximum bytes used to store devices, rounded up to a multiple of {@value #SEGMENT_SIZE}
+     * @param onDecode     applied to the devices read from the cache, ie: to share instances with other cached devices
+     */
+    OffHeapCache(int maxEntries, long maxRecordBytes, UnaryOperator<Model.JSONDeviceData> onDecode) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than zero");
+        }
+        long slots = Long.highestOneBit(Math.max(16, (long) maxEntries * 4 / 3) * 2 - 1);
+        if (slots * SLOT_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Off heap cache cannot hold " + maxEntries + " entries");
+        }
+        this.maxEntries = maxEntries;
+        this.mask = (int) slots - 1;
+        this.index = ByteBuffer.allocateDirect((int) slots * SLOT_BYTES);
+        this.referenced = ByteBuffer.allocateDirect((int) slots);
+        this.maxSegments = (int) Math.max(1, Math.min(MAX_SEGMENTS, (maxRecordBytes + SEGMENT_SIZE - 1) / SEGMENT_SIZE));
+        this.onDecode = onDecode != null ? onDecode : UnaryOperator.identity();
+    }
+
+    OffHeapCache(int maxEntries) {
+        this(maxEntries, DEFAULT_MAX_RECORD_BYTES, null);
+    }
+
+    @Override
+    public Model.JSONDeviceData getEntry(HeadersKey key) {
+        long stamp = lock.tryOptimisticRead();
+        int slot = find(key.getHi(), key.getLo());
+        int ref = slot >= 0 ? index.getInt(slot * SLOT_BYTES + REF) : 0;
+        int gen = generation;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = find(key.getHi(), key.getLo());
+                ref = slot >= 0 ? index.getInt(slot * SLOT_BYTES + REF) : 0;
+                gen = generation;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot < 0) {
+            return null;
+        }
+        referenced.put(slot, (byte) 1);
+
+        Decoded d = decoded.get(ref & (DECODED_SIZE - 1));
+        if (d != null && d.ref == ref && d.generation == gen) {
+            return d.device;
+        }
+        // the record is read holding the read lock, so that it cannot be released by clear meanwhile
+        stamp = lock.readLock();
+        try {
+            if (generation != gen) {
+                return null;
+            }
+            Model.JSONDeviceData device = onDecode.apply(readRecord(ref));
+            decoded.set(ref & (DECODED_SIZE - 1), new Decoded(ref, gen, device));
+            return device;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void putEntry(HeadersKey key, Model.JSONDeviceData device) {
+        CapabilityLayout deviceLayout = device.capabilities instanceof CompactCapabilities
+                ? ((CompactCapabilities) device.capabilities).layout() : null;
+        byte[] record = DeviceCodec.encode(device, deviceLayout);
+        long stamp = lock.writeLock();
+        try {
+            if (deviceLayout != null && deviceLayout != layout) {
+                if (layout == null) {
+                    layout = deviceLayout;
+                } else {
+                    // a device of a previous layout, ie: looked up while requested capabilities changed
+                    record = DeviceCodec.encode(device, null);
+                }
+            }
+            int ref = storeRecord(record);
+            if (ref < 0) {
+                // record segments are full: records no longer used are released by starting again from an empty cache
+                clearLocked();
+                ref = storeRecord(record);
+                if (ref < 0) {
+                    return;
+                }
+            }
+            int slot = find(key.getHi(), key.getLo());
+            if (slot >= 0) {
+                index.putInt(slot * SLOT_BYTES + REF, ref);
+                return;
+            }
+            if (size >= maxEntries) {
+                evictOne();
+            }
+            slot = home(key.getHi(), key.getLo());
+            while (index.getInt(slot * SLOT_BYTES + STATE) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            int base = slot * SLOT_BYTES;
+            index.putLong(base + HI, key.getHi());
+            index.putLong(base + LO, key.getLo());
+            index.putInt(base + REF, ref);
+            index.putInt(base + STATE, USED);
+            referenced.put(slot, (byte) 0);
+            size++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            clearLocked();
+            // WmClient clears its caches when the capability layout changes
+            layout = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void clearLocked() {
+        for (int i = 0; i < index.capacity(); i += 8) {
+            index.putLong(i, 0);
+        }
+        records.clear();
+        writeSegment = 0;
+        writeOffset = 0;
+        hand = 0;
+        size = 0;
+        generation++;
+        for (int i = 0; i < DECODED_SIZE; i++) {
+            decoded.set(i, null);
+        }
+    }
+
+    /**
+     * Visits the entries holding the read lock: the action must not write to this cache. Keys are fingerprint only keys.
+     */
+    @Override
+    public void forEach(BiConsumer<? super HeadersKey, ? super Model.JSONDeviceData> action) {
+        long stamp = lock.readLock();
+        try {
+            // each distinct record is decoded once
+            Map<Integer, Model.JSONDeviceData> devices = new HashMap<>();
+            for (int slot = 0; slot <= mask; slot++) {
+                int base = slot * SLOT_BYTES;
+                if (index.getInt(base + STATE) != EMPTY) {
+                    Model.JSONDeviceData device = devices.computeIfAbsent(index.getInt(base + REF),
+                            ref -> onDecode.apply(readRecord(ref)));
+                    action.accept(new HeadersKey(index.getLong(base + HI), index.getLong(base + LO), null), device);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return bytes allocated outside of the heap: index, reference bits and device record segments
+     */
+    long offHeapBytes() {
+        long stamp = lock.readLock();
+        try {
+            return index.capacity() + referenced.capacity() + (long) segmentCount * SEGMENT_SIZE;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return number of distinct devices stored
+     */
+    int recordCount() {
+        long stamp = lock.readLock();
+        try {
+            return records.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int home(long hi, long lo) {
+        // HeadersKey.hashCode uses the low bits: the index uses the high ones
+        return (int) (hi ^ (hi >>> 32)) & mask;
+    }
+
+    // Returns the slot holding the given fingerprint, or -1
+    private int find(long hi, long lo) {
+        int slot = home(hi, lo);
+        for (int probes = 0; probes <= mask; probes++) {
+            int base = slot * SLOT_BYTES;
+            if (index.getInt(base + STATE) == EMPTY) {
+                return -1;
+            }
+            if (index.getLong(base + HI) == hi && index.getLong(base + LO) == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // CLOCK eviction, must be called holding the write lock with at least one entry in cache
+    private void evictOne() {
+        while (true) {
+            int slot = hand;
+            if (index.getInt(slot * SLOT_BYTES + STATE) != EMPTY) {
+                if (referenced.get(slot) != 0) {
+                    referenced.put(slot, (byte) 0);
+                } else {
+                    // the entry shifted in this slot, if any, is examined next
+                    deleteSlot(slot);
+                    size--;
+                    evictionCount++;
+                    return;
+                }
+            }
+            hand = (slot + 1) & mask;
+        }
+    }
+
+    // Backward shift deletion: entries following the deleted one are moved back if their probe sequence passes through the hole
+    private void deleteSlot(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int base = slot * SLOT_BYTES;
+            if (index.getInt(base + STATE) == EMPTY) {
+                break;
+            }
+            int home = home(index.getLong(base + HI), index.getLong(base + LO));
+            // distance from home to the entry slot, compared to the distance from home to the hole
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                copySlot(slot, hole);
+                hole = slot;
+            }
+        }
+        int base = hole * SLOT_BYTES;
+        index.putLong(base + HI, 0);
+        index.putLong(base + LO, 0);
+        index.putInt(base + REF, 0);
+        index.putInt(base + STATE, EMPTY);
+        referenced.put(hole, (byte) 0);
+    }
+
+    private void copySlot(int from, int to) {
+        int src = from * SLOT_BYTES;
+        int dst = to * SLOT_BYTES;
+        index.putLong(dst + HI, index.getLong(src + HI));
+        index.putLong(dst + LO, index.getLong(src + LO));
+        index.putInt(dst + REF, index.getInt(src + REF));
+        index.putInt(dst + STATE, index.getInt(src + STATE));
+        referenced.put(to, referenced.get(from));
+    }
+
+    // Returns the reference of the stored record, which is shared with equal records, or -1 if there is no space left
+    private int storeRecord(byte[] record) {
+        long hash = ((long) Arrays.hashCode(record) << 32) | record.length;
+        Integer existing = records.get(hash);
+        if (existing != null && Arrays.equals(readBytes(existing), record)) {
+            return existing;
+        }
+
+        int length = 4 + record.length;
+        if (length > SEGMENT_SIZE) {
+            return -1;
+        }
+        if (writeOffset + length > SEGMENT_SIZE || writeSegment >= segmentCount) {
+            if (writeOffset + length > SEGMENT_SIZE) {
+                writeSegment++;
+                writeOffset = 0;
+            }
+            if (writeSegment >= maxSegments) {
+                return -1;
+            }
+            if (writeSegment >= segmentCount) {
+                segments[segmentCount++] = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+            }
+        }
+        ByteBuffer segment = segments[writeSegment];
+        int ref = (writeSegment << SEGMENT_BITS) | writeOffset;
+        segment.putInt(writeOffset, record.length);
+        ByteBuffer target = segment.duplicate();
+        target.position(writeOffset + 4);
+        target.put(record);
+        writeOffset += length;
+        if (existing == null) {
+            // on a hash collision the first record keeps being shared
+            records.put(hash, ref);
+        }
+        return ref;
+    }
+
+    private byte[] readBytes(int ref) {
+        ByteBuffer segment = segments[ref >>> SEGMENT_BITS];
+        int offset = ref & (SEGMENT_SIZE - 1);
+        byte[] bytes = new byte[segment.getInt(offset)];
+        ByteBuffer source = segment.duplicate();
+        source.position(offset + 4);
+        source.get(bytes);
+        return bytes;
+    }
+
+    private Model.JSONDeviceData readRecord(int ref) {
+        return DeviceCodec.decode(readBytes(ref), layout);
+    }
+
+    private static final class Decoded {
+        final int ref;
+        final int generation;
+        final Model.JSONDeviceData device;
+
+        Decoded(int ref, int generation, Model.JSONDeviceData device) {
+            this.ref = ref;
+            this.generation = generation;
+            this.device = device;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non blocking rate limiter: permits are evenly spaced in time, and a permit that is not available right now is denied,
+ * never waited for. Used to bound the rate of background requests sent to WM server.
+ */
+final class RateLimiter {
+
+    private final long intervalNanos;
+    // time at which the next permit becomes available
+    private final AtomicLong nextPermitNanos;
+
+    /**
+     * @param permitsPerSecond maximum number of permits granted each second
+     */
+    RateLimiter(int permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second must be greater than zero");
+        }
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.nextPermitNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return true if a permit has been granted, false if the rate limit has been reached
+     */
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long next = nextPermitNanos.get();
+            if (now - next < 0) {
+                return false;
+            }
+            if (nextPermitNanos.compareAndSet(next, now + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts lookups served by one of the WmClient caches. Counters are LongAdders, so that concurrent lookups
+ * do not contend on the same memory location.
+ */
+final class StatsCounter {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder staleHitCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordStaleHit() {
+        staleHitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    void recordLoadSuccess(long loadTimeNanos) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    void recordLoadFailure(long loadTimeNanos) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    CacheStats snapshot(WmCache<?, ?> cache, int inFlightCount) {
+        return new CacheStats(hitCount.sum(), missCount.sum(), staleHitCount.sum(), cache != null ? cache.evictionCount() : 0, loadSuccessCount.sum(),
+                loadFailureCount.sum(), totalLoadTime.sum(), inFlightCount, cache != null ? cache.size() : 0);
+    }
+}
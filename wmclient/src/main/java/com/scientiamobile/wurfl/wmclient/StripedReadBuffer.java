@@ -0,0 +1,120 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lossy, multiple producers / single consumer buffer used to record cache reads without locking.<br>
+ * Reads are spread on a number of ring buffers (stripes) selected by the calling thread, so that threads hitting the cache
+ * at the same time rarely contend on the same counter. When a stripe is full new elements are simply dropped: the buffer only
+ * carries recency hints for an eviction policy, which tolerates losing some of them.<br>
+ * {@link #drainTo(Consumer)} must be called by one thread at a time (ie: while holding the cache eviction lock).
+ */
+final class StripedReadBuffer<T> {
+
+    // Number of slots of each stripe, must be a power of two
+    static final int STRIPE_SIZE = 16;
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+    // Number of pending elements in a stripe that makes offer() ask for a drain
+    private static final int DRAIN_THRESHOLD = STRIPE_SIZE / 2;
+
+    private final Stripe<T>[] stripes;
+    private final int stripesMask;
+
+    StripedReadBuffer() {
+        int count = 1;
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        while (count < ncpu * 2) {
+            count <<= 1;
+        }
+        this.stripes = newStripes(count);
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.stripesMask = count - 1;
+    }
+
+    // generic arrays cannot be created directly
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Stripe<T>[] newStripes(int count) {
+        return (Stripe<T>[]) new Stripe[count];
+    }
+
+    /**
+     * Records an element in the stripe of the calling thread.
+     *
+     * @param e the element to record
+     * @return true if the caller should drain the buffer, because the stripe is full or almost full
+     */
+    boolean offer(T e) {
+        // Spread thread ids, which are usually sequential, on the stripes
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & stripesMask].offer(e);
+    }
+
+    /**
+     * Passes all the recorded elements to the given consumer and removes them from the buffer.
+     *
+     * @param consumer the element consumer
+     */
+    void drainTo(Consumer<T> consumer) {
+        for (Stripe<T> stripe : stripes) {
+            stripe.drainTo(consumer);
+        }
+    }
+
+    // A single ring buffer. writeCounter is advanced by producers, readCounter only by the draining thread.
+    private static final class Stripe<T> {
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+        private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(STRIPE_SIZE);
+
+        boolean offer(T e) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            long size = tail - head;
+            if (size >= STRIPE_SIZE) {
+                // buffer is full, element is dropped
+                return true;
+            }
+            // If the CAS fails another thread has just written in the same stripe: dropping the element is cheaper than retrying
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & STRIPE_MASK), e);
+                return size + 1 >= DRAIN_THRESHOLD;
+            }
+            return false;
+        }
+
+        void drainTo(Consumer<T> consumer) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & STRIPE_MASK);
+                T e = slots.get(index);
+                if (e == null) {
+                    // producer has claimed the slot but not yet published the element, we'll get it on next drain
+                    break;
+                }
+                slots.lazySet(index, null);
+                consumer.accept(e);
+            }
+            readCounter = head;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Cache using the W-TinyLFU eviction policy, which keeps a high hit ratio when popular keys are mixed with a long tail of keys
+ * that are seen only once (ie: bots scanning with random user agents).<br>
+ * New entries go to a small LRU window (1% of the capacity). Entries leaving the window compete for a place in the main
+ * segmented LRU with its least recently used entry: the one seen more often, according to a {@link FrequencySketch}, survives.
+ * The main area is split in a probation segment and a protected segment (80% of the main area) holding entries that have been
+ * hit at least once since they were admitted.<br>
+ * As for {@link ConcurrentLRUCache}, cache hits are recorded in a read buffer and do not take locks.
+ */
+class TinyLFUCache<K, E> extends BufferedCache<K, E> {
+
+    private final int maxWindowSize;
+    private final int maxMainSize;
+    private final int maxProtectedSize;
+
+    // All the policy state is guarded by the eviction lock
+    private final FrequencySketch sketch;
+    private final AccessQueue<K, E> window = new AccessQueue<>();
+    private final AccessQueue<K, E> probation = new AccessQueue<>();
+    private final AccessQueue<K, E> protectedQueue = new AccessQueue<>();
+
+    /**
+     * Created an instance of TinyLFUCache with the given maximum size.<br>
+     *
+     * @param maxSize The cache's maximum size
+     */
+    TinyLFUCache(int maxSize) {
+        this(maxSize, -1, null, -1);
+    }
+
+    /**
+     * Created an instance of TinyLFUCache bounded by entry count, by total weight and by entry age.<br>
+     * Entries evicted to stay within the maximum weight, or because they expired, are taken from the end of the probation
+     * segment first, then from the protected segment and the window.
+     *
+     * @param maxSize               The cache's maximum size
+     * @param maxWeight             maximum total weight of the entries, negative for no weight bound
+     * @param weigher               computes the entry weights, required if maxWeight is not negative
+     * @param expireAfterWriteNanos time after which an entry expires since it was written, negative if entries never expire
+     */
+    TinyLFUCache(int maxSize, long maxWeight, CacheWeigher<? super K, ? super E> weigher, long expireAfterWriteNanos) {
+        super(maxSize > 0 ? maxSize : DEFAULT_SIZE, maxWeight, weigher, expireAfterWriteNanos);
+        int size = maxSize > 0 ? maxSize : DEFAULT_SIZE;
+        this.maxWindowSize = Math.max(1, size / 100);
+        this.maxMainSize = size - maxWindowSize;
+        this.maxProtectedSize = (int) (maxMainSize * 0.8);
+        this.sketch = new FrequencySketch(size);
+    }
+
+    /**
+     * Created an instance of TinyLFUCache with the default maximum size.<br>
+     */
+    TinyLFUCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    @Override
+    void onAccess(Node<K, E> node) {
+        if (node.queue == null) {
+            // already evicted
+            return;
+        }
+
+        sketch.increment(node.key);
+        if (node.queue == window) {
+            window.moveToHead(node);
+        } else if (node.queue == probation) {
+            // second hit in main area: entry is promoted to the protected segment
+            probation.unlink(node);
+            protectedQueue.linkHead(node);
+            if (protectedQueue.size() > maxProtectedSize) {
+                Node<K, E> demoted = protectedQueue.peekLast();
+                protectedQueue.unlink(demoted);
+                probation.linkHead(demoted);
+            }
+        } else {
+            protectedQueue.moveToHead(node);
+        }
+    }
+
+    @Override
+    void onInsert(Node<K, E> node) {
+        sketch.increment(node.key);
+        window.linkHead(node);
+        if (window.size() <= maxWindowSize) {
+            return;
+        }
+
+        Node<K, E> candidate = window.peekLast();
+        window.unlink(candidate);
+        if (probation.size() + protectedQueue.size() < maxMainSize) {
+            probation.linkHead(candidate);
+            return;
+        }
+
+        Node<K, E> victim = probation.size() > 0 ? probation.peekLast() : protectedQueue.peekLast();
+        if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            evict(victim);
+            probation.linkHead(candidate);
+        } else {
+            evict(candidate);
+        }
+    }
+
+    @Override
+    void onClear() {
+        window.clear();
+        probation.clear();
+        protectedQueue.clear();
+    }
+
+    @Override
+    Node<K, E> nextVictim() {
+        if (probation.size() > 0) {
+            return probation.peekLast();
+        }
+        return protectedQueue.size() > 0 ? protectedQueue.peekLast() : window.peekLast();
+    }
+}
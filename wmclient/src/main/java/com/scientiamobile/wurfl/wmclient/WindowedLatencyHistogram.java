@@ -0,0 +1,116 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Histogram of recent latencies: values are recorded in a LatencyHistogram covering a fixed interval of time, and percentiles
+ * are computed on the values of the current and previous intervals only. Unlike a LatencyHistogram, whose percentiles
+ * are computed on all the values recorded since its creation, its percentiles follow latency changes within two intervals.
+ */
+final class WindowedLatencyHistogram {
+
+    // last computed percentile of a window, refreshed every PERCENTILE_REFRESH_COUNT values
+    private static final long PERCENTILE_REFRESH_COUNT = 100;
+
+    private final long intervalNanos;
+    private final LongSupplier ticker;
+    private final AtomicReference<Window> window;
+
+    /**
+     * @param intervalNanos duration of each interval in nanoseconds
+     */
+    WindowedLatencyHistogram(long intervalNanos) {
+        this(intervalNanos, System::nanoTime);
+    }
+
+    WindowedLatencyHistogram(long intervalNanos, LongSupplier ticker) {
+        this.intervalNanos = intervalNanos;
+        this.ticker = ticker;
+        this.window = new AtomicReference<>(new Window(null, ticker.getAsLong()));
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        currentWindow().current.record(nanos);
+    }
+
+    /**
+     * Returns the value at the given percentile of the current and previous intervals. The value is computed again only after
+     * {@value #PERCENTILE_REFRESH_COUNT} new values have been recorded, or when a new interval starts.
+     *
+     * @param percentile percentile, between 0 and 100
+     * @param minCount   number of values of the current and previous intervals needed to return a percentile
+     * @return the value at the given percentile in nanoseconds, or -1 if fewer than minCount values have been recorded
+     */
+    long percentileNanos(double percentile, long minCount) {
+        Window w = currentWindow();
+        long previousCount = w.previous != null ? w.previous.getCount() : 0;
+        CachedPercentile cached = w.cachedPercentile;
+        if (cached != null && cached.percentile == percentile) {
+            long count = previousCount + w.current.count();
+            if (cached.nanos < 0 ? count < minCount : count - cached.count < PERCENTILE_REFRESH_COUNT) {
+                return cached.nanos;
+            }
+        }
+        LatencySnapshot snapshot = w.previous != null ? w.current.snapshot().merge(w.previous) : w.current.snapshot();
+        long nanos = snapshot.getCount() >= minCount ? snapshot.getValueAtPercentileMicros(percentile) * 1000 : -1;
+        w.cachedPercentile = new CachedPercentile(percentile, snapshot.getCount(), nanos);
+        return nanos;
+    }
+
+    // Starts a new interval when the current one has elapsed. Values of the intervals before the previous one are dropped.
+    private Window currentWindow() {
+        Window w = window.get();
+        long now = ticker.getAsLong();
+        long elapsed = now - w.start;
+        if (elapsed < intervalNanos) {
+            return w;
+        }
+        Window next = new Window(elapsed < 2 * intervalNanos ? w.current.snapshot() : null, now);
+        return window.compareAndSet(w, next) ? next : window.get();
+    }
+
+    private static final class Window {
+        final LatencyHistogram current = new LatencyHistogram();
+        // values of the previous interval, which are no longer recorded
+        final LatencySnapshot previous;
+        final long start;
+        volatile CachedPercentile cachedPercentile;
+
+        Window(LatencySnapshot previous, long start) {
+            this.previous = previous;
+            this.start = start;
+        }
+    }
+
+    private static final class CachedPercentile {
+        final double percentile;
+        final long count;
+        final long nanos;
+
+        CachedPercentile(double percentile, long count, long nanos) {
+            this.percentile = percentile;
+            this.count = count;
+            this.nanos = nanos;
+        }
+    }
+}
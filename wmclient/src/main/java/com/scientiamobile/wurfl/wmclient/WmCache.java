@@ -0,0 +1,75 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Contract shared by the caches used by WmClient to store device detection results.<br>
+ * Implementations must be safe for concurrent use by multiple threads.
+ */
+interface WmCache<K, E> {
+
+    /**
+     * Returns the element mapped to the given key, or null if key does not exist in cache
+     *
+     * @param key the cache key
+     * @return the cache entry
+     */
+    E getEntry(K key);
+
+    /**
+     * Returns the element mapped to the given key if it has expired but has not been removed from cache yet, without affecting
+     * the eviction policy. Caches whose entries never expire return null.
+     *
+     * @param key the cache key
+     * @return the expired cache entry, or null
+     */
+    default E getExpiredEntry(K key) {
+        return null;
+    }
+
+    /**
+     * Puts the entry in cache, replacing any value previously mapped to the same key.
+     *
+     * @param key   the cache key
+     * @param value the value to be cached
+     */
+    void putEntry(K key, E value);
+
+    /**
+     * Removes all elements from cache.
+     */
+    void clear();
+
+    /**
+     * @return the number of elements currently held in cache
+     */
+    int size();
+
+    /**
+     * @return the number of elements removed by the cache to stay within its bounds since it was created. Elements removed by
+     * {@link #clear()} are not counted
+     */
+    long evictionCount();
+
+    /**
+     * Performs the given action on each element currently held in cache, without affecting the eviction policy. Elements inserted
+     * or removed concurrently may or may not be visited.
+     *
+     * @param action the action invoked with each key and element
+     */
+    void forEach(BiConsumer<? super K, ? super E> action);
+}
@@ -30,27 +30,63 @@ limitations under the License.
 package com.scientiamobile.wurfl.wmclient;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
 import com.scientiamobile.wurfl.wmclient.Model.Request;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 import static com.scientiamobile.wurfl.wmclient.Model.newRequest;
 
@@ -61,13 +97,27 @@ import static com.scientiamobile.wurfl.wmclient.Model.newRequest;
  */
 public class WmClient {
 
-    private final static String DEVICE_ID_CACHE_TYPE = "dId-cache";
-    private final static String USERAGENT_CACHE_TYPE = "ua-cache";
+    final static String DEVICE_ID_CACHE_TYPE = "dId-cache";
+    final static String USERAGENT_CACHE_TYPE = "ua-cache";
 
-    private final String scheme;
-    private final String host;
-    private final String port;
-    private final String baseURI;
+    /**
+     * Default maximum number of concurrent requests sent to WM server by batch lookups
+     */
+    public final static int DEFAULT_BATCH_CONCURRENCY = 32;
+
+    // lookups of an endpoint are hedged once its latency percentile is known
+    private static final int HEDGE_MIN_SAMPLES = 100;
+    // hedge delays are computed on the latencies of the last one to two intervals
+    private static final long HEDGE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final Type HEADERS_TYPE = new TypeToken<Map<String, String>>() {
+    }.getType();
+
+    private static final System.Logger LOGGER = System.getLogger(WmClient.class.getName());
+
+    // WM servers receiving the requests
+    private final WmNodePool nodes;
+    private final WmClientConfig config;
 
     // These are the lists of all static or virtual that can be returned by the running wm server
     private String[] staticCaps;
@@ -79,12 +129,44 @@ public class WmClient {
 
     private String[] importantHeaders;
 
+    // Slots of the capabilities returned by server, shared by the capabilities of cached devices
+    private volatile CapabilityLayout capabilityLayout;
+
     // Internal caches
-    private LRUCache<String, Model.JSONDeviceData> devIDCache; // Maps device ID -> JSONDeviceData
-    private LRUCache<String, Model.JSONDeviceData> uaCache; // Maps concat headers (mainly UA) -> JSONDeviceData
+    private WmCache<String, Model.JSONDeviceData> devIDCache; // Maps device ID -> JSONDeviceData
+    private WmCache<HeadersKey, Model.JSONDeviceData> uaCache; // Maps important headers fingerprint -> JSONDeviceData
+    // Shared instances of the cached devices
+    private final DeviceInterner interner = new DeviceInterner();
+
+    // Server lookups currently running, by cache key (a device ID or a HeadersKey): concurrent misses on the same key share a single server call
+    private final ConcurrentHashMap<Object, CompletableFuture<Model.JSONDeviceData>> devIdInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, CompletableFuture<Model.JSONDeviceData>> uaInFlight = new ConcurrentHashMap<>();
+
+    // Statistics, updated without locking by lookups
+    private final StatsCounter devIdStats = new StatsCounter();
+    private final StatsCounter uaStats = new StatsCounter();
+    private final LongAdder inFlightRequests = new LongAdder();
+    // Latency of lookup requests, by endpoint path
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    // Recent latency of successful first attempts of lookup requests, by endpoint path. Only used to compute hedge delays.
+    private final ConcurrentHashMap<String, WindowedLatencyHistogram> hedgeLatencies = new ConcurrentHashMap<>();
 
     // Time of last WURFL.xml file load on server
-    private String ltime;
+    private volatile String ltime;
+    // Limits background refreshes of devices loaded from a previous WURFL file, null if they are not served (caches are cleared instead)
+    private final RateLimiter staleRefreshLimiter;
+    // Checks the WURFL file loaded by WM server in background, null if polling is disabled
+    private volatile ScheduledExecutorService ltimePoller;
+    // Limits hedged lookups, null if lookups are not hedged
+    private final RateLimiter hedgeLimiter;
+    // Sends hedged lookups, null if lookups are not hedged
+    private final ScheduledThreadPoolExecutor hedgeTimer;
+    private final LongAdder hedgedRequests = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    // Rejects lookups while WM server is unhealthy, null if the circuit breaker is disabled
+    private final CircuitBreaker circuitBreaker;
+    // Returned by lookups rejected by the circuit breaker, null if they throw a WmException
+    private final Model.JSONDeviceData fallbackDevice;
 
     // Stores the result of time consuming call getAllMakeModel
     Model.JSONMakeModel[] makeModels = new Model.JSONMakeModel[0];
@@ -106,34 +188,77 @@ public class WmClient {
 
     // internal http client
     private CloseableHttpClient _internalClient;
-
-    private WmClient(String scheme, String host, String port, String baseURI) throws WmException {
-
-        this.scheme = scheme;
-        this.host = host;
-        this.port = port;
-        this.baseURI = baseURI;
-
-        if (StringUtils.isEmpty(scheme)) {
-            throw new WmException("WM client scheme cannot be empty");
+    private PoolingHttpClientConnectionManager connectionManager;
+    // internal non blocking http client, used by the async API and lazily created
+    private volatile CloseableHttpAsyncClient _asyncClient;
+    private volatile PoolingNHttpClientConnectionManager asyncConnectionManager;
+    // closes idle and expired connections of the non blocking client, null if idle connections are not evicted. Guarded by asyncClientLock
+    private ScheduledExecutorService asyncConnectionEvictor;
+    private final Object asyncClientLock = new Object();
+
+    private WmClient(List<WmNode> nodes, WmClientConfig config) {
+
+        this.config = config != null ? config : WmClientConfig.defaults();
+        this.nodes = new WmNodePool(nodes, this.config.getNodeEjectionFailures(), this.config.getNodeEjectionLatencyFactor(),
+                TimeUnit.MILLISECONDS.toNanos(this.config.getNodeEjectionTimeMillis()));
+        this.staleRefreshLimiter = this.config.isStaleWhileRevalidate() ? new RateLimiter(this.config.getStaleRefreshesPerSecond()) : null;
+        if (this.config.isHedgeRequests()) {
+            this.hedgeLimiter = new RateLimiter(this.config.getMaxHedgesPerSecond());
+            this.hedgeTimer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "wm-client-hedge-timer");
+                t.setDaemon(true);
+                return t;
+            });
+            // lookups answering before their hedge delay cancel the hedge: cancelled tasks are not kept in queue
+            hedgeTimer.setRemoveOnCancelPolicy(true);
+        } else {
+            this.hedgeLimiter = null;
+            this.hedgeTimer = null;
         }
-
-        if (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) {
-            PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-            // Increase max total connection to 200
-            cm.setMaxTotal(200);
-            _internalClient = HttpClients.custom().setConnectionManager(cm).build();
+        if (this.config.isCircuitBreaker()) {
+            long slowCallMillis = this.config.getCircuitBreakerSlowCallMillis();
+            this.circuitBreaker = new CircuitBreaker(this.config.getCircuitBreakerFailureRatePercent(),
+                    slowCallMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowCallMillis),
+                    TimeUnit.MILLISECONDS.toNanos(this.config.getCircuitBreakerOpenMillis()));
         } else {
-            throw new WmException("Invalid connection scheme specified:  [" + scheme + " ]");
+            this.circuitBreaker = null;
+        }
+        Map<String, String> fallback = this.config.getCircuitBreakerFallback();
+        this.fallbackDevice = fallback != null ? Model.m.new JSONDeviceData(fallback, "", 0) : null;
+
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(this.config.getMaxTotalConnections());
+        cm.setDefaultMaxPerRoute(this.config.getMaxConnectionsPerRoute());
+        cm.setValidateAfterInactivity(this.config.getValidateAfterInactivityMillis());
+        connectionManager = cm;
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(createRequestConfig())
+                .setKeepAliveStrategy(createKeepAliveStrategy());
+        if (this.config.getMaxIdleTimeMillis() >= 0) {
+            builder.evictExpiredConnections().evictIdleConnections(this.config.getMaxIdleTimeMillis(), TimeUnit.MILLISECONDS);
         }
+        _internalClient = builder.build();
     }
 
-    private String createUrl(String path) {
-        String bpath = scheme + "://" + host + ":" + port + "/";
-        if (StringUtils.isNotEmpty(baseURI)) {
-            bpath += baseURI + "/";
-        }
-        return bpath + "/" + path;
+    private RequestConfig createRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMillis())
+                .setSocketTimeout(config.getSocketTimeoutMillis())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMillis())
+                .build();
+    }
+
+    // Uses the keep-alive duration sent by the server, unless it exceeds the configured one
+    private ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        final long maxKeepAlive = config.getKeepAliveMillis();
+        return (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            if (maxKeepAlive < 0 || (serverKeepAlive > 0 && serverKeepAlive < maxKeepAlive)) {
+                return serverKeepAlive;
+            }
+            return maxKeepAlive;
+        };
     }
 
     /**
@@ -148,18 +273,106 @@ public class WmClient {
      * @throws WmException In case a connection error occurs
      */
     public static WmClient create(String scheme, String host, String port, String baseURI) throws WmException {
+        return create(scheme, host, port, baseURI, WmClientConfig.defaults());
+    }
+
+    /**
+     * Creates an instance of a WURFL Microservice client using the given configuration
+     *
+     * @param scheme  protocol scheme
+     * @param host    host of the WM server
+     * @param port    port of the WM server
+     * @param baseURI any base URI which must be added after the host (NOT including the endpoints, which are handled by the client).
+     *                This may be useful, for example, with thrird parties VMs (like docker or AWS). Leave empty or null if not needed.
+     * @param config  client configuration (connection pool, timeouts, etc.). If null, the default configuration is used.
+     * @return The instance of the WM client
+     * @throws WmException In case a connection error occurs
+     */
+    public static WmClient create(String scheme, String host, String port, String baseURI, WmClientConfig config) throws WmException {
+        WmNode node;
+        try {
+            node = WmNode.of(scheme, host, port, baseURI);
+        } catch (WmException e) {
+            throw new WmException("Unable to create wm client: " + e.getMessage());
+        }
+        return createForNodes(Collections.singletonList(node), config);
+    }
+
+    /**
+     * Creates an instance of a WURFL Microservice client balancing requests across the given WM servers. Each request is sent
+     * to the server with fewer requests in progress among two randomly chosen ones; servers failing or much slower than the
+     * others are temporarily excluded (see {@link WmClientConfig.Builder#nodeEjection}).
+     * Servers may load a new WURFL file at different times: requests are sent to the servers using the WURFL file of the client,
+     * which moves to a new file, clearing its caches, once most of the available servers use it. A warning is logged if the
+     * servers use different WURFL files when the client is created.
+     *
+     * @param serverUrls URLs of the WM servers, ie: http://wm-1:8080, including any base URI
+     * @param config     client configuration (connection pool, timeouts, etc.). If null, the default configuration is used.
+     *                   Connection pool limits are shared by all the servers
+     * @return The instance of the WM client
+     * @throws WmException In case an URL is not valid, or no server can be reached
+     */
+    public static WmClient create(List<String> serverUrls, WmClientConfig config) throws WmException {
+        if (serverUrls == null || serverUrls.isEmpty()) {
+            throw new WmException("Unable to create wm client: at least one WM server URL is required");
+        }
+        List<WmNode> nodes = new ArrayList<>(serverUrls.size());
+        try {
+            for (String url : serverUrls) {
+                nodes.add(WmNode.of(url));
+            }
+        } catch (WmException e) {
+            throw new WmException("Unable to create wm client: " + e.getMessage());
+        }
+        return createForNodes(nodes, config);
+    }
+
+    private static WmClient createForNodes(List<WmNode> nodes, WmClientConfig config) throws WmException {
 
         try {
-            WmClient client = new WmClient(scheme, host, port, baseURI);
-            // Test server connection and save important headers taken using getInfo function
-            Model.JSONInfoData info = client.getInfo();
+            WmClient client = new WmClient(nodes, config);
+            // Test server connection and save important headers taken using getInfo function: every server is asked, so that
+            // the client starts with the WURFL file used by most of them
+            Model.JSONInfoData info = null;
+            WmException error = null;
+            Set<String> ltimes = new LinkedHashSet<>();
+            for (int i = 0; i < client.nodes.size(); i++) {
+                try {
+                    Model.JSONInfoData nodeInfo = client.getInfo(client.nodes.node(i));
+                    if (info == null) {
+                        info = nodeInfo;
+                    }
+                    if (nodeInfo.ltime != null) {
+                        ltimes.add(nodeInfo.ltime);
+                    }
+                } catch (WmException e) {
+                    error = e;
+                }
+            }
+            if (info == null) {
+                throw error;
+            }
+            if (ltimes.size() > 1) {
+                LOGGER.log(System.Logger.Level.WARNING, "WM servers use different WURFL files, loaded at {0}: requests are sent to the servers using the one loaded at {1}",
+                        ltimes, client.ltime);
+            }
 
             client.importantHeaders = info.getImportantHeaders();
             client.staticCaps = info.getStaticCaps();
             client.virtualCaps = info.getVirtualCaps();
             Arrays.sort(client.staticCaps);
             Arrays.sort(client.virtualCaps);
-            client.ltime = info.ltime;
+            client.updateCapabilityLayout();
+            if (client.config.getRequestedCapabilities() != null) {
+                client.setRequestedCapabilities(client.config.getRequestedCapabilities());
+            }
+            if (client.config.getCacheSnapshotFile() != null) {
+                // the snapshot is loaded, or discarded, before the client is used: its caches are created now
+                client.loadSnapshotFile(client.config.getCacheSnapshotFile());
+            }
+            if (client.config.getLtimePollIntervalMillis() > 0) {
+                client.startLtimePoller();
+            }
             return client;
         } catch (Exception e) {
             throw new WmException("Unable to create wm client: " + e.getMessage());
@@ -190,15 +403,20 @@ public class WmClient {
      * @throws WmException If server cannot send data or incomplete data are sent
      */
     public Model.JSONInfoData getInfo() throws WmException {
+        return getInfo(null);
+    }
+
+    // Gets information from the given node, or from the one chosen by the node pool if null
+    private Model.JSONInfoData getInfo(WmNode node) throws WmException {
         try {
-            final HttpGet req = new HttpGet(createUrl("/v2/getinfo/json"));
+            WmNode target = node != null ? node : nodes.pick();
             Class<Model.JSONInfoData> type = Model.JSONInfoData.class;
-            Model.JSONInfoData info = _internalClient.execute(req, new WmDataHandler<>(type));
+            Model.JSONInfoData info = executeGet(target, "/v2/getinfo/json", new WmDataHandler<>(type));
             if (!(checkData(info))) {
                 throw new WmException("Server returned empty data or a wrong json format");
             }
             // Check if cache must be cleared
-            clearCachesIfNeeded(info.ltime);
+            onNodeLtime(target, info.ltime);
             return info;
         } catch (Exception e) {
             throw new WmException("Unable to get information from WM server :" + e.getMessage(), e);
@@ -254,10 +472,12 @@ public class WmClient {
             }
         }
 
+        CatalogLoadEvent event = new CatalogLoadEvent();
+        event.begin();
+        WmDataHandler<Model.JSONDeviceOsVersions[]> handler = new WmDataHandler<>(Model.JSONDeviceOsVersions[].class);
         try {
-            final HttpGet req = new HttpGet(createUrl("/v2/alldeviceosversions/json"));
-            Class<Model.JSONDeviceOsVersions[]> type = Model.JSONDeviceOsVersions[].class;
-            Model.JSONDeviceOsVersions[] localOSes = _internalClient.execute(req, new WmDataHandler<>(type));
+            Model.JSONDeviceOsVersions[] localOSes = executeGet(null, "/v2/alldeviceosversions/json", handler);
+            event.itemCount = localOSes.length;
 
             Map<String, List<String>> dmMap = new HashMap<>();
             Set<String> devOSes = new HashSet<>();
@@ -273,9 +493,11 @@ public class WmClient {
                 deviceOSes = devOSes.toArray(new String[0]);
                 deviceOsVersionsMap = dmMap;
             }
-
+            event.success = true;
         } catch (IOException e) {
             throw new WmException("An error occurred getting device os name and version data " + e.getMessage(), e);
+        } finally {
+            commitCatalogLoadEvent(event, "/v2/alldeviceosversions/json", handler);
         }
     }
 
@@ -312,10 +534,12 @@ public class WmClient {
         }
 
         // No values already loaded, let's do it.
+        CatalogLoadEvent event = new CatalogLoadEvent();
+        event.begin();
+        WmDataHandler<Model.JSONMakeModel[]> handler = new WmDataHandler<>(Model.JSONMakeModel[].class);
         try {
-            final HttpGet req = new HttpGet(createUrl("/v2/alldevices/json"));
-            Class<Model.JSONMakeModel[]> type = Model.JSONMakeModel[].class;
-            Model.JSONMakeModel[] localMakeModels = _internalClient.execute(req, new WmDataHandler<>(type));
+            Model.JSONMakeModel[] localMakeModels = executeGet(null, "/v2/alldevices/json", handler);
+            event.itemCount = localMakeModels.length;
 
             Map<String, List<Model.JSONModelMktName>> dmMap = new HashMap<>();
             Set<String> devMakes = new HashSet<>();
@@ -336,8 +560,19 @@ public class WmClient {
                 this.deviceMakesMap = dmMap;
                 this.deviceMakes = devMakes.toArray(new String[0]);
             }
+            event.success = true;
         } catch (IOException e) {
             throw new WmException("An error occurred getting makes and model data " + e.getMessage(), e);
+        } finally {
+            commitCatalogLoadEvent(event, "/v2/alldevices/json", handler);
+        }
+    }
+
+    private static void commitCatalogLoadEvent(CatalogLoadEvent event, String endpoint, WmDataHandler<?> handler) {
+        if (event.shouldCommit()) {
+            event.endpoint = endpoint;
+            event.responseBytes = handler.getBytesRead();
+            event.commit();
         }
     }
 
@@ -382,15 +617,7 @@ public class WmClient {
             throw new WmException("HttpServletRequest cannot be null");
         }
 
-        Map<String, String> reqHeaders = new HashMap<>();
-        for (String hname : importantHeaders) {
-            String hval = httpRequest.getHeader(hname);
-            if (!StringUtils.isEmpty(hval)) {
-                reqHeaders.put(hname, hval);
-            }
-        }
-
-        return internalRequest("/v2/lookuprequest/json", newRequest(reqHeaders, this.requestedStaticCaps,
+        return internalRequest("/v2/lookuprequest/json", newRequest(getLookupHeaders(httpRequest), this.requestedStaticCaps,
                 this.requestedVirtualCaps, null), USERAGENT_CACHE_TYPE);
     }
 
@@ -403,6 +630,259 @@ public class WmClient {
      */
     public Model.JSONDeviceData lookupHeaders(Map<String,String> headers) throws WmException {
 
+        Model.JSONDeviceData device = internalRequest("/v2/lookuprequest/json", newRequest(getLookupHeaders(headers), this.requestedStaticCaps,
+                this.requestedVirtualCaps, null), USERAGENT_CACHE_TYPE);
+        return device;
+    }
+
+    /**
+     * Asynchronously performs a device detection against a user agent header.<br>
+     * The returned future is already completed if the device is found in cache, otherwise the server lookup is performed
+     * using a non blocking HTTP transport, and the future is completed by one of its I/O threads: callers should not perform
+     * long running tasks in dependent stages without providing their own executor.
+     *
+     * @param useragent a user agent header
+     * @return A future completed with an object containing the device capabilities, or completed exceptionally with a WmException
+     * in case any error occurs during device detection
+     */
+    public CompletableFuture<Model.JSONDeviceData> lookupUseragentAsync(String useragent) {
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", useragent);
+        Request request = newRequest(headers, this.requestedStaticCaps, this.requestedVirtualCaps, null);
+        return internalRequestAsync("/v2/lookupuseragent/json", request, USERAGENT_CACHE_TYPE);
+    }
+
+    /**
+     * Asynchronously returns the device matching the given WURFL ID (see {@link #lookupUseragentAsync(String)} for details about
+     * the returned future)
+     *
+     * @param wurflId a WURFL device identifier
+     * @return A future completed with an object containing the device capabilities, or completed exceptionally with a WmException
+     */
+    public CompletableFuture<Model.JSONDeviceData> lookupDeviceIdAsync(String wurflId) {
+
+        Request request = newRequest(null, this.requestedStaticCaps, this.requestedVirtualCaps, wurflId);
+        return internalRequestAsync("/v2/lookupdeviceid/json", request, DEVICE_ID_CACHE_TYPE);
+    }
+
+    /**
+     * Asynchronously performs a device detection using an HTTP request object (see {@link #lookupUseragentAsync(String)} for
+     * details about the returned future). Headers are read from the request before this method returns, so the request object
+     * is not used after that.
+     *
+     * @param httpRequest an instance of HTTPServletRequest
+     * @return A future completed with an object containing the device capabilities, or completed exceptionally with a WmException
+     * in case any error occurs during device detection
+     */
+    public CompletableFuture<Model.JSONDeviceData> lookupRequestAsync(HttpServletRequest httpRequest) {
+
+        if (httpRequest == null) {
+            return CompletableFuture.failedFuture(new WmException("HttpServletRequest cannot be null"));
+        }
+
+        return internalRequestAsync("/v2/lookuprequest/json", newRequest(getLookupHeaders(httpRequest), this.requestedStaticCaps,
+                this.requestedVirtualCaps, null), USERAGENT_CACHE_TYPE);
+    }
+
+    /**
+     * Asynchronously performs a device detection using a map of HTTP headers (see {@link #lookupUseragentAsync(String)} for
+     * details about the returned future)
+     *
+     * @param headers headers map
+     * @return A future completed with an object containing the device capabilities, or completed exceptionally with a WmException
+     * in case any error occurs during device detection
+     */
+    public CompletableFuture<Model.JSONDeviceData> lookupHeadersAsync(Map<String, String> headers) {
+
+        return internalRequestAsync("/v2/lookuprequest/json", newRequest(getLookupHeaders(headers), this.requestedStaticCaps,
+                this.requestedVirtualCaps, null), USERAGENT_CACHE_TYPE);
+    }
+
+    /**
+     * Performs a device detection for each of the given user agents, sending at most {@link #DEFAULT_BATCH_CONCURRENCY} concurrent
+     * requests to the WM server.
+     *
+     * @param useragents a collection of user agent headers
+     * @return a list holding the detected devices, in the same order as the given user agents
+     * @throws WmException In case any error occurs during device detection
+     * @see #lookupUseragents(Collection, int)
+     */
+    public List<Model.JSONDeviceData> lookupUseragents(Collection<String> useragents) throws WmException {
+        return lookupUseragents(useragents, DEFAULT_BATCH_CONCURRENCY);
+    }
+
+    /**
+     * Performs a device detection for each of the given user agents.<br>
+     * Duplicated user agents and user agents found in cache are not sent to the server; the remaining ones are looked up with
+     * the non blocking HTTP transport, keeping at most maxConcurrency requests in flight. This method blocks until all devices
+     * have been detected.
+     *
+     * @param useragents     a collection of user agent headers
+     * @param maxConcurrency maximum number of concurrent requests sent to the WM server
+     * @return a list holding the detected devices, in the same order as the given user agents
+     * @throws WmException In case any error occurs during device detection
+     */
+    public List<Model.JSONDeviceData> lookupUseragents(Collection<String> useragents, int maxConcurrency) throws WmException {
+        if (useragents == null) {
+            throw new WmException("User agent collection cannot be null");
+        }
+
+        List<Request> requests = new ArrayList<>(useragents.size());
+        for (String useragent : useragents) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("User-Agent", useragent);
+            requests.add(newRequest(headers, this.requestedStaticCaps, this.requestedVirtualCaps, null));
+        }
+        return internalBatchRequest("/v2/lookupuseragent/json", requests, maxConcurrency);
+    }
+
+    /**
+     * Performs a device detection for each of the given header maps, sending at most {@link #DEFAULT_BATCH_CONCURRENCY} concurrent
+     * requests to the WM server.
+     *
+     * @param headersList a list of headers maps
+     * @return a list holding the detected devices, in the same order as the given header maps
+     * @throws WmException In case any error occurs during device detection
+     * @see #lookupHeadersBatch(List, int)
+     */
+    public List<Model.JSONDeviceData> lookupHeadersBatch(List<Map<String, String>> headersList) throws WmException {
+        return lookupHeadersBatch(headersList, DEFAULT_BATCH_CONCURRENCY);
+    }
+
+    /**
+     * Performs a device detection for each of the given header maps.<br>
+     * Header maps that are equal once reduced to the important headers, and those found in cache, are not sent to the server; the
+     * remaining ones are looked up with the non blocking HTTP transport, keeping at most maxConcurrency requests in flight.
+     * This method blocks until all devices have been detected.
+     *
+     * @param headersList    a list of headers maps
+     * @param maxConcurrency maximum number of concurrent requests sent to the WM server
+     * @return a list holding the detected devices, in the same order as the given header maps
+     * @throws WmException In case any error occurs during device detection
+     */
+    public List<Model.JSONDeviceData> lookupHeadersBatch(List<Map<String, String>> headersList, int maxConcurrency) throws WmException {
+        if (headersList == null) {
+            throw new WmException("Headers list cannot be null");
+        }
+
+        List<Request> requests = new ArrayList<>(headersList.size());
+        for (Map<String, String> headers : headersList) {
+            requests.add(newRequest(getLookupHeaders(headers), this.requestedStaticCaps, this.requestedVirtualCaps, null));
+        }
+        return internalBatchRequest("/v2/lookuprequest/json", requests, maxConcurrency);
+    }
+
+    /**
+     * Fills the user agent cache with the devices detected for the user agents, or header sets, listed in the given file.<br>
+     * See {@link #warmUpCache(Stream, int)} for the file format.
+     *
+     * @param file           a UTF-8 text file listing user agents or header sets, one per line
+     * @param maxConcurrency maximum number of concurrent requests sent to the WM server
+     * @return the number of distinct user agents or header sets successfully detected
+     * @throws WmException if the file cannot be read or the user agent cache has not been created
+     */
+    public int warmUpCache(Path file, int maxConcurrency) throws WmException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return warmUpCache(reader.lines(), maxConcurrency);
+        } catch (IOException | UncheckedIOException e) {
+            throw new WmException("Unable to read warm up file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Fills the user agent cache with the devices detected for the given lines, ie: before the application starts serving
+     * requests. Each line is either:
+     * <ul>
+     * <li>a user agent, optionally preceded by its frequency and a tab, as in a list of user agents counted from access logs</li>
+     * <li>a JSON object mapping header names to values, ie: {"User-Agent": "...", "Sec-CH-UA-Platform": "..."}</li>
+     * </ul>
+     * Empty lines, lines starting with # and invalid JSON objects are skipped. Lines are read as they are looked up, so that large
+     * files are not loaded in memory: duplicated lines, and lines resolving to an entry already in cache, are not sent to the server.
+     * The others are looked up with the non blocking HTTP transport, keeping at most maxConcurrency requests in flight.
+     * Failed lookups are not retried. This method blocks until all lookups have completed.
+     *
+     * @param lines          user agents or header sets
+     * @param maxConcurrency maximum number of concurrent requests sent to the WM server
+     * @return the number of distinct user agents or header sets successfully detected
+     * @throws WmException if the user agent cache has not been created
+     */
+    public int warmUpCache(Stream<String> lines, int maxConcurrency) throws WmException {
+        if (maxConcurrency <= 0) {
+            throw new WmException("Warm up max concurrency must be greater than zero");
+        }
+        if (uaCache == null) {
+            throw new WmException("User agent cache must be created with setCacheSize before warming it up");
+        }
+
+        Set<Object> seen = new HashSet<>();
+        AtomicInteger detected = new AtomicInteger();
+        Semaphore permits = new Semaphore(maxConcurrency);
+        try {
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                String line = iterator.next().trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String path;
+                Map<String, String> headers;
+                if (line.startsWith("{")) {
+                    try {
+                        headers = getLookupHeaders(WmJson.GSON.<Map<String, String>>fromJson(line, HEADERS_TYPE));
+                    } catch (JsonParseException e) {
+                        continue;
+                    }
+                    path = "/v2/lookuprequest/json";
+                } else {
+                    headers = new HashMap<>();
+                    headers.put("User-Agent", stripFrequency(line));
+                    path = "/v2/lookupuseragent/json";
+                }
+                Request request = newRequest(headers, this.requestedStaticCaps, this.requestedVirtualCaps, null);
+                if (!seen.add(getCacheKey(request, USERAGENT_CACHE_TYPE))) {
+                    continue;
+                }
+                permits.acquire();
+                internalRequestAsync(path, request, USERAGENT_CACHE_TYPE).whenComplete((device, t) -> {
+                    if (t == null) {
+                        detected.incrementAndGet();
+                    }
+                    permits.release();
+                });
+            }
+            // waits for the pending lookups
+            permits.acquire(maxConcurrency);
+            return detected.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WmException("Interrupted while warming up the cache", e);
+        }
+    }
+
+    // Removes the frequency count preceding a user agent in frequency lists ("1234<TAB>Mozilla/5.0 ...")
+    private static String stripFrequency(String line) {
+        int tab = line.indexOf('\t');
+        if (tab > 0 && StringUtils.isNumeric(line.substring(0, tab))) {
+            return line.substring(tab + 1).trim();
+        }
+        return line;
+    }
+
+    // Returns the important headers found in the given request
+    private Map<String, String> getLookupHeaders(HttpServletRequest httpRequest) {
+        Map<String, String> reqHeaders = new HashMap<>();
+        for (String hname : importantHeaders) {
+            String hval = httpRequest.getHeader(hname);
+            if (!StringUtils.isEmpty(hval)) {
+                reqHeaders.put(hname, hval);
+            }
+        }
+        return reqHeaders;
+    }
+
+    // Returns the important headers found in the given map, whose header names may use any case
+    Map<String, String> getLookupHeaders(Map<String, String> headers) {
         Map<String, String> reqHeaders = new HashMap<>();
         Map<String, String> lowerKeyMap = toLowerKeys(headers);
         for (String hname : importantHeaders) {
@@ -411,10 +891,7 @@ public class WmClient {
                 reqHeaders.put(hname, hval);
             }
         }
-
-        Model.JSONDeviceData device = internalRequest("/v2/lookuprequest/json", newRequest(reqHeaders, this.requestedStaticCaps,
-                this.requestedVirtualCaps, null), USERAGENT_CACHE_TYPE);
-        return device;
+        return reqHeaders;
     }
 
     /**
@@ -425,6 +902,7 @@ public class WmClient {
 
         if (capsList == null) {
             this.requestedStaticCaps = null;
+            updateCapabilityLayout();
             this.clearCaches();
             return;
         }
@@ -436,6 +914,7 @@ public class WmClient {
             }
         }
         this.requestedStaticCaps = stCaps.toArray(new String[0]);
+        updateCapabilityLayout();
         clearCaches();
     }
 
@@ -447,6 +926,7 @@ public class WmClient {
 
         if (vcapsList == null) {
             this.requestedVirtualCaps = null;
+            updateCapabilityLayout();
             this.clearCaches();
             return;
         }
@@ -458,6 +938,7 @@ public class WmClient {
             }
         }
         this.requestedVirtualCaps = vCaps.toArray(new String[0]);
+        updateCapabilityLayout();
         clearCaches();
     }
 
@@ -483,6 +964,7 @@ public class WmClient {
         if (capsList == null) {
             this.requestedStaticCaps = null;
             this.requestedVirtualCaps = null;
+            updateCapabilityLayout();
             this.clearCaches();
             return;
         }
@@ -504,6 +986,7 @@ public class WmClient {
         if (CollectionUtils.isNotEmpty(vcapNames)) {
             this.requestedVirtualCaps = vcapNames.toArray(new String[0]);
         }
+        updateCapabilityLayout();
         clearCaches();
     }
 
@@ -514,7 +997,23 @@ public class WmClient {
      * @throws WmException In case of closing connection errors.
      */
     public void destroyConnection() throws WmException {
+        WmException snapshotError = null;
         try {
+            ScheduledExecutorService poller = ltimePoller;
+            if (poller != null) {
+                poller.shutdownNow();
+            }
+            if (hedgeTimer != null) {
+                hedgeTimer.shutdownNow();
+            }
+            if (config.getCacheSnapshotFile() != null && uaCache != null) {
+                try {
+                    saveCacheSnapshot(config.getCacheSnapshotFile());
+                } catch (WmException e) {
+                    // resources are released anyway
+                    snapshotError = e;
+                }
+            }
             clearCaches();
             uaCache = null;
             devIDCache = null;
@@ -524,9 +1023,104 @@ public class WmClient {
             deviceOsVersionsMap = null;
             deviceOSes = null;
             _internalClient.close();
+            synchronized (asyncClientLock) {
+                if (asyncConnectionEvictor != null) {
+                    asyncConnectionEvictor.shutdownNow();
+                }
+                if (_asyncClient != null) {
+                    _asyncClient.close();
+                }
+            }
         } catch (IOException e) {
             throw new WmException("Unable to close client: " + e.getMessage(), e);
         }
+        if (snapshotError != null) {
+            throw snapshotError;
+        }
+    }
+
+    /**
+     * Saves the content of the user agent and device ID caches to the given file, along with the WURFL load time of WM server.
+     * Saved devices can be loaded in the caches of a new client with {@link #loadCacheSnapshot(Path)} (see also
+     * {@link WmClientConfig.Builder#cacheSnapshot(Path)}).
+     *
+     * @param file snapshot file, replaced if it exists
+     * @return the number of saved cache entries
+     * @throws WmException if the snapshot cannot be written
+     */
+    public int saveCacheSnapshot(Path file) throws WmException {
+        CacheSnapshot snapshot = CacheSnapshot.of(ltime, importantHeaders, capabilityLayout, uaCache, devIDCache);
+        try {
+            snapshot.write(file);
+        } catch (IOException e) {
+            throw new WmException("Unable to save cache snapshot: " + e.getMessage(), e);
+        }
+        return snapshot.size();
+    }
+
+    /**
+     * Loads in the caches the devices saved with {@link #saveCacheSnapshot(Path)}. Caches must have been created with
+     * {@link #setCacheSize(int)}. The snapshot is discarded if WM server has loaded a different WURFL file since it was saved,
+     * or if this client uses different important headers or requested capabilities than the client which saved it.
+     * If this client verifies cache keys, user agent entries saved by a client which did not verify them are not loaded.
+     *
+     * @param file snapshot file
+     * @return the number of loaded cache entries, 0 if the snapshot has been discarded
+     * @throws WmException if the snapshot cannot be read or WM server cannot be reached
+     */
+    public int loadCacheSnapshot(Path file) throws WmException {
+        CacheSnapshot snapshot;
+        try {
+            snapshot = CacheSnapshot.read(file);
+        } catch (IOException e) {
+            throw new WmException("Unable to load cache snapshot: " + e.getMessage(), e);
+        }
+        // updates ltime with the one of the WURFL file currently loaded by WM server
+        getInfo();
+        return loadSnapshot(snapshot);
+    }
+
+    // Creates the caches, large enough to hold the user agent entries of the snapshot, and loads it.
+    // A missing or unreadable snapshot is not an error: caches are filled by lookups as usual
+    private void loadSnapshotFile(Path file) {
+        CacheSnapshot snapshot = null;
+        if (Files.isRegularFile(file)) {
+            try {
+                snapshot = CacheSnapshot.read(file);
+            } catch (IOException e) {
+                // snapshot is replaced when this client is destroyed
+            }
+        }
+        setCacheSize(snapshot != null ? Math.max(BufferedCache.DEFAULT_SIZE, snapshot.userAgents.size()) : BufferedCache.DEFAULT_SIZE);
+        if (snapshot != null) {
+            loadSnapshot(snapshot);
+        }
+    }
+
+    private int loadSnapshot(CacheSnapshot snapshot) {
+        WmCache<HeadersKey, Model.JSONDeviceData> uaCache = this.uaCache;
+        WmCache<String, Model.JSONDeviceData> devIDCache = this.devIDCache;
+        if (uaCache == null || devIDCache == null || !snapshot.matches(ltime, importantHeaders, capabilityLayout)) {
+            return 0;
+        }
+        boolean verifyKeys = config.isVerifyCacheKeys();
+        int loaded = 0;
+        // snapshot devices are shared by entries: each one is compacted and interned once
+        Map<Model.JSONDeviceData, Model.JSONDeviceData> shared = new IdentityHashMap<>();
+        for (Map.Entry<HeadersKey, Model.JSONDeviceData> entry : snapshot.userAgents.entrySet()) {
+            HeadersKey key = entry.getKey();
+            if (key.getRaw() == null && verifyKeys) {
+                // a fingerprint only key cannot be verified
+                continue;
+            }
+            if (key.getRaw() != null && !verifyKeys) {
+                key = new HeadersKey(key.getHi(), key.getLo(), null);
+            }
+            uaCache.putEntry(key, shared.computeIfAbsent(entry.getValue(), this::shareDevice));
+            loaded++;
+        }
+        snapshot.deviceIds.forEach((key, device) -> devIDCache.putEntry(key, shared.computeIfAbsent(device, this::shareDevice)));
+        return loaded + snapshot.deviceIds.size();
     }
 
     /**
@@ -551,69 +1145,751 @@ public class WmClient {
     }
 
     private Model.JSONDeviceData internalRequest(String path, Request request, String cacheType) throws WmException {
+        LookupEvent event = LookupEvent.start();
+        try {
+            Model.JSONDeviceData device = lookupDevice(path, request, cacheType, event);
+            event.success = true;
+            return device;
+        } finally {
+            if (event != LookupEvent.DISABLED && event.shouldCommit()) {
+                event.endpoint = path;
+                event.commit();
+            }
+        }
+    }
+
+    private Model.JSONDeviceData lookupDevice(String path, Request request, String cacheType, LookupEvent event) throws WmException {
 
         Model.JSONDeviceData device;
-        String cacheKey = null;
-        if (DEVICE_ID_CACHE_TYPE.equals(cacheType)) {
-            cacheKey = request.getWurflId();
-        } else if (USERAGENT_CACHE_TYPE.equals(cacheType)) {
-            cacheKey = this.getUserAgentCacheKey(request.getLookupHeaders(), cacheType);
-        }
+        Object cacheKey = getCacheKey(request, cacheType);
 
         // First, do a cache lookup
-        if (StringUtils.isNotEmpty(cacheType) && StringUtils.isNotEmpty(cacheKey)) {
-            if (cacheType.equals(DEVICE_ID_CACHE_TYPE) && devIDCache != null) {
-                device = devIDCache.getEntry(request.getWurflId());
-                if (device != null) {
-                    return device;
-                }
-            } else if (cacheType.equals(USERAGENT_CACHE_TYPE) && uaCache != null) {
-                device = uaCache.getEntry(cacheKey);
-                if (device != null) {
-                    return device;
-                }
+        StatsCounter stats = statsFor(cacheType);
+        if (cacheKey != null) {
+            device = getCachedDevice(cacheType, cacheKey);
+            if (device != null) {
+                onCacheHit(device, path, request, cacheType, cacheKey, stats, event);
+                return device;
             }
         }
+        stats.recordMiss();
 
-        // No device found in cache, let's try a server lookup
-        Gson gson = new Gson();
-        StringEntity requestEntity = new StringEntity(
-                gson.toJson(request),
-                ContentType.APPLICATION_JSON);
+        if (cacheKey == null) {
+            event.cacheResult = LookupEvent.NOT_CACHED;
+            return loadDevice(path, request, cacheType, cacheKey, event);
+        }
 
-        HttpPost postMethod = new HttpPost(createUrl(path));
-        postMethod.setEntity(requestEntity);
+        // No device found in cache: if another thread is already asking the server for the same key, we wait for its result
+        // instead of sending the same request again.
+        ConcurrentHashMap<Object, CompletableFuture<Model.JSONDeviceData>> inFlight = inFlightFor(cacheType);
+        CompletableFuture<Model.JSONDeviceData> call = new CompletableFuture<>();
+        CompletableFuture<Model.JSONDeviceData> pending = inFlight.putIfAbsent(cacheKey, call);
+        if (pending != null) {
+            event.cacheResult = LookupEvent.SHARED;
+            return awaitPendingLookup(pending);
+        }
 
-        Class<Model.JSONDeviceData> type = Model.JSONDeviceData.class;
+        event.cacheResult = LookupEvent.MISS;
         try {
-            device = _internalClient.execute(postMethod, new WmDataHandler<>(type));
-            if (StringUtils.isNotEmpty(device.error)) {
-                throw new WmException("Unable to complete request to WM server: " + device.error);
-            }
-
-            // Check if caches must be cleared before adding a new device
-            clearCachesIfNeeded(device.ltime);
-            if (cacheType != null) {
-                if (cacheType.equals(USERAGENT_CACHE_TYPE) && devIDCache != null && !"".equals(cacheKey)) {
-                    safePutDevice(uaCache, cacheKey, device);
-                } else if (cacheType.equals(DEVICE_ID_CACHE_TYPE) && uaCache != null && !"".equals(cacheKey)) {
-                    safePutDevice(devIDCache, cacheKey, device);
+            // a lookup of the same key may have cached its device and left the in-flight map after our cache miss
+            device = getCachedDevice(cacheType, cacheKey);
+            if (device != null) {
+                event.cacheResult = LookupEvent.HIT;
+            } else {
+                device = loadDevice(path, request, cacheType, cacheKey, event);
+            }
+            call.complete(device);
+            return device;
+        } catch (WmException | RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            // device is already in cache (if caching is enabled) when the call is removed, so that later lookups find it there
+            inFlight.remove(cacheKey, call);
+        }
+    }
+
+    private void onCacheHit(Model.JSONDeviceData device, String path, Request request, String cacheType, Object cacheKey,
+                            StatsCounter stats, LookupEvent event) {
+        stats.recordHit();
+        event.cacheResult = LookupEvent.HIT;
+        // devices loaded from a previous WURFL file are only kept in cache when stale entries are enabled
+        if (staleRefreshLimiter != null && device.ltime != null && !device.ltime.equals(ltime)) {
+            stats.recordStaleHit();
+            event.cacheResult = LookupEvent.STALE;
+            refreshStaleDevice(path, request, cacheType, cacheKey);
+        }
+    }
+
+    // Sends a background request replacing a stale cached device, unless the key is already being loaded or the refresh rate limit is reached.
+    // Failures are ignored: the stale device is kept, and refreshed by a later lookup.
+    private void refreshStaleDevice(String path, Request request, String cacheType, final Object cacheKey) {
+        final ConcurrentHashMap<Object, CompletableFuture<Model.JSONDeviceData>> inFlight = inFlightFor(cacheType);
+        if (inFlight.containsKey(cacheKey) || !staleRefreshLimiter.tryAcquire()) {
+            return;
+        }
+        final CompletableFuture<Model.JSONDeviceData> call = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(cacheKey, call) != null) {
+            return;
+        }
+        // not a caller lookup: its event is never committed
+        loadDeviceAsync(path, request, cacheType, cacheKey, LookupEvent.DISABLED).whenComplete((d, t) -> {
+            if (t != null) {
+                call.completeExceptionally(t);
+            } else {
+                call.complete(d);
+            }
+            inFlight.remove(cacheKey, call);
+        });
+    }
+
+    private ConcurrentHashMap<Object, CompletableFuture<Model.JSONDeviceData>> inFlightFor(String cacheType) {
+        return DEVICE_ID_CACHE_TYPE.equals(cacheType) ? devIdInFlight : uaInFlight;
+    }
+
+    private Model.JSONDeviceData awaitPendingLookup(CompletableFuture<Model.JSONDeviceData> pending) throws WmException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WmException("Interrupted while waiting for WM server response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WmException) {
+                throw (WmException) e.getCause();
+            }
+            throw new WmException("Unable to complete request to WM server: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private CompletableFuture<Model.JSONDeviceData> internalRequestAsync(String path, Request request, String cacheType) {
+        final LookupEvent event = LookupEvent.start();
+        CompletableFuture<Model.JSONDeviceData> result = lookupDeviceAsync(path, request, cacheType, event);
+        if (event == LookupEvent.DISABLED) {
+            return result;
+        }
+        // the event is committed when the lookup completes, by the thread completing it
+        result.whenComplete((device, t) -> {
+            if (event.shouldCommit()) {
+                event.endpoint = path;
+                event.success = t == null;
+                event.commit();
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Model.JSONDeviceData> lookupDeviceAsync(String path, Request request, String cacheType, LookupEvent event) {
+
+        Object cacheKey;
+        try {
+            cacheKey = getCacheKey(request, cacheType);
+        } catch (WmException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        StatsCounter stats = statsFor(cacheType);
+        if (cacheKey == null) {
+            stats.recordMiss();
+            event.cacheResult = LookupEvent.NOT_CACHED;
+            return loadDeviceAsync(path, request, cacheType, cacheKey, event);
+        }
+
+        Model.JSONDeviceData device = getCachedDevice(cacheType, cacheKey);
+        if (device != null) {
+            onCacheHit(device, path, request, cacheType, cacheKey, stats, event);
+            return CompletableFuture.completedFuture(device);
+        }
+        stats.recordMiss();
+
+        // Same in-flight lookups used by the synchronous API: sync and async callers share the server calls
+        final Object key = cacheKey;
+        final ConcurrentHashMap<Object, CompletableFuture<Model.JSONDeviceData>> inFlight = inFlightFor(cacheType);
+        final CompletableFuture<Model.JSONDeviceData> call = new CompletableFuture<>();
+        CompletableFuture<Model.JSONDeviceData> pending = inFlight.putIfAbsent(key, call);
+        if (pending != null) {
+            event.cacheResult = LookupEvent.SHARED;
+            // a copy prevents callers from completing the shared future
+            return pending.copy();
+        }
+
+        // a lookup of the same key may have cached its device and left the in-flight map after our cache miss
+        device = getCachedDevice(cacheType, key);
+        if (device != null) {
+            event.cacheResult = LookupEvent.HIT;
+            call.complete(device);
+            inFlight.remove(key, call);
+            return CompletableFuture.completedFuture(device);
+        }
+
+        event.cacheResult = LookupEvent.MISS;
+        loadDeviceAsync(path, request, cacheType, key, event).whenComplete((d, t) -> {
+            if (t != null) {
+                call.completeExceptionally(t);
+            } else {
+                call.complete(d);
+            }
+            inFlight.remove(key, call);
+        });
+        return call.copy();
+    }
+
+    private List<Model.JSONDeviceData> internalBatchRequest(String path, List<Request> requests, int maxConcurrency) throws WmException {
+        if (maxConcurrency <= 0) {
+            throw new WmException("Batch max concurrency must be greater than zero");
+        }
+
+        // Requests with the same lookup headers get the same device: each of them is looked up once
+        Map<Map<String, String>, CompletableFuture<Model.JSONDeviceData>> lookups = new HashMap<>();
+        List<CompletableFuture<Model.JSONDeviceData>> results = new ArrayList<>(requests.size());
+        Semaphore permits = new Semaphore(maxConcurrency);
+        try {
+            for (Request request : requests) {
+                CompletableFuture<Model.JSONDeviceData> lookup = lookups.get(request.getLookupHeaders());
+                if (lookup == null) {
+                    permits.acquire();
+                    lookup = internalRequestAsync(path, request, USERAGENT_CACHE_TYPE);
+                    // cache hits are already completed, so they release their permit immediately
+                    lookup.whenComplete((d, t) -> permits.release());
+                    lookups.put(request.getLookupHeaders(), lookup);
                 }
+                results.add(lookup);
+            }
+
+            List<Model.JSONDeviceData> devices = new ArrayList<>(results.size());
+            for (CompletableFuture<Model.JSONDeviceData> result : results) {
+                devices.add(awaitPendingLookup(result));
             }
+            return devices;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WmException("Interrupted while sending requests to WM server", e);
+        }
+    }
+
+    // Performs the lookup on WM server and caches the result
+    private Model.JSONDeviceData loadDevice(String path, Request request, String cacheType, Object cacheKey, LookupEvent event) throws WmException {
+        if (hedgeLimiter != null) {
+            // hedged lookups are sent with the async HTTP client, so that the first request keeps running while the second one is sent
+            return awaitPendingLookup(loadDeviceAsync(path, request, cacheType, cacheKey, event));
+        }
+        long permit = acquireCircuit();
+        if (permit == CircuitBreaker.REJECTED) {
+            return onCircuitOpen(cacheType, cacheKey);
+        }
+        WmDataHandler<Model.JSONDeviceData> handler = new WmDataHandler<>(Model.JSONDeviceData.class);
+        long start = System.nanoTime();
+        inFlightRequests.increment();
+        WmNode node = nodes.acquire();
+        boolean responded = false;
+        try {
+            HttpPost post = createLookupPost(node, path, request);
+            event.requestBytes = post.getEntity().getContentLength();
+            Model.JSONDeviceData device = _internalClient.execute(post, handler);
+            responded = true;
+            long latency = System.nanoTime() - start;
+            nodes.release(node, latency, true);
+            onServerResult(permit, latency, true);
+            event.responseBytes = handler.getBytesRead();
+            device = onDeviceLoaded(device, node, cacheType, cacheKey);
+            recordLoad(path, cacheType, start, true);
             return device;
         } catch (Exception e) {
+            if (!responded) {
+                nodes.release(node, -1, false);
+                onServerResult(permit, System.nanoTime() - start, false);
+            }
+            recordLoad(path, cacheType, start, false);
+            if (e instanceof WmException) {
+                // the server error message of the device
+                throw (WmException) e;
+            }
             throw new WmException("Unable to complete request to WM server: " + e.getMessage(), e);
+        } finally {
+            inFlightRequests.decrement();
+        }
+    }
+
+    // Performs the lookup on WM server using the async HTTP client, and caches the result
+    private CompletableFuture<Model.JSONDeviceData> loadDeviceAsync(String path, Request request, final String cacheType, final Object cacheKey,
+                                                                   final LookupEvent event) {
+        final long permit = acquireCircuit();
+        if (permit == CircuitBreaker.REJECTED) {
+            try {
+                return CompletableFuture.completedFuture(onCircuitOpen(cacheType, cacheKey));
+            } catch (WmException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        final CompletableFuture<Model.JSONDeviceData> result = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        inFlightRequests.increment();
+        CompletableFuture<LookupAttempt> response;
+        try {
+            StringEntity entity = createLookupEntity(request);
+            event.requestBytes = entity.getContentLength();
+            response = sendLookup(path, entity);
+        } catch (Exception e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((attempt, t) -> {
+            // a device with an error message is still an answer of a healthy server
+            onServerResult(permit, System.nanoTime() - start, t == null);
+            Model.JSONDeviceData device = null;
+            Throwable error = t;
+            if (error == null) {
+                try {
+                    event.responseBytes = attempt.handler.getBytesRead();
+                    device = onDeviceLoaded(attempt.device, attempt.node, cacheType, cacheKey);
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            inFlightRequests.decrement();
+            recordLoad(path, cacheType, start, error == null);
+            if (error == null) {
+                result.complete(device);
+            } else if (error instanceof WmException) {
+                result.completeExceptionally(error);
+            } else {
+                result.completeExceptionally(new WmException("Unable to complete request to WM server: " + error.getMessage(), error));
+            }
+        });
+        return result;
+    }
+
+    // Returns the device of a lookup rejected by the circuit breaker: the expired cache entry of the key if it is still in cache,
+    // otherwise the fallback device. Neither is cached again, so that the device is looked up once the breaker closes.
+    // Stale entries of a previous WURFL file never get here, since they are returned as cache hits.
+    private Model.JSONDeviceData onCircuitOpen(String cacheType, Object cacheKey) throws WmException {
+        if (cacheKey != null) {
+            Model.JSONDeviceData expired = DEVICE_ID_CACHE_TYPE.equals(cacheType)
+                    ? getExpiredDevice(devIDCache, (String) cacheKey) : getExpiredDevice(uaCache, (HeadersKey) cacheKey);
+            if (expired != null) {
+                return expired;
+            }
+        }
+        if (fallbackDevice == null) {
+            throw new WmException("Unable to complete request to WM server: circuit breaker is open");
+        }
+        return fallbackDevice;
+    }
+
+    private static <K> Model.JSONDeviceData getExpiredDevice(WmCache<K, Model.JSONDeviceData> cache, K key) {
+        return cache != null ? cache.getExpiredEntry(key) : null;
+    }
+
+    // Returns the circuit breaker permit of a server lookup, or CircuitBreaker.REJECTED if the lookup must not be sent
+    private long acquireCircuit() {
+        return circuitBreaker != null ? circuitBreaker.tryAcquire() : 0;
+    }
+
+    private void onServerResult(long permit, long latencyNanos, boolean success) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onResult(permit, latencyNanos, success);
+        }
+    }
+
+    // Sends the lookup to a node. When hedging is enabled, the lookup is also sent to another node if the first one has not
+    // answered within the configured latency percentile of the endpoint
+    private CompletableFuture<LookupAttempt> sendLookup(String path, StringEntity entity) {
+        LookupAttempt first = new LookupAttempt(nodes.acquire(), path, entity, true);
+        long hedgeDelay = hedgeDelayNanos(path);
+        if (hedgeDelay < 0) {
+            first.send();
+            return first.response;
+        }
+        HedgedLookup lookup = new HedgedLookup(first, path, entity);
+        first.send();
+        try {
+            ScheduledFuture<?> hedge = hedgeTimer.schedule(lookup::hedge, hedgeDelay, TimeUnit.NANOSECONDS);
+            lookup.winner.whenComplete((a, t) -> hedge.cancel(false));
+        } catch (RejectedExecutionException e) {
+            // client destroyed
+        }
+        return lookup.winner;
+    }
+
+    // Returns the hedge delay of the given endpoint, or -1 if lookups must not be hedged
+    long hedgeDelayNanos(String path) {
+        if (hedgeLimiter == null) {
+            return -1;
+        }
+        WindowedLatencyHistogram histogram = hedgeLatencies.get(path);
+        return histogram != null ? histogram.percentileNanos(config.getHedgePercentile(), HEDGE_MIN_SAMPLES) : -1;
+    }
+
+    // Records the latency of a first attempt. Failures and hedged attempts are not recorded, since they would lower the hedge
+    // delay. First attempts cancelled by a hedge win record their elapsed time, a lower bound of their latency: dropping them
+    // would leave out the slowest attempts, lowering the hedge delay, so that more attempts would be hedged and dropped.
+    private void recordHedgeLatency(String path, long nanos) {
+        WindowedLatencyHistogram histogram = hedgeLatencies.get(path);
+        if (histogram == null) {
+            histogram = hedgeLatencies.computeIfAbsent(path, p -> new WindowedLatencyHistogram(HEDGE_INTERVAL_NANOS));
+        }
+        histogram.record(nanos);
+    }
+
+    // A lookup request sent to a node, whose response future is completed with the attempt itself once the device has been read
+    private final class LookupAttempt implements FutureCallback<HttpResponse> {
+        final WmNode node;
+        final String path;
+        // the first attempt of the lookup, not a hedged one
+        final boolean primary;
+        final WmDataHandler<Model.JSONDeviceData> handler = new WmDataHandler<>(Model.JSONDeviceData.class);
+        final CompletableFuture<LookupAttempt> response = new CompletableFuture<>();
+        Model.JSONDeviceData device;
+        private final HttpPost post;
+        private final long start = System.nanoTime();
+        private volatile Future<HttpResponse> request;
+        private volatile boolean cancelled;
+
+        LookupAttempt(WmNode node, String path, StringEntity entity, boolean primary) {
+            this.node = node;
+            this.path = path;
+            this.primary = primary;
+            this.post = new HttpPost(node.url(path));
+            post.setEntity(entity);
+        }
+
+        void send() {
+            try {
+                request = getAsyncClient().execute(post, this);
+                if (cancelled) {
+                    request.cancel(true);
+                }
+            } catch (Exception e) {
+                failed(e);
+            }
+        }
+
+        void cancel() {
+            if (primary && hedgeLimiter != null && !cancelled && !response.isDone()) {
+                recordHedgeLatency(path, System.nanoTime() - start);
+            }
+            cancelled = true;
+            Future<HttpResponse> r = request;
+            if (r != null) {
+                r.cancel(true);
+            }
+        }
+
+        @Override
+        public void completed(HttpResponse httpResponse) {
+            try {
+                device = handler.handleResponse(httpResponse);
+            } catch (Exception e) {
+                failed(e);
+                return;
+            }
+            long latency = System.nanoTime() - start;
+            nodes.release(node, latency, true);
+            if (primary && hedgeLimiter != null) {
+                recordHedgeLatency(path, latency);
+            }
+            response.complete(this);
+        }
+
+        @Override
+        public void failed(Exception e) {
+            nodes.release(node, -1, false);
+            response.completeExceptionally(e);
+        }
+
+        @Override
+        public void cancelled() {
+            // cancelled by a hedged lookup, or by the client being destroyed: not a node failure
+            nodes.abandon(node);
+            response.completeExceptionally(new IOException("request cancelled"));
         }
     }
 
+    // A lookup sent to two nodes: the first successful response is used and the other request is cancelled.
+    // The lookup fails if all the sent requests fail.
+    private final class HedgedLookup {
+        final CompletableFuture<LookupAttempt> winner = new CompletableFuture<>();
+        private final LookupAttempt first;
+        private final String path;
+        private final StringEntity entity;
+        // guarded by this
+        private final List<LookupAttempt> attempts = new ArrayList<>(2);
+        private int failures;
+        private boolean done;
+
+        HedgedLookup(LookupAttempt first, String path, StringEntity entity) {
+            this.first = first;
+            this.path = path;
+            this.entity = entity;
+            add(first);
+        }
+
+        // Invoked by the hedge timer when the first request has not answered within the hedge delay
+        void hedge() {
+            LookupAttempt second;
+            synchronized (this) {
+                if (done || !hedgeLimiter.tryAcquire()) {
+                    return;
+                }
+                second = new LookupAttempt(nodes.acquireOther(first.node), path, entity, false);
+                add(second);
+            }
+            hedgedRequests.increment();
+            second.send();
+        }
+
+        private void add(LookupAttempt attempt) {
+            attempts.add(attempt);
+            attempt.response.whenComplete((a, t) -> onResponse(attempt, t));
+        }
+
+        private void onResponse(LookupAttempt attempt, Throwable t) {
+            List<LookupAttempt> losers = new ArrayList<>(1);
+            synchronized (this) {
+                if (done || (t != null && ++failures < attempts.size())) {
+                    return;
+                }
+                done = true;
+                if (t == null) {
+                    for (LookupAttempt other : attempts) {
+                        if (other != attempt) {
+                            losers.add(other);
+                        }
+                    }
+                }
+            }
+            for (LookupAttempt loser : losers) {
+                loser.cancel();
+            }
+            if (t != null) {
+                winner.completeExceptionally(t);
+            } else {
+                if (attempt != first) {
+                    hedgeWins.increment();
+                }
+                winner.complete(attempt);
+            }
+        }
+    }
+
+    private StringEntity createLookupEntity(Request request) {
+        return new StringEntity(WmJson.GSON.toJson(request), ContentType.APPLICATION_JSON);
+    }
+
+    private HttpPost createLookupPost(WmNode node, String path, Request request) {
+        HttpPost postMethod = new HttpPost(node.url(path));
+        postMethod.setEntity(createLookupEntity(request));
+        return postMethod;
+    }
+
+    // Sends a GET request to the given node, or to the one chosen by the node pool if null. Latency is not used to detect slow
+    // nodes, since these requests are not lookups
+    private <T> T executeGet(WmNode node, String path, ResponseHandler<T> handler) throws IOException {
+        node = node != null ? nodes.acquire(node) : nodes.acquire();
+        boolean success = false;
+        try {
+            T result = _internalClient.execute(new HttpGet(node.url(path)), handler);
+            success = true;
+            return result;
+        } finally {
+            nodes.release(node, -1, success);
+        }
+    }
+
+    // Checks the device received from the given node and adds it to cache
+    private Model.JSONDeviceData onDeviceLoaded(Model.JSONDeviceData device, WmNode node, String cacheType, Object cacheKey) throws WmException {
+        if (StringUtils.isNotEmpty(device.error)) {
+            throw new WmException("Unable to complete request to WM server: " + device.error);
+        }
+
+        // Check if caches must be cleared before adding a new device
+        onNodeLtime(node, device.ltime);
+        // devices detected with a WURFL file other than the client one, by a node that loaded a new file before most of the
+        // others, are not cached
+        if (cacheType != null && (device.ltime == null || device.ltime.equals(ltime))) {
+            // cached devices are shared by all the lookups with the same result
+            if (cacheType.equals(USERAGENT_CACHE_TYPE) && devIDCache != null && cacheKey != null) {
+                device = shareDevice(device);
+                safePutDevice(uaCache, (HeadersKey) cacheKey, device);
+            } else if (cacheType.equals(DEVICE_ID_CACHE_TYPE) && uaCache != null && cacheKey != null) {
+                device = shareDevice(device);
+                safePutDevice(devIDCache, (String) cacheKey, device);
+            }
+        }
+        return device;
+    }
+
+    // Stores the device capabilities in compact form and returns the shared instance of the device
+    private Model.JSONDeviceData shareDevice(Model.JSONDeviceData device) {
+        CapabilityLayout layout = capabilityLayout;
+        // devices read from the off heap cache may already be compact
+        if (layout != null && device.capabilities != null
+                && !(device.capabilities instanceof CompactCapabilities && ((CompactCapabilities) device.capabilities).layout() == layout)) {
+            CompactCapabilities compact = CompactCapabilities.of(layout, device.capabilities);
+            // capabilities not known by the layout are kept as they are
+            if (compact != null) {
+                device.capabilities = compact;
+            }
+        }
+        return interner.intern(device);
+    }
+
+    // Capabilities returned by server are the requested ones or, if none are requested, all of them
+    private void updateCapabilityLayout() {
+        capabilityLayout = CapabilityLayout.of(
+                requestedStaticCaps != null ? requestedStaticCaps : staticCaps,
+                requestedVirtualCaps != null ? requestedVirtualCaps : virtualCaps);
+    }
+
+    private StatsCounter statsFor(String cacheType) {
+        return DEVICE_ID_CACHE_TYPE.equals(cacheType) ? devIdStats : uaStats;
+    }
+
+    private void recordLoad(String path, String cacheType, long start, boolean success) {
+        long elapsed = System.nanoTime() - start;
+        if (success) {
+            statsFor(cacheType).recordLoadSuccess(elapsed);
+        } else {
+            statsFor(cacheType).recordLoadFailure(elapsed);
+        }
+        LatencyHistogram histogram = latencies.get(path);
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(path, p -> new LatencyHistogram());
+        }
+        histogram.record(elapsed);
+    }
+
+    /**
+     * Returns a snapshot of this client statistics: cache hits and misses, server lookups, connection pool usage and latency of
+     * each lookup endpoint. Statistics are collected without locking lookups, so the snapshot is not an atomic view of the
+     * counters when lookups are running.
+     *
+     * @return the client statistics
+     */
+    public WmClientStats getStats() {
+        Map<String, LatencySnapshot> latencySnapshots = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : latencies.entrySet()) {
+            latencySnapshots.put(e.getKey(), e.getValue().snapshot());
+        }
+
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        int max = 0;
+        List<PoolStats> poolStats = new ArrayList<>(2);
+        if (connectionManager != null) {
+            poolStats.add(connectionManager.getTotalStats());
+        }
+        PoolingNHttpClientConnectionManager acm = asyncConnectionManager;
+        if (acm != null) {
+            poolStats.add(acm.getTotalStats());
+        }
+        for (PoolStats ps : poolStats) {
+            leased += ps.getLeased();
+            available += ps.getAvailable();
+            pending += ps.getPending();
+            max += ps.getMax();
+        }
+
+        return new WmClientStats(uaStats.snapshot(uaCache, uaInFlight.size()), devIdStats.snapshot(devIDCache, devIdInFlight.size()),
+                (int) inFlightRequests.sum(), leased, available, pending, max, latencySnapshots, nodes.snapshot(),
+                hedgedRequests.sum(), hedgeWins.sum(), circuitBreaker != null ? circuitBreaker.getState() : null,
+                circuitBreaker != null ? circuitBreaker.getOpenCount() : 0, circuitBreaker != null ? circuitBreaker.getRejectedCount() : 0);
+    }
+
+    // The async client starts its I/O threads, so it is only created when the async API is used for the first time
+    private CloseableHttpAsyncClient getAsyncClient() throws IOReactorException {
+        CloseableHttpAsyncClient client = _asyncClient;
+        if (client == null) {
+            synchronized (asyncClientLock) {
+                client = _asyncClient;
+                if (client == null) {
+                    // connection manager is explicitly created to read its statistics
+                    PoolingNHttpClientConnectionManager acm = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+                    acm.setMaxTotal(config.getMaxTotalConnections());
+                    acm.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+                    client = HttpAsyncClients.custom()
+                            .setConnectionManager(acm)
+                            .setDefaultRequestConfig(createRequestConfig())
+                            .setKeepAliveStrategy(createKeepAliveStrategy())
+                            .build();
+                    client.start();
+                    if (config.getMaxIdleTimeMillis() >= 0) {
+                        startAsyncConnectionEvictor(acm);
+                    }
+                    asyncConnectionManager = acm;
+                    _asyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    // Closes idle and expired connections of the non blocking client, like the blocking client does on its own: it checks them
+    // every max idle time, or every 10 seconds if that is 0
+    private void startAsyncConnectionEvictor(PoolingNHttpClientConnectionManager acm) {
+        long maxIdleTime = config.getMaxIdleTimeMillis();
+        long period = maxIdleTime > 0 ? maxIdleTime : TimeUnit.SECONDS.toMillis(10);
+        asyncConnectionEvictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wm-client-connection-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        asyncConnectionEvictor.scheduleWithFixedDelay(() -> {
+            acm.closeExpiredConnections();
+            acm.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Sets the client cache size
      *
      * @param uaMaxEntries maximum cache dimension
      */
     public void setCacheSize(int uaMaxEntries) {
-        this.uaCache = new LRUCache<>(uaMaxEntries);
-        this.devIDCache = new LRUCache<>(); // this has the default cache size
+        setCacheSize(uaMaxEntries, CachePolicy.LRU);
+    }
+
+    /**
+     * Sets the client cache size and the eviction policy used by the user agent cache.
+     * Caches are also bounded by the maximum weight and expiration time set in the client configuration, if any
+     * (see {@link WmClientConfig.Builder#cacheMaxWeight(long)} and {@link WmClientConfig.Builder#cacheExpireAfterWrite(long, TimeUnit)}).
+     * The {@link CachePolicy#OFF_HEAP} cache supports neither: it cannot be used with a configuration setting them.
+     *
+     * @param uaMaxEntries maximum cache dimension
+     * @param policy       eviction policy of the user agent cache
+     * @throws IllegalArgumentException if policy is OFF_HEAP and the configuration sets a cache maximum weight or expiration time
+     */
+    public void setCacheSize(int uaMaxEntries, CachePolicy policy) {
+        long maxWeight = config.getCacheMaxWeightBytes();
+        long expireAfterWriteNanos = config.getCacheExpireAfterWriteMillis() >= 0
+                ? TimeUnit.MILLISECONDS.toNanos(config.getCacheExpireAfterWriteMillis()) : -1;
+        if (policy == CachePolicy.OFF_HEAP && (maxWeight >= 0 || expireAfterWriteNanos >= 0)) {
+            throw new IllegalArgumentException("Off heap cache does not support cache max weight and expire after write");
+        }
+        WmCache<HeadersKey, Model.JSONDeviceData> newUaCache;
+        if (policy == CachePolicy.W_TINY_LFU) {
+            newUaCache = new TinyLFUCache<>(uaMaxEntries, maxWeight, DeviceWeigher.INSTANCE, expireAfterWriteNanos);
+        } else if (policy == CachePolicy.OFF_HEAP) {
+            // devices read from the off heap cache are shared like the ones in the heap caches
+            newUaCache = new OffHeapCache(uaMaxEntries > 0 ? uaMaxEntries : BufferedCache.DEFAULT_SIZE, OffHeapCache.DEFAULT_MAX_RECORD_BYTES,
+                    this::shareDevice);
+        } else {
+            newUaCache = new ConcurrentLRUCache<>(uaMaxEntries, maxWeight, DeviceWeigher.INSTANCE, expireAfterWriteNanos);
+        }
+        // this has the default cache size
+        WmCache<String, Model.JSONDeviceData> newDevIdCache = new ConcurrentLRUCache<>(BufferedCache.DEFAULT_SIZE, maxWeight,
+                DeviceWeigher.INSTANCE, expireAfterWriteNanos);
+        // entries of the previous caches, ie: the ones loaded from the configured cache snapshot, are kept
+        copyEntries(uaCache, newUaCache);
+        copyEntries(devIDCache, newDevIdCache);
+        this.uaCache = newUaCache;
+        this.devIDCache = newDevIdCache;
+    }
+
+    private static <K> void copyEntries(WmCache<K, Model.JSONDeviceData> from, WmCache<K, Model.JSONDeviceData> to) {
+        if (from != null) {
+            from.forEach(to::putEntry);
+            from.clear();
+        }
     }
 
     /**
@@ -621,7 +1897,7 @@ public class WmClient {
      * @return This client API version
      */
     public String getApiVersion() {
-        return "2.1.7";
+        return "2.2.0";
     }
 
     private void clearCaches() {
@@ -632,7 +1908,12 @@ public class WmClient {
         if (devIDCache != null) {
             devIDCache.clear();
         }
+        interner.clear();
+        clearCatalogCaches();
+    }
 
+    // Clears makes, models and OSes, which are loaded again on their next use
+    private void clearCatalogCaches() {
         makeModels = new Model.JSONMakeModel[0];
         deviceMakes = new String[0];
         deviceMakesMap = new HashMap<>();
@@ -645,33 +1926,116 @@ public class WmClient {
     }
 
 
+    private void startLtimePoller() {
+        ltimePoller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wm-client-ltime-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduleLtimePoll();
+    }
+
+    // Each poll schedules the next one, with a new random jitter
+    private void scheduleLtimePoll() {
+        long delay = config.getLtimePollIntervalMillis();
+        if (config.getLtimePollJitterMillis() > 0) {
+            delay += ThreadLocalRandom.current().nextLong(config.getLtimePollJitterMillis() + 1);
+        }
+        try {
+            ltimePoller.schedule(this::pollLtime, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // client destroyed
+        }
+    }
+
+    private void pollLtime() {
+        try {
+            // getInfo clears the caches, or makes cached devices stale, once most of WM servers have loaded a new WURFL file
+            for (int i = 0; i < nodes.size(); i++) {
+                try {
+                    getInfo(nodes.node(i));
+                } catch (WmException e) {
+                    // server not available: next poll tries again
+                }
+            }
+        } finally {
+            scheduleLtimePoll();
+        }
+    }
+
+    // Records the WURFL file used by a node. Nodes may load a new WURFL file at different times: the client moves to it once
+    // most of the available nodes use it, so that requests balanced across nodes using different files do not clear the
+    // caches again and again
+    private void onNodeLtime(WmNode node, String nodeLtime) {
+        if (nodeLtime == null) {
+            return;
+        }
+        node.setLtime(nodeLtime);
+        if (!nodeLtime.equals(ltime)) {
+            clearCachesIfNeeded(nodes.majorityLtime());
+        }
+    }
+
     private void clearCachesIfNeeded(String ltime) {
         if (ltime != null && !ltime.equals(this.ltime)) {
+            CacheClearEvent event = new CacheClearEvent();
+            event.begin();
+            int[] sizes = getActualCacheSizes();
+            String oldLtime = this.ltime;
             this.ltime = ltime;
-            clearCaches();
+            nodes.preferLtime(ltime);
+            if (staleRefreshLimiter != null) {
+                // cached devices are kept: from now on they are stale, and refreshed when they are looked up
+                sizes = new int[2];
+                interner.clear();
+                clearCatalogCaches();
+            } else {
+                clearCaches();
+            }
+            if (event.shouldCommit()) {
+                event.oldLtime = oldLtime;
+                event.newLtime = ltime;
+                event.deviceIdEntriesDropped = sizes[0];
+                event.userAgentEntriesDropped = sizes[1];
+                event.commit();
+            }
+        }
+    }
+
+    // Returns the cache key of the given request: the WURFL ID for device ID lookups, a HeadersKey for the others.
+    // Null means that the lookup cannot be cached.
+    private Object getCacheKey(Request request, String cacheType) throws WmException {
+        if (DEVICE_ID_CACHE_TYPE.equals(cacheType)) {
+            return StringUtils.isNotEmpty(request.getWurflId()) ? request.getWurflId() : null;
+        } else if (USERAGENT_CACHE_TYPE.equals(cacheType)) {
+            return getUserAgentCacheKey(request.getLookupHeaders(), cacheType);
         }
+        return null;
     }
 
-    private String getUserAgentCacheKey(Map<String, String> headers, String cacheType) throws WmException {
-        StringBuilder key = new StringBuilder("");
+    private Model.JSONDeviceData getCachedDevice(String cacheType, Object cacheKey) {
+        if (DEVICE_ID_CACHE_TYPE.equals(cacheType)) {
+            WmCache<String, Model.JSONDeviceData> cache = devIDCache;
+            return cache != null ? cache.getEntry((String) cacheKey) : null;
+        }
+        WmCache<HeadersKey, Model.JSONDeviceData> cache = uaCache;
+        return cache != null ? cache.getEntry((HeadersKey) cacheKey) : null;
+    }
 
+    // package visibility allows benchmarking it
+    HeadersKey getUserAgentCacheKey(Map<String, String> headers, String cacheType) throws WmException {
         if (headers == null && USERAGENT_CACHE_TYPE.equals(cacheType)) {
             throw new WmException("No User-Agent provided");
         }
 
-        // Using important headers array preserves header name order
-        if(headers!=null) {
-            for (String h : importantHeaders) {
-                String headerValue = headers.get(h);
-                if (headerValue != null) {
-                    key.append(headerValue);
-                }
-            }
+        if (headers == null) {
+            return null;
         }
-        return key.toString();
+        // Using important headers array preserves header name order
+        return HeadersKey.of(importantHeaders, headers, config.isVerifyCacheKeys());
     }
 
-    private void safePutDevice(LRUCache<String, Model.JSONDeviceData> cache, String key, Model.JSONDeviceData device) {
+    private <K> void safePutDevice(WmCache<K, Model.JSONDeviceData> cache, K key, Model.JSONDeviceData device) {
         if (cache != null) {
             cache.putEntry(key, device);
         }
@@ -700,24 +2064,38 @@ public class WmClient {
 class WmDataHandler<T> implements ResponseHandler<T> {
 
     private final Class<T> type;
+    private long bytesRead;
 
     WmDataHandler(Class<T> type) {
         this.type = type;
     }
 
+    /**
+     * @return number of bytes of the response body read by the last {@link #handleResponse(HttpResponse)} call
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
     @Override
     public T handleResponse(HttpResponse res) throws IOException {
-        Gson gson = new Gson();
+        Gson gson = WmJson.GSON;
         int status = res.getStatusLine().getStatusCode();
-        String json;
         if (status >= 200 && status < 300) {
             HttpEntity entity = res.getEntity();
+            if (entity == null) {
+                return null;
+            }
 
-            json = entity != null ? EntityUtils.toString(entity) : null;
-
-
-            T result = gson.fromJson(json, type);
-            return result;
+            // JSON is parsed while it is read from the connection, without copying the whole body in a String.
+            // Closing the stream releases the connection to the pool.
+            Charset charset = ContentType.getOrDefault(entity).getCharset();
+            BoundedInputStream content = BoundedInputStream.builder().setInputStream(entity.getContent()).get();
+            try (Reader reader = new InputStreamReader(content, charset != null ? charset : StandardCharsets.UTF_8)) {
+                return gson.fromJson(reader, type);
+            } finally {
+                bytesRead = content.getCount();
+            }
         } else {
             throw new ClientProtocolException("Unexpected response status: " + status);
         }
@@ -0,0 +1,675 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of a WmClient instance, passed to {@link WmClient#create(String, String, String, String, WmClientConfig)}.<br>
+ * Instances are immutable and are created using a {@link Builder}, ie:
+ * <pre>
+ * WmClientConfig config = WmClientConfig.builder()
+ *         .maxConnectionsPerRoute(100)
+ *         .connectTimeout(2, TimeUnit.SECONDS)
+ *         .socketTimeout(5, TimeUnit.SECONDS)
+ *         .build();
+ * </pre>
+ * Timeouts and durations set to a negative value (the default, unless stated otherwise) leave the Apache HttpClient default behaviour.
+ */
+public final class WmClientConfig {
+
+    private final int maxTotalConnections;
+    private final int maxConnectionsPerRoute;
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int connectionRequestTimeoutMillis;
+    private final long keepAliveMillis;
+    private final long maxIdleTimeMillis;
+    private final int validateAfterInactivityMillis;
+    private final boolean verifyCacheKeys;
+    private final int staleRefreshesPerSecond;
+    private final long ltimePollIntervalMillis;
+    private final long ltimePollJitterMillis;
+    private final long cacheMaxWeightBytes;
+    private final long cacheExpireAfterWriteMillis;
+    private final Path cacheSnapshotFile;
+    private final String[] requestedCapabilities;
+    private final int nodeEjectionFailures;
+    private final double nodeEjectionLatencyFactor;
+    private final long nodeEjectionTimeMillis;
+    private final double hedgePercentile;
+    private final int maxHedgesPerSecond;
+    private final int circuitBreakerFailureRatePercent;
+    private final long circuitBreakerSlowCallMillis;
+    private final long circuitBreakerOpenMillis;
+    private final Map<String, String> circuitBreakerFallback;
+
+    private WmClientConfig(Builder builder) {
+        this.maxTotalConnections = builder.maxTotalConnections;
+        this.maxConnectionsPerRoute = Math.min(builder.maxConnectionsPerRoute, builder.maxTotalConnections);
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.socketTimeoutMillis = builder.socketTimeoutMillis;
+        this.connectionRequestTimeoutMillis = builder.connectionRequestTimeoutMillis;
+        this.keepAliveMillis = builder.keepAliveMillis;
+        this.maxIdleTimeMillis = builder.maxIdleTimeMillis;
+        this.validateAfterInactivityMillis = builder.validateAfterInactivityMillis;
+        this.verifyCacheKeys = builder.verifyCacheKeys;
+        this.staleRefreshesPerSecond = builder.staleRefreshesPerSecond;
+        this.ltimePollIntervalMillis = builder.ltimePollIntervalMillis;
+        this.ltimePollJitterMillis = builder.ltimePollJitterMillis;
+        this.cacheMaxWeightBytes = builder.cacheMaxWeightBytes;
+        this.cacheExpireAfterWriteMillis = builder.cacheExpireAfterWriteMillis;
+        this.cacheSnapshotFile = builder.cacheSnapshotFile;
+        this.requestedCapabilities = builder.requestedCapabilities;
+        this.nodeEjectionFailures = builder.nodeEjectionFailures;
+        this.nodeEjectionLatencyFactor = builder.nodeEjectionLatencyFactor;
+        this.nodeEjectionTimeMillis = builder.nodeEjectionTimeMillis;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.maxHedgesPerSecond = builder.maxHedgesPerSecond;
+        this.circuitBreakerFailureRatePercent = builder.circuitBreakerFailureRatePercent;
+        this.circuitBreakerSlowCallMillis = builder.circuitBreakerSlowCallMillis;
+        this.circuitBreakerOpenMillis = builder.circuitBreakerOpenMillis;
+        this.circuitBreakerFallback = builder.circuitBreakerFallback;
+    }
+
+    /**
+     * @return a new builder initialized with the default configuration values
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the default configuration, used by {@link WmClient#create(String, String, String, String)}
+     */
+    public static WmClientConfig defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * @return maximum number of connections kept in the connection pool
+     */
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * @return maximum number of connections to the WM server host
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return timeout in milliseconds until a connection is established
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @return maximum time in milliseconds of inactivity between two data packets when reading a server response
+     */
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    /**
+     * @return timeout in milliseconds when waiting for a connection from the pool
+     */
+    public int getConnectionRequestTimeoutMillis() {
+        return connectionRequestTimeoutMillis;
+    }
+
+    /**
+     * @return maximum time in milliseconds a connection is kept alive when idle
+     */
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * @return time in milliseconds after which idle connections are closed by a background thread
+     */
+    public long getMaxIdleTimeMillis() {
+        return maxIdleTimeMillis;
+    }
+
+    /**
+     * @return period of inactivity in milliseconds after which a pooled connection is validated before being reused
+     */
+    public int getValidateAfterInactivityMillis() {
+        return validateAfterInactivityMillis;
+    }
+
+    /**
+     * @return true if user agent cache keys keep the header values to verify matches, instead of relying on their 128-bit fingerprint only
+     */
+    public boolean isVerifyCacheKeys() {
+        return verifyCacheKeys;
+    }
+
+    /**
+     * @return true if cached devices are still served after WM server loads a new WURFL file, while they are refreshed in background
+     */
+    public boolean isStaleWhileRevalidate() {
+        return staleRefreshesPerSecond > 0;
+    }
+
+    /**
+     * @return maximum number of background refreshes of stale cache entries sent each second, 0 if stale entries are not served
+     */
+    public int getStaleRefreshesPerSecond() {
+        return staleRefreshesPerSecond;
+    }
+
+    /**
+     * @return interval in milliseconds between two checks of the WURFL file loaded by WM server, -1 if the server is not polled
+     */
+    public long getLtimePollIntervalMillis() {
+        return ltimePollIntervalMillis;
+    }
+
+    /**
+     * @return maximum random delay in milliseconds added to each poll interval
+     */
+    public long getLtimePollJitterMillis() {
+        return ltimePollJitterMillis;
+    }
+
+    /**
+     * @return maximum estimated size in bytes of each device cache, -1 if caches are only bounded by entry count
+     */
+    public long getCacheMaxWeightBytes() {
+        return cacheMaxWeightBytes;
+    }
+
+    /**
+     * @return time in milliseconds after which a cached device expires, -1 if cached devices do not expire
+     */
+    public long getCacheExpireAfterWriteMillis() {
+        return cacheExpireAfterWriteMillis;
+    }
+
+    /**
+     * @return file used to save the device caches when the client is destroyed and to reload them when it is created, null if not set
+     */
+    public Path getCacheSnapshotFile() {
+        return cacheSnapshotFile;
+    }
+
+    /**
+     * @return capabilities returned by lookups of a new client, null if all the capabilities are returned
+     */
+    public String[] getRequestedCapabilities() {
+        return requestedCapabilities != null ? requestedCapabilities.clone() : null;
+    }
+
+    /**
+     * @return number of consecutive failed requests after which a WM server node is ejected
+     */
+    public int getNodeEjectionFailures() {
+        return nodeEjectionFailures;
+    }
+
+    /**
+     * @return ratio between the average latency of a node and the median latency of the other nodes above which the node is
+     * ejected, 0 if slow nodes are not ejected
+     */
+    public double getNodeEjectionLatencyFactor() {
+        return nodeEjectionLatencyFactor;
+    }
+
+    /**
+     * @return time in milliseconds during which an ejected node does not receive requests
+     */
+    public long getNodeEjectionTimeMillis() {
+        return nodeEjectionTimeMillis;
+    }
+
+    /**
+     * @return true if slow lookups are hedged with a second request
+     */
+    public boolean isHedgeRequests() {
+        return maxHedgesPerSecond > 0;
+    }
+
+    /**
+     * @return latency percentile of an endpoint after which its lookups are hedged, -1 if lookups are not hedged
+     */
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * @return maximum number of hedged requests sent per second, 0 if lookups are not hedged
+     */
+    public int getMaxHedgesPerSecond() {
+        return maxHedgesPerSecond;
+    }
+
+    /**
+     * @return true if lookups fail fast while WM server is unhealthy
+     */
+    public boolean isCircuitBreaker() {
+        return circuitBreakerFailureRatePercent > 0;
+    }
+
+    /**
+     * @return percentage of failed or slow lookups opening the circuit breaker, 0 if the circuit breaker is disabled
+     */
+    public int getCircuitBreakerFailureRatePercent() {
+        return circuitBreakerFailureRatePercent;
+    }
+
+    /**
+     * @return duration in milliseconds after which a lookup counts as failed, -1 if lookup latency is ignored
+     */
+    public long getCircuitBreakerSlowCallMillis() {
+        return circuitBreakerSlowCallMillis;
+    }
+
+    /**
+     * @return time in milliseconds during which lookups are rejected once the circuit breaker opens
+     */
+    public long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    /**
+     * @return capabilities of the device returned by lookups rejected by the circuit breaker, null if they throw a WmException
+     */
+    public Map<String, String> getCircuitBreakerFallback() {
+        return circuitBreakerFallback;
+    }
+
+    /**
+     * Builds WmClientConfig instances.
+     */
+    public static final class Builder {
+
+        private int maxTotalConnections = 200;
+        // All requests go to the same WM server host, so the per route limit defaults to the total one
+        private int maxConnectionsPerRoute = 200;
+        private int connectTimeoutMillis = -1;
+        private int socketTimeoutMillis = -1;
+        private int connectionRequestTimeoutMillis = -1;
+        private long keepAliveMillis = -1;
+        private long maxIdleTimeMillis = -1;
+        private int validateAfterInactivityMillis = 2000;
+        private boolean verifyCacheKeys;
+        private int staleRefreshesPerSecond;
+        private long ltimePollIntervalMillis = -1;
+        private long ltimePollJitterMillis;
+        private long cacheMaxWeightBytes = -1;
+        private long cacheExpireAfterWriteMillis = -1;
+        private Path cacheSnapshotFile;
+        private String[] requestedCapabilities;
+        private int nodeEjectionFailures = 5;
+        private double nodeEjectionLatencyFactor = 3;
+        private long nodeEjectionTimeMillis = 30000;
+        private double hedgePercentile = -1;
+        private int maxHedgesPerSecond;
+        private int circuitBreakerFailureRatePercent;
+        private long circuitBreakerSlowCallMillis = -1;
+        private long circuitBreakerOpenMillis = 30000;
+        private Map<String, String> circuitBreakerFallback;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of connections kept in the connection pool. Default is 200.
+         *
+         * @param maxTotalConnections maximum number of pooled connections
+         * @return this builder
+         */
+        public Builder maxTotalConnections(int maxTotalConnections) {
+            if (maxTotalConnections <= 0) {
+                throw new IllegalArgumentException("Max total connections must be greater than zero");
+            }
+            this.maxTotalConnections = maxTotalConnections;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections to the WM server host, which limits the number of concurrent lookups sent to the
+         * server. It cannot exceed the max total connections value. Default is 200.
+         *
+         * @param maxConnectionsPerRoute maximum number of connections to the WM server
+         * @return this builder
+         */
+        public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            if (maxConnectionsPerRoute <= 0) {
+                throw new IllegalArgumentException("Max connections per route must be greater than zero");
+            }
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * Sets the timeout until a connection with the WM server is established.
+         *
+         * @param timeout timeout value
+         * @param unit    timeout unit
+         * @return this builder
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = toIntMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the maximum period of inactivity between two data packets when reading a server response.
+         *
+         * @param timeout timeout value
+         * @param unit    timeout unit
+         * @return this builder
+         */
+        public Builder socketTimeout(long timeout, TimeUnit unit) {
+            this.socketTimeoutMillis = toIntMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the timeout used when waiting for a connection from the pool, ie: when all the connections are in use.
+         *
+         * @param timeout timeout value
+         * @param unit    timeout unit
+         * @return this builder
+         */
+        public Builder connectionRequestTimeout(long timeout, TimeUnit unit) {
+            this.connectionRequestTimeoutMillis = toIntMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the maximum time an idle connection is kept alive. If the server sends a shorter keep-alive timeout, the server one is used.
+         * By default, connections are kept alive for the duration sent by the server, or indefinitely if the server does not send one.
+         *
+         * @param duration keep-alive duration
+         * @param unit     duration unit
+         * @return this builder
+         */
+        public Builder keepAlive(long duration, TimeUnit unit) {
+            this.keepAliveMillis = duration < 0 ? -1 : unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Enables a background thread that closes connections that stayed idle longer than the given time, and expired ones.
+         * It applies to the connections of both the blocking client and the non blocking one, used by asynchronous, batch and
+         * hedged lookups. Disabled by default.
+         *
+         * @param maxIdleTime maximum idle time
+         * @param unit        time unit
+         * @return this builder
+         */
+        public Builder evictIdleConnections(long maxIdleTime, TimeUnit unit) {
+            this.maxIdleTimeMillis = maxIdleTime < 0 ? -1 : unit.toMillis(maxIdleTime);
+            return this;
+        }
+
+        /**
+         * Sets the period of inactivity after which a pooled connection is checked before being reused. Default is 2 seconds.
+         * A negative value disables the check. It only applies to the blocking client: the non blocking one, used by asynchronous,
+         * batch and hedged lookups, is notified by its I/O reactor when a pooled connection is closed by the server, and does
+         * not reuse it.
+         *
+         * @param inactivity inactivity period
+         * @param unit       period unit
+         * @return this builder
+         */
+        public Builder validateAfterInactivity(long inactivity, TimeUnit unit) {
+            this.validateAfterInactivityMillis = toIntMillis(inactivity, unit);
+            return this;
+        }
+
+        /**
+         * User agent cache entries are identified by a 128-bit fingerprint of the lookup headers. If enabled, cache keys also keep
+         * the header values, which are compared when fingerprints match: this rules out any collision, but cached keys use as much
+         * memory as the header values. Disabled by default.
+         *
+         * @param verifyCacheKeys true to keep and compare header values in cache keys
+         * @return this builder
+         */
+        public Builder verifyCacheKeys(boolean verifyCacheKeys) {
+            this.verifyCacheKeys = verifyCacheKeys;
+            return this;
+        }
+
+        /**
+         * When WM server loads a new WURFL file, client caches are cleared by default, and all the following lookups are sent to the
+         * server until caches are warm again. If enabled, cached devices from the previous WURFL file are still returned: a lookup
+         * hitting an old entry gets it immediately and sends a background request to refresh it, unless the given rate of refreshes
+         * has already been reached (the old entry is returned anyway, and refreshed by a later lookup). Disabled by default.
+         *
+         * @param maxRefreshesPerSecond maximum number of background refreshes sent each second, 0 to disable stale entries
+         * @return this builder
+         */
+        public Builder staleWhileRevalidate(int maxRefreshesPerSecond) {
+            if (maxRefreshesPerSecond < 0) {
+                throw new IllegalArgumentException("Max refreshes per second cannot be negative");
+            }
+            this.staleRefreshesPerSecond = maxRefreshesPerSecond;
+            return this;
+        }
+
+        /**
+         * Enables a background thread that periodically asks WM server the load time (ltime) of its WURFL file. By default, a new
+         * WURFL file is only detected when a lookup misses the cache, so a warm cache can return devices of an old WURFL file for a
+         * long time and then be cleared during peak traffic. With polling, caches are cleared (or their devices become stale, see
+         * {@link #staleWhileRevalidate(int)}) by the poller thread, soon after the server change. Disabled by default.
+         *
+         * @param interval  interval between two polls
+         * @param maxJitter maximum random delay added to each interval, so that many clients do not poll the server at the same time
+         * @param unit      interval and jitter unit
+         * @return this builder
+         */
+        public Builder pollLtime(long interval, long maxJitter, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Poll interval must be greater than zero");
+            }
+            if (maxJitter < 0) {
+                throw new IllegalArgumentException("Poll jitter cannot be negative");
+            }
+            this.ltimePollIntervalMillis = Math.max(unit.toMillis(interval), 1);
+            this.ltimePollJitterMillis = unit.toMillis(maxJitter);
+            return this;
+        }
+
+        /**
+         * Bounds each device cache (user agent and device ID caches) by the estimated heap size of its entries: key, device data
+         * and capabilities. Least recently used entries (according to the cache policy) are evicted to stay within the bound.
+         * The entry count set with {@link WmClient#setCacheSize(int)} still applies: set it high enough to bound caches by size only.
+         * Estimates count shared device data once per entry, so the actual heap used is usually lower. Not supported by the
+         * {@link CachePolicy#OFF_HEAP} cache. Disabled by default.
+         *
+         * @param maxBytes maximum estimated size of each cache in bytes, ie: 256 * 1024 * 1024
+         * @return this builder
+         */
+        public Builder cacheMaxWeight(long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("Cache max weight must be greater than zero");
+            }
+            this.cacheMaxWeightBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Makes cached devices expire after the given time since they were loaded from WM server, so that rarely seen user agents
+         * do not stay in cache until they are evicted. An expired entry is looked up again on WM server. Not supported by the
+         * {@link CachePolicy#OFF_HEAP} cache. Disabled by default.
+         *
+         * @param duration time after which cached devices expire
+         * @param unit     duration unit
+         * @return this builder
+         */
+        public Builder cacheExpireAfterWrite(long duration, TimeUnit unit) {
+            this.cacheExpireAfterWriteMillis = duration < 0 ? -1 : unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Saves the device caches to the given file when the client is destroyed, and reloads them when a client is created, so that a
+         * restarted application does not look up again all the devices it has already seen. The snapshot is loaded by
+         * {@link WmClient#create(String, String, String, String, WmClientConfig)} in caches of the default size, or of the snapshot
+         * size if it is larger, whose entries are kept by {@link WmClient#setCacheSize(int)}. It is discarded if WM server has loaded a different WURFL file since it was
+         * saved, or if the client uses different important headers or requested capabilities: a client requesting capabilities must
+         * set them with {@link #requestedCapabilities(String...)}. When cache keys are verified, user agent entries saved without
+         * their header values are not loaded. Disabled by default.
+         *
+         * @param file snapshot file, created if it does not exist
+         * @return this builder
+         */
+        public Builder cacheSnapshot(Path file) {
+            this.cacheSnapshotFile = file;
+            return this;
+        }
+
+        /**
+         * Sets the capabilities returned by lookups, like {@link WmClient#setRequestedCapabilities(String[])} does once the client
+         * is created. Since they are known when the client is created, a cache snapshot saved by a client requesting the same
+         * capabilities can be loaded (see {@link #cacheSnapshot(Path)}). By default all the capabilities are returned.
+         *
+         * @param capabilities names of the static and virtual capabilities returned by lookups
+         * @return this builder
+         */
+        public Builder requestedCapabilities(String... capabilities) {
+            if (capabilities == null || capabilities.length == 0) {
+                throw new IllegalArgumentException("Requested capabilities cannot be null or empty");
+            }
+            this.requestedCapabilities = capabilities.clone();
+            return this;
+        }
+
+        /**
+         * Sets when a WM server node of a client created with {@link WmClient#create(java.util.List, WmClientConfig)} is ejected, that is
+         * it receives no requests (unless no other node is available) for the given time. A node is ejected when it fails the given
+         * number of consecutive requests, or when its average lookup latency exceeds the median latency of the other nodes by the
+         * given factor. At most half of the nodes are ejected at the same time. Default is 5 failures, factor 3, 30 seconds.
+         *
+         * @param maxConsecutiveFailures consecutive failed requests after which a node is ejected
+         * @param slowLatencyFactor      latency factor above which a node is ejected, greater than 1, or 0 to never eject slow nodes
+         * @param ejectionTime           time during which an ejected node does not receive requests
+         * @param unit                   ejection time unit
+         * @return this builder
+         */
+        public Builder nodeEjection(int maxConsecutiveFailures, double slowLatencyFactor, long ejectionTime, TimeUnit unit) {
+            if (maxConsecutiveFailures <= 0) {
+                throw new IllegalArgumentException("Node ejection failures must be greater than zero");
+            }
+            if (slowLatencyFactor != 0 && !(slowLatencyFactor > 1)) {
+                throw new IllegalArgumentException("Node ejection latency factor must be greater than one, or zero");
+            }
+            if (ejectionTime <= 0) {
+                throw new IllegalArgumentException("Node ejection time must be greater than zero");
+            }
+            this.nodeEjectionFailures = maxConsecutiveFailures;
+            this.nodeEjectionLatencyFactor = slowLatencyFactor;
+            this.nodeEjectionTimeMillis = unit.toMillis(ejectionTime);
+            return this;
+        }
+
+        /**
+         * Hedges slow lookups: when WM server has not answered a lookup within the given latency percentile of its endpoint, the
+         * same lookup is sent again, to another WM server if the client has more than one. The first response is used and the
+         * other request is cancelled. For instance, percentile 95 sends a second request for about 5% of the server lookups,
+         * cutting the latency of the slowest ones. The percentile is computed on the successful first requests of the last
+         * 30 to 60 seconds, first requests cancelled by a hedge counting their time until cancellation: lookups are hedged
+         * while at least 100 of them have been recorded in this window.
+         * Hedged requests are limited per second, so that they do not add load to servers that are slow because they are
+         * overloaded. Lookups are sent with the non blocking HTTP transport, also by the synchronous API. Disabled by default.
+         *
+         * @param percentile         latency percentile of the hedge delay, greater than 0 and lower than 100, ie: 95
+         * @param maxHedgesPerSecond maximum number of hedged requests sent per second
+         * @return this builder
+         */
+        public Builder hedgeRequests(double percentile, int maxHedgesPerSecond) {
+            if (!(percentile > 0 && percentile < 100)) {
+                throw new IllegalArgumentException("Hedge percentile must be greater than 0 and lower than 100");
+            }
+            if (maxHedgesPerSecond <= 0) {
+                throw new IllegalArgumentException("Max hedges per second must be greater than zero");
+            }
+            this.hedgePercentile = percentile;
+            this.maxHedgesPerSecond = maxHedgesPerSecond;
+            return this;
+        }
+
+        /**
+         * Enables the circuit breaker: when the given percentage of the last 20 server lookups (at least 10) failed or was slower
+         * than the slow call duration, the breaker opens and lookups fail fast, without waiting for WM server, for the open
+         * duration. Then up to 3 trial lookups are sent: the breaker closes if all of them succeed, otherwise it opens again.
+         * While the breaker is open, cached devices are still returned, also when stale. Lookups that need WM server return the
+         * expired cache entry of their key if it has not been evicted yet (see {@link #cacheExpireAfterWrite(long, TimeUnit)}),
+         * otherwise the {@link #circuitBreakerFallback(Map) fallback device}, or throw a WmException if no fallback is set.
+         * Disabled by default.
+         *
+         * @param failureRatePercent percentage of failed or slow lookups opening the breaker, from 1 to 100
+         * @param slowCallDuration   duration after which a lookup counts as failed, a negative value ignores lookup latency
+         * @param openDuration       time during which lookups fail fast once the breaker opens, must be greater than zero
+         * @param unit               time unit of both durations
+         * @return this builder
+         */
+        public Builder circuitBreaker(int failureRatePercent, long slowCallDuration, long openDuration, TimeUnit unit) {
+            if (failureRatePercent < 1 || failureRatePercent > 100) {
+                throw new IllegalArgumentException("Circuit breaker failure rate must be between 1 and 100");
+            }
+            if (openDuration <= 0) {
+                throw new IllegalArgumentException("Circuit breaker open duration must be greater than zero");
+            }
+            this.circuitBreakerFailureRatePercent = failureRatePercent;
+            this.circuitBreakerSlowCallMillis = slowCallDuration < 0 ? -1 : unit.toMillis(slowCallDuration);
+            this.circuitBreakerOpenMillis = unit.toMillis(openDuration);
+            return this;
+        }
+
+        /**
+         * Sets the device returned by lookups while the circuit breaker is open, instead of throwing a WmException.
+         * The fallback device is never cached. Its wurfl_id defaults to "generic" when not among the given capabilities.
+         *
+         * @param capabilities capability values of the fallback device, ie: is_mobile=false
+         * @return this builder
+         */
+        public Builder circuitBreakerFallback(Map<String, String> capabilities) {
+            if (capabilities == null) {
+                throw new IllegalArgumentException("Circuit breaker fallback capabilities cannot be null");
+            }
+            Map<String, String> fallback = new HashMap<>(capabilities);
+            fallback.putIfAbsent("wurfl_id", "generic");
+            this.circuitBreakerFallback = Collections.unmodifiableMap(fallback);
+            return this;
+        }
+
+        /**
+         * @return a new WmClientConfig using the values set in this builder
+         */
+        public WmClientConfig build() {
+            return new WmClientConfig(this);
+        }
+
+        private static int toIntMillis(long value, TimeUnit unit) {
+            if (value < 0) {
+                return -1;
+            }
+            return (int) Math.min(unit.toMillis(value), Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of WmClient statistics, returned by {@link WmClient#getStats()}: cache statistics, requests in progress,
+ * connection pool usage and latency of WM server lookup endpoints.<br>
+ * Connection pool values are the sum of the blocking client pool and, if the asynchronous API has been used, the non blocking one.
+ */
+public final class WmClientStats {
+
+    private final CacheStats userAgentCacheStats;
+    private final CacheStats deviceIdCacheStats;
+    private final int inFlightRequests;
+    private final int leasedConnections;
+    private final int availableConnections;
+    private final int pendingConnections;
+    private final int maxConnections;
+    private final Map<String, LatencySnapshot> latencies;
+    private final List<WmNodeStats> nodeStats;
+    private final long hedgedRequestCount;
+    private final long hedgeWinCount;
+    private final CircuitBreaker.State circuitBreakerState;
+    private final long circuitBreakerOpenCount;
+    private final long circuitBreakerRejectedCount;
+
+    WmClientStats(CacheStats userAgentCacheStats, CacheStats deviceIdCacheStats, int inFlightRequests, int leasedConnections,
+                  int availableConnections, int pendingConnections, int maxConnections, Map<String, LatencySnapshot> latencies,
+                  List<WmNodeStats> nodeStats, long hedgedRequestCount, long hedgeWinCount, CircuitBreaker.State circuitBreakerState,
+                  long circuitBreakerOpenCount, long circuitBreakerRejectedCount) {
+        this.userAgentCacheStats = userAgentCacheStats;
+        this.deviceIdCacheStats = deviceIdCacheStats;
+        this.inFlightRequests = inFlightRequests;
+        this.leasedConnections = leasedConnections;
+        this.availableConnections = availableConnections;
+        this.pendingConnections = pendingConnections;
+        this.maxConnections = maxConnections;
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.nodeStats = nodeStats;
+        this.hedgedRequestCount = hedgedRequestCount;
+        this.hedgeWinCount = hedgeWinCount;
+        this.circuitBreakerState = circuitBreakerState;
+        this.circuitBreakerOpenCount = circuitBreakerOpenCount;
+        this.circuitBreakerRejectedCount = circuitBreakerRejectedCount;
+    }
+
+    /**
+     * @return statistics of the cache used by user agent, headers and HTTP request lookups
+     */
+    public CacheStats getUserAgentCacheStats() {
+        return userAgentCacheStats;
+    }
+
+    /**
+     * @return statistics of the cache used by device ID lookups
+     */
+    public CacheStats getDeviceIdCacheStats() {
+        return deviceIdCacheStats;
+    }
+
+    /**
+     * @return number of lookup requests sent to WM server and still waiting for a response
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests;
+    }
+
+    /**
+     * @return number of pooled connections currently used by a request
+     */
+    public int getLeasedConnections() {
+        return leasedConnections;
+    }
+
+    /**
+     * @return number of idle connections in pool
+     */
+    public int getAvailableConnections() {
+        return availableConnections;
+    }
+
+    /**
+     * @return number of requests waiting for a connection
+     */
+    public int getPendingConnections() {
+        return pendingConnections;
+    }
+
+    /**
+     * @return maximum number of connections in pool
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return latencies of WM server lookup requests, by endpoint path (ie: /v2/lookuprequest/json). Endpoints that have not been
+     * used yet are not present
+     */
+    public Map<String, LatencySnapshot> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @param endpoint endpoint path, ie: /v2/lookupuseragent/json
+     * @return latencies of the given endpoint, or null if it has not been used yet
+     */
+    public LatencySnapshot getLatency(String endpoint) {
+        return latencies.get(endpoint);
+    }
+
+    /**
+     * @return statistics of each WM server node, in the order they were given to the client
+     */
+    public List<WmNodeStats> getNodeStats() {
+        return nodeStats;
+    }
+
+    /**
+     * @return number of hedged lookup requests, sent because the first request was slower than the hedge delay
+     */
+    public long getHedgedRequestCount() {
+        return hedgedRequestCount;
+    }
+
+    /**
+     * @return number of hedged lookup requests answering before the request they hedged
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount;
+    }
+
+    /**
+     * @return state of the circuit breaker, null if the circuit breaker is disabled
+     */
+    public CircuitBreaker.State getCircuitBreakerState() {
+        return circuitBreakerState;
+    }
+
+    /**
+     * @return number of times the circuit breaker opened
+     */
+    public long getCircuitBreakerOpenCount() {
+        return circuitBreakerOpenCount;
+    }
+
+    /**
+     * @return number of lookups rejected while the circuit breaker was open
+     */
+    public long getCircuitBreakerRejectedCount() {
+        return circuitBreakerRejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "WmClientStats{userAgentCache=" + userAgentCacheStats + ", deviceIdCache=" + deviceIdCacheStats
+                + ", inFlightRequests=" + inFlightRequests + ", leasedConnections=" + leasedConnections
+                + ", availableConnections=" + availableConnections + ", pendingConnections=" + pendingConnections
+                + ", maxConnections=" + maxConnections + ", latencies=" + latencies + ", nodes=" + nodeStats
+                + ", hedgedRequests=" + hedgedRequestCount + ", hedgeWins=" + hedgeWinCount
+                + ", circuitBreaker=" + circuitBreakerState + ", circuitBreakerOpens=" + circuitBreakerOpenCount
+                + ", circuitBreakerRejections=" + circuitBreakerRejectedCount + "}";
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the Gson instance shared by all WM clients. Gson instances are thread safe and cache the type adapters they create,
+ * so sharing one avoids the reflective setup done by each new Gson instance.<br>
+ * Types exchanged on every lookup (requests, device data, server info) use hand written type adapters, which do not use
+ * reflection at all.
+ */
+final class WmJson {
+
+    static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Model.Request.class, new RequestAdapter().nullSafe())
+            .registerTypeAdapter(Model.JSONDeviceData.class, new DeviceDataAdapter().nullSafe())
+            .registerTypeAdapter(Model.JSONInfoData.class, new InfoDataAdapter().nullSafe())
+            .create();
+
+    private WmJson() {
+    }
+
+    // Writes a lookup request. Null fields are omitted, as Gson does by default.
+    static final class RequestAdapter extends TypeAdapter<Model.Request> {
+
+        @Override
+        public void write(JsonWriter out, Model.Request request) throws IOException {
+            out.beginObject();
+            if (request.getLookupHeaders() != null) {
+                out.name("lookup_headers");
+                writeStringMap(out, request.getLookupHeaders());
+            }
+            if (request.getRequestedCaps() != null) {
+                out.name("requested_caps");
+                writeStringArray(out, request.getRequestedCaps());
+            }
+            if (request.getRequestedVcaps() != null) {
+                out.name("requested_vcaps");
+                writeStringArray(out, request.getRequestedVcaps());
+            }
+            if (request.getWurflId() != null) {
+                out.name("wurfl_id").value(request.getWurflId());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Model.Request read(JsonReader in) throws IOException {
+            Map<String, String> lookupHeaders = null;
+            String[] requestedCaps = null;
+            String[] requestedVcaps = null;
+            String wurflId = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "lookup_headers":
+                        lookupHeaders = readStringMap(in);
+                        break;
+                    case "requested_caps":
+                        requestedCaps = readStringArray(in);
+                        break;
+                    case "requested_vcaps":
+                        requestedVcaps = readStringArray(in);
+                        break;
+                    case "wurfl_id":
+                        wurflId = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return Model.newRequest(lookupHeaders, requestedCaps, requestedVcaps, wurflId);
+        }
+    }
+
+    // Reads and writes the device data returned by lookup endpoints
+    static final class DeviceDataAdapter extends TypeAdapter<Model.JSONDeviceData> {
+
+        @Override
+        public void write(JsonWriter out, Model.JSONDeviceData device) throws IOException {
+            out.beginObject();
+            if (device.capabilities != null) {
+                out.name("capabilities");
+                writeStringMap(out, device.capabilities);
+            }
+            if (device.error != null) {
+                out.name("error").value(device.error);
+            }
+            out.name("mtime").value(device.mtime);
+            if (device.ltime != null) {
+                out.name("ltime").value(device.ltime);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Model.JSONDeviceData read(JsonReader in) throws IOException {
+            Map<String, String> capabilities = null;
+            String error = null;
+            int mtime = 0;
+            String ltime = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "capabilities":
+                        capabilities = readStringMap(in);
+                        break;
+                    case "error":
+                        error = readString(in);
+                        break;
+                    case "mtime":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                        } else {
+                            mtime = in.nextInt();
+                        }
+                        break;
+                    case "ltime":
+                        ltime = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            Model.JSONDeviceData device = Model.m.new JSONDeviceData(capabilities, error, mtime);
+            device.ltime = ltime;
+            return device;
+        }
+    }
+
+    // Reads and writes the data returned by the getinfo endpoint
+    static final class InfoDataAdapter extends TypeAdapter<Model.JSONInfoData> {
+
+        @Override
+        public void write(JsonWriter out, Model.JSONInfoData info) throws IOException {
+            out.beginObject();
+            writeNonNull(out, "wurfl_api_version", info.wurflApiVersion);
+            writeNonNull(out, "wm_version", info.wmVersion);
+            writeNonNull(out, "wurfl_info", info.wurflInfo);
+            if (info.importantHeaders != null) {
+                out.name("important_headers");
+                writeStringArray(out, info.importantHeaders);
+            }
+            if (info.staticCaps != null) {
+                out.name("static_caps");
+                writeStringArray(out, info.staticCaps);
+            }
+            if (info.virtualCaps != null) {
+                out.name("virtual_caps");
+                writeStringArray(out, info.virtualCaps);
+            }
+            writeNonNull(out, "ltime", info.ltime);
+            out.endObject();
+        }
+
+        @Override
+        public Model.JSONInfoData read(JsonReader in) throws IOException {
+            Model.JSONInfoData info = Model.m.new JSONInfoData();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "wurfl_api_version":
+                        info.wurflApiVersion = readString(in);
+                        break;
+                    case "wm_version":
+                        info.wmVersion = readString(in);
+                        break;
+                    case "wurfl_info":
+                        info.wurflInfo = readString(in);
+                        break;
+                    case "important_headers":
+                        info.importantHeaders = readStringArray(in);
+                        break;
+                    case "static_caps":
+                        info.staticCaps = readStringArray(in);
+                        break;
+                    case "virtual_caps":
+                        info.virtualCaps = readStringArray(in);
+                        break;
+                    case "ltime":
+                        info.ltime = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return info;
+        }
+    }
+
+    private static void writeNonNull(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    private static void writeStringMap(JsonWriter out, Map<String, String> map) throws IOException {
+        out.beginObject();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.name(entry.getKey()).value(entry.getValue());
+        }
+        out.endObject();
+    }
+
+    private static void writeStringArray(JsonWriter out, String[] values) throws IOException {
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    // Reads a string, or any other primitive value as a string (ie: numbers and booleans)
+    private static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private static Map<String, String> readStringMap(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            map.put(name, readString(in));
+        }
+        in.endObject();
+        return map;
+    }
+
+    private static String[] readStringArray(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readString(in));
+        }
+        in.endArray();
+        return values.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A WM server used by WmClient, with the health data used by {@link WmNodePool} to balance requests.
+ */
+final class WmNode {
+
+    // weight of the last sample in the latency moving average
+    private static final double ALPHA = 0.2;
+
+    private final String baseUrl;
+    final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    // written holding this node lock, read without locking
+    private volatile double averageLatencyNanos;
+    private volatile long ejectedUntilNanos;
+    private volatile boolean ejected;
+    private volatile long ejections;
+    // load time of the WURFL file used by the node, as of its last response. Null until it is known
+    private volatile String ltime;
+    // guarded by this node lock
+    private int consecutiveFailures;
+    private int latencySamples;
+
+    private WmNode(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * @throws WmException if the scheme is not http or https
+     */
+    static WmNode of(String scheme, String host, String port, String baseURI) throws WmException {
+        if (StringUtils.isEmpty(scheme)) {
+            throw new WmException("WM client scheme cannot be empty");
+        }
+        if (!scheme.equalsIgnoreCase("http") && !scheme.equalsIgnoreCase("https")) {
+            throw new WmException("Invalid connection scheme specified:  [" + scheme + " ]");
+        }
+        String url = scheme + "://" + host + ":" + port + "/";
+        if (StringUtils.isNotEmpty(baseURI)) {
+            url += baseURI + "/";
+        }
+        return new WmNode(url);
+    }
+
+    /**
+     * @param url WM server URL, ie: http://wm-1:8080 or https://wm.example.com/base/uri. Port defaults to the scheme one
+     * @throws WmException if the URL is not valid
+     */
+    static WmNode of(String url) throws WmException {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new WmException("Invalid WM server URL: " + url);
+        }
+        if (uri.getHost() == null) {
+            throw new WmException("Invalid WM server URL: " + url);
+        }
+        String port = uri.getPort() > 0 ? String.valueOf(uri.getPort()) : ("https".equalsIgnoreCase(uri.getScheme()) ? "443" : "80");
+        return of(uri.getScheme(), uri.getHost(), port, StringUtils.strip(uri.getPath(), "/"));
+    }
+
+    String url(String path) {
+        return baseUrl + "/" + path;
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    String getLtime() {
+        return ltime;
+    }
+
+    void setLtime(String ltime) {
+        this.ltime = ltime;
+    }
+
+    boolean isAvailable(long now) {
+        return !ejected || now - ejectedUntilNanos >= 0;
+    }
+
+    /**
+     * Records the result of a request. Latency is only recorded for successful requests, if not negative.
+     *
+     * @return the number of consecutive failures, including this request
+     */
+    synchronized int record(long latencyNanos, boolean success) {
+        requests.increment();
+        if (!success) {
+            failures.increment();
+            return ++consecutiveFailures;
+        }
+        consecutiveFailures = 0;
+        if (latencyNanos >= 0) {
+            averageLatencyNanos = latencySamples == 0 ? latencyNanos : averageLatencyNanos + ALPHA * (latencyNanos - averageLatencyNanos);
+            latencySamples++;
+        }
+        return 0;
+    }
+
+    synchronized int getLatencySamples() {
+        return latencySamples;
+    }
+
+    double getAverageLatencyNanos() {
+        return averageLatencyNanos;
+    }
+
+    // Must be called holding the pool lock
+    void eject(long untilNanos) {
+        synchronized (this) {
+            ejectedUntilNanos = untilNanos;
+            ejected = true;
+            ejections++;
+            // the node starts again with no history when it comes back
+            consecutiveFailures = 0;
+            latencySamples = 0;
+            averageLatencyNanos = 0;
+        }
+    }
+
+    WmNodeStats snapshot(long now) {
+        return new WmNodeStats(baseUrl, outstanding.get(), requests.sum(), failures.sum(), ejections,
+                averageLatencyNanos / 1e6, !isAvailable(now));
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balances WM server requests across one or more nodes.<br>
+ * Each request goes to the node with fewer outstanding requests among two nodes picked at random (power of two choices), which
+ * avoids herding on the least loaded node while steering requests away from slow ones. Nodes are passively ejected for a
+ * while when they fail too many consecutive requests, or when their average lookup latency exceeds the median latency of the
+ * other nodes by the configured factor (and by at least {@value #MIN_SLOW_LATENCY_DIFFERENCE_MILLIS} ms, so that sub-millisecond
+ * differences between fast nodes are ignored). At most half of the nodes are ejected at the same time.<br>
+ * Nodes may load a new WURFL file at different times: requests go to the nodes using the WURFL file of the client caches (see
+ * {@link #preferLtime(String)}) while any is available, and the client moves to the WURFL file used by most of the available
+ * nodes (see {@link #majorityLtime()}).
+ */
+final class WmNodePool {
+
+    // latency samples needed before a node can be ejected for being slow
+    static final int MIN_LATENCY_SAMPLES = 10;
+    static final long MIN_SLOW_LATENCY_DIFFERENCE_MILLIS = 5;
+    private static final long MIN_SLOW_LATENCY_DIFFERENCE_NANOS = TimeUnit.MILLISECONDS.toNanos(MIN_SLOW_LATENCY_DIFFERENCE_MILLIS);
+
+    private final WmNode[] nodes;
+    private final int maxConsecutiveFailures;
+    private final double slowLatencyFactor;
+    private final long ejectionNanos;
+    private final int maxEjected;
+    // WURFL load time of the nodes to which requests are sent first, null if any node can be used
+    private volatile String preferredLtime;
+
+    WmNodePool(List<WmNode> nodes, int maxConsecutiveFailures, double slowLatencyFactor, long ejectionNanos) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one WM server node is required");
+        }
+        this.nodes = nodes.toArray(new WmNode[0]);
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.slowLatencyFactor = slowLatencyFactor;
+        this.ejectionNanos = ejectionNanos;
+        this.maxEjected = this.nodes.length / 2;
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Sends requests to the nodes using the given WURFL file, or whose WURFL file is not known yet, while any of them is available.
+     */
+    void preferLtime(String ltime) {
+        this.preferredLtime = ltime;
+    }
+
+    /**
+     * @return the WURFL load time of more than half of the available nodes whose WURFL file is known, or null if there is none
+     */
+    String majorityLtime() {
+        long now = System.nanoTime();
+        Map<String, Integer> counts = new HashMap<>();
+        int known = 0;
+        for (WmNode node : nodes) {
+            String ltime = node.getLtime();
+            if (ltime != null && node.isAvailable(now)) {
+                counts.merge(ltime, 1, Integer::sum);
+                known++;
+            }
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            if (count.getValue() * 2 > known) {
+                return count.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects a node without sending it a request, ie: to send a request with {@link #acquire(WmNode)}.
+     */
+    WmNode pick() {
+        return select();
+    }
+
+    WmNode node(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Selects the node for a request. The request must be completed with {@link #release(WmNode, long, boolean)}.
+     */
+    WmNode acquire() {
+        return acquire(select());
+    }
+
+    /**
+     * Sends a request to the given node, ie: to try all the nodes in turn.
+     */
+    WmNode acquire(WmNode node) {
+        node.outstanding.incrementAndGet();
+        return node;
+    }
+
+    /**
+     * Selects a node other than the given one, ie: for a hedged request. If no other node is available, the given node is used.
+     */
+    WmNode acquireOther(WmNode node) {
+        WmNode other = null;
+        if (nodes.length > 1) {
+            // two choices among the other nodes
+            other = select();
+            if (other == node) {
+                other = select();
+            }
+            if (other == node) {
+                long now = System.nanoTime();
+                for (WmNode candidate : nodes) {
+                    if (candidate != node && candidate.isAvailable(now)) {
+                        other = candidate;
+                        break;
+                    }
+                }
+            }
+        }
+        return acquire(other != null && other != node ? other : node);
+    }
+
+    /**
+     * Completes a request cancelled by the client, which says nothing about the node health.
+     */
+    void abandon(WmNode node) {
+        node.outstanding.decrementAndGet();
+    }
+
+    /**
+     * @param latencyNanos latency of the request, or a negative value if it must not be used to detect slow nodes (ie: catalog
+     *                     requests, which are much slower than lookups)
+     * @param success      false if the request failed with an I/O or HTTP error
+     */
+    void release(WmNode node, long latencyNanos, boolean success) {
+        node.outstanding.decrementAndGet();
+        int consecutiveFailures = node.record(latencyNanos, success);
+        if (nodes.length == 1) {
+            return;
+        }
+        if (consecutiveFailures >= maxConsecutiveFailures) {
+            eject(node);
+        } else if (success && latencyNanos >= 0 && slowLatencyFactor > 0 && node.getLatencySamples() >= MIN_LATENCY_SAMPLES
+                && isSlow(node.getAverageLatencyNanos(), medianLatencyOfOthers(node))) {
+            eject(node);
+        }
+    }
+
+    private boolean isSlow(double latency, double medianLatency) {
+        return latency > slowLatencyFactor * medianLatency && latency - medianLatency > MIN_SLOW_LATENCY_DIFFERENCE_NANOS;
+    }
+
+    List<WmNodeStats> snapshot() {
+        long now = System.nanoTime();
+        List<WmNodeStats> stats = new ArrayList<>(nodes.length);
+        for (WmNode node : nodes) {
+            stats.add(node.snapshot(now));
+        }
+        return Collections.unmodifiableList(stats);
+    }
+
+    private WmNode select() {
+        if (nodes.length == 1) {
+            return nodes[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(nodes.length);
+        int second = random.nextInt(nodes.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        WmNode a = nodes[first];
+        WmNode b = nodes[second];
+        long now = System.nanoTime();
+        String ltime = preferredLtime;
+        WmNode selected = leastLoaded(a, b, now, ltime);
+        if (selected == null) {
+            // both picked nodes are ejected, or use another WURFL file: use the least loaded node using the preferred one, if any
+            selected = leastLoaded(now, ltime);
+        }
+        if (selected == null && ltime != null) {
+            // no available node uses the preferred WURFL file: the picked nodes are used, so that the nodes using the other
+            // files are all reached and the client can move to the file used by most of them
+            selected = leastLoaded(a, b, now, null);
+            if (selected == null) {
+                selected = leastLoaded(now, null);
+            }
+        }
+        return selected != null ? selected : a;
+    }
+
+    // Returns the usable one of the two picked nodes with fewer requests in progress, null if none is usable
+    private static WmNode leastLoaded(WmNode a, WmNode b, long now, String ltime) {
+        boolean aUsable = isUsable(a, now, ltime);
+        boolean bUsable = isUsable(b, now, ltime);
+        if (aUsable && bUsable) {
+            // slow nodes accumulate outstanding requests, so they are chosen less often
+            return b.outstanding.get() < a.outstanding.get() ? b : a;
+        }
+        if (aUsable || bUsable) {
+            return aUsable ? a : b;
+        }
+        return null;
+    }
+
+    private static boolean isUsable(WmNode node, long now, String ltime) {
+        if (!node.isAvailable(now)) {
+            return false;
+        }
+        String nodeLtime = node.getLtime();
+        return ltime == null || nodeLtime == null || ltime.equals(nodeLtime);
+    }
+
+    private WmNode leastLoaded(long now, String ltime) {
+        WmNode selected = null;
+        for (WmNode node : nodes) {
+            if (isUsable(node, now, ltime) && (selected == null || node.outstanding.get() < selected.outstanding.get())) {
+                selected = node;
+            }
+        }
+        return selected;
+    }
+
+    private double medianLatencyOfOthers(WmNode node) {
+        double[] latencies = new double[nodes.length];
+        int count = 0;
+        long now = System.nanoTime();
+        for (WmNode other : nodes) {
+            if (other != node && other.isAvailable(now) && other.getLatencySamples() > 0) {
+                latencies[count++] = other.getAverageLatencyNanos();
+            }
+        }
+        if (count == 0) {
+            return Double.MAX_VALUE;
+        }
+        Arrays.sort(latencies, 0, count);
+        return (count & 1) == 1 ? latencies[count / 2] : (latencies[count / 2 - 1] + latencies[count / 2]) / 2;
+    }
+
+    private synchronized void eject(WmNode node) {
+        long now = System.nanoTime();
+        if (!node.isAvailable(now)) {
+            return;
+        }
+        int ejected = 0;
+        for (WmNode other : nodes) {
+            if (!other.isAvailable(now)) {
+                ejected++;
+            }
+        }
+        if (ejected < maxEjected) {
+            node.eject(now + ejectionNanos);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+/**
+ * Immutable snapshot of the statistics of a WM server node, part of {@link WmClientStats}.
+ */
+public final class WmNodeStats {
+
+    private final String url;
+    private final int outstandingRequests;
+    private final long requestCount;
+    private final long failureCount;
+    private final long ejectionCount;
+    private final double averageLatencyMillis;
+    private final boolean ejected;
+
+    WmNodeStats(String url, int outstandingRequests, long requestCount, long failureCount, long ejectionCount,
+                double averageLatencyMillis, boolean ejected) {
+        this.url = url;
+        this.outstandingRequests = outstandingRequests;
+        this.requestCount = requestCount;
+        this.failureCount = failureCount;
+        this.ejectionCount = ejectionCount;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.ejected = ejected;
+    }
+
+    /**
+     * @return base URL of the node
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return number of requests sent to the node and still waiting for a response
+     */
+    public int getOutstandingRequests() {
+        return outstandingRequests;
+    }
+
+    /**
+     * @return number of completed requests sent to the node
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return number of requests failed with an I/O or HTTP error
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return number of times the node has been ejected for failing or being slow
+     */
+    public long getEjectionCount() {
+        return ejectionCount;
+    }
+
+    /**
+     * @return moving average of the lookup latency in milliseconds since the node was last ejected, 0 if not known
+     */
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    /**
+     * @return true if the node is currently ejected: requests are sent to it only if no other node is available
+     */
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    @Override
+    public String toString() {
+        return "WmNodeStats{url=" + url + ", outstandingRequests=" + outstandingRequests + ", requestCount=" + requestCount
+                + ", failureCount=" + failureCount + ", ejectionCount=" + ejectionCount
+                + ", averageLatencyMillis=" + String.format("%.3f", averageLatencyMillis) + ", ejected=" + ejected + "}";
+    }
+}
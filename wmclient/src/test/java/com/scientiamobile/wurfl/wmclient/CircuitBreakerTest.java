@@ -0,0 +1,137 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTest {
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void opensOnFailureRateTest() {
+        CircuitBreaker breaker = new CircuitBreaker(50, -1, TimeUnit.MINUTES.toNanos(1));
+        // not enough calls to open
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS - 1; i++) {
+            breaker.onResult(acquire(breaker), 1000, false);
+        }
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+
+        breaker.onResult(acquire(breaker), 1000, false);
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        Assert.assertEquals(breaker.getOpenCount(), 1);
+        Assert.assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+        Assert.assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+        Assert.assertEquals(breaker.getRejectedCount(), 2);
+    }
+
+    @Test
+    public void staysClosedBelowFailureRateTest() {
+        CircuitBreaker breaker = new CircuitBreaker(50, -1, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < 100; i++) {
+            // one failure every three calls
+            breaker.onResult(acquire(breaker), 1000, i % 3 != 0);
+        }
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        Assert.assertEquals(breaker.getOpenCount(), 0);
+    }
+
+    @Test
+    public void slowCallsCountAsFailuresTest() {
+        CircuitBreaker breaker = new CircuitBreaker(100, SLOW, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            breaker.onResult(acquire(breaker), SLOW + 1, true);
+        }
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+
+        // latency is ignored when the slow call duration is negative
+        CircuitBreaker ignoringLatency = new CircuitBreaker(100, -1, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            ignoringLatency.onResult(acquire(ignoringLatency), TimeUnit.SECONDS.toNanos(10), true);
+        }
+        Assert.assertEquals(ignoringLatency.getState(), CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void halfOpenTest() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(50, -1, TimeUnit.MILLISECONDS.toNanos(50)));
+        Thread.sleep(60);
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+
+        // only the trial calls are allowed
+        long[] trials = new long[CircuitBreaker.HALF_OPEN_CALLS];
+        for (int i = 0; i < trials.length; i++) {
+            trials[i] = acquire(breaker);
+        }
+        Assert.assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+        for (long trial : trials) {
+            breaker.onResult(trial, 1000, true);
+        }
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        acquire(breaker);
+    }
+
+    @Test
+    public void failedTrialReopensTest() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(50, -1, TimeUnit.MILLISECONDS.toNanos(50)));
+        Thread.sleep(60);
+        long first = acquire(breaker);
+        long second = acquire(breaker);
+        breaker.onResult(first, 1000, true);
+        breaker.onResult(second, 1000, false);
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        Assert.assertEquals(breaker.getOpenCount(), 2);
+        Assert.assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+    }
+
+    @Test
+    public void lateResultsAreIgnoredTest() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW, TimeUnit.MILLISECONDS.toNanos(50));
+        // sent while the breaker is closed, completing after it has opened and become half open
+        long late = acquire(breaker);
+        open(breaker);
+        Thread.sleep(60);
+        long trial = acquire(breaker);
+        breaker.onResult(late, SLOW * 10, false);
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+
+        // nor is a late success counted as a trial success
+        long[] trials = {trial, acquire(breaker), acquire(breaker)};
+        breaker.onResult(late, 1000, true);
+        breaker.onResult(trials[0], 1000, true);
+        breaker.onResult(trials[1], 1000, true);
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        breaker.onResult(trials[2], 1000, true);
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        Assert.assertEquals(breaker.getOpenCount(), 1);
+    }
+
+    private static long acquire(CircuitBreaker breaker) {
+        long permit = breaker.tryAcquire();
+        Assert.assertNotEquals(permit, CircuitBreaker.REJECTED);
+        return permit;
+    }
+
+    private static CircuitBreaker open(CircuitBreaker breaker) {
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            breaker.onResult(acquire(breaker), 1000, false);
+        }
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        return breaker;
+    }
+}
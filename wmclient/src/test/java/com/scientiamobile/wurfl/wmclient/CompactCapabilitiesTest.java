@@ -0,0 +1,206 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CompactCapabilitiesTest {
+
+    private static final String[] STATIC_CAPS = {"brand_name", "model_name", "is_smartphone", "is_tablet", "device_os"};
+    private static final String[] VIRTUAL_CAPS = {"form_factor", "complete_device_name", "advertised_browser_version"};
+
+    private static Map<String, String> capabilities() {
+        Map<String, String> caps = new LinkedHashMap<>();
+        caps.put("wurfl_id", "samsung_sm_s918b_ver1");
+        caps.put("brand_name", "Samsung");
+        caps.put("is_smartphone", "true");
+        caps.put("is_tablet", "false");
+        caps.put("form_factor", "Smartphone");
+        caps.put("complete_device_name", "Samsung Galaxy S23 Ultra (SM-S918B) running a long long long device name");
+        return caps;
+    }
+
+    @Test
+    public void mapViewTest() {
+        CapabilityLayout layout = CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS);
+        Map<String, String> caps = capabilities();
+        CompactCapabilities compact = CompactCapabilities.of(layout, caps);
+        Assert.assertNotNull(compact);
+
+        Assert.assertEquals(compact.size(), caps.size());
+        Assert.assertEquals(compact.get("brand_name"), "Samsung");
+        Assert.assertEquals(compact.get("is_smartphone"), "true");
+        Assert.assertEquals(compact.get("complete_device_name"), caps.get("complete_device_name"));
+        Assert.assertNull(compact.get("model_name"));
+        Assert.assertFalse(compact.containsKey("model_name"));
+        Assert.assertNull(compact.get("unknown_cap"));
+        Assert.assertFalse(compact.containsKey("unknown_cap"));
+        Assert.assertNull(compact.get(null));
+
+        // entries are in layout order
+        List<String> names = new ArrayList<>(compact.keySet());
+        Assert.assertEquals(names.toArray(), new String[]{"wurfl_id", "brand_name", "is_smartphone", "is_tablet", "form_factor", "complete_device_name"});
+
+        Assert.assertEquals(compact, caps);
+        Assert.assertEquals(caps, compact);
+        Assert.assertEquals(compact.hashCode(), caps.hashCode());
+        Assert.assertEquals(new HashMap<>(compact), caps);
+    }
+
+    @Test
+    public void equalityTest() {
+        CapabilityLayout layout = CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS);
+        CompactCapabilities c1 = CompactCapabilities.of(layout, capabilities());
+        CompactCapabilities c2 = CompactCapabilities.of(layout, capabilities());
+        Assert.assertEquals(c2, c1);
+        Assert.assertEquals(c2.hashCode(), c1.hashCode());
+
+        Map<String, String> caps = capabilities();
+        caps.put("advertised_browser_version", "120");
+        CompactCapabilities c3 = CompactCapabilities.of(layout, caps);
+        Assert.assertNotEquals(c3, c1);
+
+        // same content, different layouts
+        CompactCapabilities c4 = CompactCapabilities.of(CapabilityLayout.of(VIRTUAL_CAPS, STATIC_CAPS), capabilities());
+        Assert.assertEquals(c4, c1);
+        Assert.assertEquals(c4.hashCode(), c1.hashCode());
+    }
+
+    @Test
+    public void valuesEncodingTest() {
+        CapabilityLayout layout = CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS);
+        Map<String, String> caps = capabilities();
+        caps.put("device_os", null);
+        caps.put("model_name", "");
+        CompactCapabilities compact = CompactCapabilities.of(layout, caps);
+        Assert.assertTrue(compact.containsKey("device_os"));
+        Assert.assertNull(compact.get("device_os"));
+        Assert.assertEquals(compact.get("model_name"), "");
+        Assert.assertEquals(compact, caps);
+
+        Assert.assertEquals(layout.encode("true"), layout.encode("true"));
+        Assert.assertEquals(layout.encode(caps.get("complete_device_name")), CapabilityLayout.RAW);
+        Assert.assertEquals(layout.decode(layout.encode("Smartphone")), "Smartphone");
+
+        // when the dictionary is full values are stored as they are
+        for (int i = 0; layout.encode("value" + i) != CapabilityLayout.RAW; i++) {
+            Assert.assertTrue(layout.dictionarySize() < CapabilityLayout.MAX_DICTIONARY_SIZE);
+        }
+        Assert.assertEquals(layout.encode("a new value"), CapabilityLayout.RAW);
+        caps.put("brand_name", "a new value");
+        compact = CompactCapabilities.of(layout, caps);
+        Assert.assertEquals(compact.get("brand_name"), "a new value");
+        Assert.assertEquals(compact, caps);
+    }
+
+    enum FormFactor {
+        DESKTOP, APP, TABLET, SMARTPHONE, FEATURE_PHONE, SMART_TV, ROBOT, OTHER_NON_MOBILE, OTHER_MOBILE
+    }
+
+    @Test
+    public void typedAccessorsTest() {
+        CapabilityLayout layout = CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS, new String[]{"resolution_width", "pixel_density"});
+        Map<String, String> caps = capabilities();
+        caps.put("resolution_width", "1440");
+        caps.put("pixel_density", "-5");
+        caps.put("form_factor", "Feature Phone");
+        Model.JSONDeviceData plain = Model.m.new JSONDeviceData(caps, "", 0);
+        Model.JSONDeviceData compact = Model.m.new JSONDeviceData(CompactCapabilities.of(layout, caps), "", 0);
+
+        for (Model.JSONDeviceData device : new Model.JSONDeviceData[]{plain, compact}) {
+            Assert.assertTrue(device.getBoolean("is_smartphone"));
+            Assert.assertFalse(device.getBoolean("is_tablet"));
+            Assert.assertFalse(device.getBoolean("brand_name"));
+            Assert.assertFalse(device.getBoolean("model_name"));
+            Assert.assertEquals(device.getInt("resolution_width"), 1440);
+            Assert.assertEquals(device.getInt("pixel_density"), -5);
+            Assert.assertEquals(device.getEnum("form_factor", FormFactor.class), FormFactor.FEATURE_PHONE);
+            Assert.assertEquals(device.getEnum("form_factor", FormFactor.class), FormFactor.FEATURE_PHONE);
+            Assert.assertNull(device.getEnum("brand_name", FormFactor.class));
+            Assert.assertNull(device.getEnum("model_name", FormFactor.class));
+            Assert.expectThrows(NumberFormatException.class, () -> device.getInt("brand_name"));
+            Assert.expectThrows(NumberFormatException.class, () -> device.getInt("model_name"));
+        }
+    }
+
+    @Test
+    public void rawTypedAccessorsTest() {
+        CapabilityLayout layout = CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS, new String[]{"resolution_width"});
+        for (int i = 0; layout.encode("value" + i) != CapabilityLayout.RAW; i++) {
+            Assert.assertTrue(layout.dictionarySize() < CapabilityLayout.MAX_DICTIONARY_SIZE);
+        }
+        // once the dictionary is full, values are stored raw, and parsed when compacted
+        Map<String, String> caps = capabilities();
+        caps.put("is_tablet", "TRUE");
+        caps.put("resolution_width", "2160");
+        caps.put("form_factor", "Smart-TV");
+        CompactCapabilities compact = CompactCapabilities.of(layout, caps);
+        Assert.assertEquals(layout.encode("2160"), CapabilityLayout.RAW);
+        Model.JSONDeviceData device = Model.m.new JSONDeviceData(compact, "", 0);
+        Assert.assertTrue(device.getBoolean("is_tablet"));
+        Assert.assertEquals(device.getInt("resolution_width"), 2160);
+        Assert.assertEquals(device.getEnum("form_factor", FormFactor.class), FormFactor.SMART_TV);
+        Assert.expectThrows(NumberFormatException.class, () -> device.getInt("complete_device_name"));
+        Assert.assertFalse(device.getBoolean("complete_device_name"));
+        Assert.assertEquals(compact, CompactCapabilities.of(layout, caps));
+        Assert.assertEquals(compact, caps);
+    }
+
+    @Test
+    public void toEnumTest() {
+        Assert.assertEquals(CapabilityLayout.toEnum("Smart-TV", FormFactor.class), FormFactor.SMART_TV);
+        Assert.assertEquals(CapabilityLayout.toEnum("Other non-Mobile", FormFactor.class), FormFactor.OTHER_NON_MOBILE);
+        Assert.assertEquals(CapabilityLayout.toEnum("TABLET", FormFactor.class), FormFactor.TABLET);
+        Assert.assertEquals(CapabilityLayout.toEnum("smartphone", FormFactor.class), FormFactor.SMARTPHONE);
+        Assert.assertNull(CapabilityLayout.toEnum("Smart TV box", FormFactor.class));
+        Assert.assertNull(CapabilityLayout.toEnum(null, FormFactor.class));
+    }
+
+    @Test
+    public void parsedValuesTest() {
+        Assert.assertTrue(new CapabilityLayout.Value("TRUE").booleanValue);
+        Assert.assertFalse(new CapabilityLayout.Value("yes").booleanValue);
+        Assert.assertEquals(new CapabilityLayout.Value("+12").intValue, 12);
+        Assert.assertEquals(new CapabilityLayout.Value("2147483647").intValue, Integer.MAX_VALUE);
+        Assert.assertFalse(new CapabilityLayout.Value("2147483648").isInt);
+        Assert.assertFalse(new CapabilityLayout.Value("12.5").isInt);
+        Assert.assertFalse(new CapabilityLayout.Value("-").isInt);
+        Assert.assertFalse(new CapabilityLayout.Value("").isInt);
+    }
+
+    @Test
+    public void unknownCapabilityTest() {
+        Map<String, String> caps = capabilities();
+        caps.put("unknown_cap", "true");
+        Assert.assertNull(CompactCapabilities.of(CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS), caps));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void immutableTest() {
+        CompactCapabilities.of(CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS), capabilities()).put("brand_name", "Apple");
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void immutableEntriesTest() {
+        CompactCapabilities.of(CapabilityLayout.of(STATIC_CAPS, VIRTUAL_CAPS), capabilities()).entrySet().iterator().next().setValue("x");
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class ConcurrentLRUCacheTest {
+
+    @Test
+    public void removeOnMaxSizeTest() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(5);
+        for (int i = 0; i < 6; i++) {
+            cache.putEntry(String.valueOf(i), i);
+        }
+        Assert.assertEquals(cache.size(), 5);
+        // "0" entry has been removed when inserting "5"
+        Assert.assertNull(cache.getEntry("0"));
+        Assert.assertEquals(cache.evictionCount(), 1);
+    }
+
+    @Test
+    public void readPromotesEntryTest() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(5);
+        for (int i = 0; i < 5; i++) {
+            cache.putEntry(String.valueOf(i), i);
+        }
+        // reading "0" makes "1" the least recently used entry: read buffer is drained before the next insertion
+        Assert.assertEquals(cache.getEntry("0"), Integer.valueOf(0));
+        cache.putEntry("5", 5);
+        Assert.assertEquals(cache.size(), 5);
+        Assert.assertEquals(cache.getEntry("0"), Integer.valueOf(0));
+        Assert.assertNull(cache.getEntry("1"));
+    }
+
+    @Test
+    public void replaceExistingItemTest() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(5);
+        for (int i = 0; i < 5; i++) {
+            cache.putEntry(String.valueOf(i), i);
+        }
+        cache.putEntry("2", 159);
+        Assert.assertEquals(cache.size(), 5);
+        Assert.assertEquals(cache.getEntry("2"), Integer.valueOf(159));
+    }
+
+    @Test
+    public void maxWeightTest() {
+        // entries weigh their value
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(100, 100, (k, v) -> v, -1);
+        for (int i = 0; i < 5; i++) {
+            cache.putEntry(String.valueOf(i), 30);
+        }
+        // 3 entries fit in the max weight, the least recently used ones are evicted
+        Assert.assertEquals(cache.size(), 3);
+        Assert.assertEquals(cache.totalWeight(), 90);
+        Assert.assertNull(cache.getEntry("0"));
+        Assert.assertNull(cache.getEntry("1"));
+        Assert.assertEquals(cache.evictionCount(), 2);
+
+        // a heavier value for an existing key evicts other entries
+        cache.getEntry("4");
+        cache.putEntry("4", 60);
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.totalWeight(), 90);
+        Assert.assertNull(cache.getEntry("2"));
+
+        // entries heavier than the max weight are not cached
+        cache.putEntry("heavy", 101);
+        Assert.assertNull(cache.getEntry("heavy"));
+        Assert.assertEquals(cache.size(), 2);
+        cache.putEntry("4", 101);
+        Assert.assertNull(cache.getEntry("4"));
+        Assert.assertEquals(cache.totalWeight(), 30);
+
+        cache.clear();
+        Assert.assertEquals(cache.totalWeight(), 0);
+    }
+
+    @Test
+    public void expireAfterWriteTest() throws InterruptedException {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(100, -1, null, TimeUnit.MILLISECONDS.toNanos(100));
+        cache.putEntry("old", 1);
+        Assert.assertEquals(cache.getEntry("old"), Integer.valueOf(1));
+        Thread.sleep(150);
+        cache.putEntry("new", 2);
+        Assert.assertEquals(cache.getEntry("new"), Integer.valueOf(2));
+        // expired entry at the end of the LRU list is removed by the write
+        Assert.assertNull(cache.getEntry("old"));
+        Assert.assertEquals(cache.size(), 1);
+
+        // writing an expired key again refreshes it
+        Thread.sleep(150);
+        Assert.assertNull(cache.getEntry("new"));
+        cache.putEntry("new", 3);
+        Assert.assertEquals(cache.getEntry("new"), Integer.valueOf(3));
+    }
+
+    @Test
+    public void clearTest() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(5);
+        for (int i = 0; i < 5; i++) {
+            cache.putEntry(String.valueOf(i), i);
+            cache.getEntry(String.valueOf(i));
+        }
+        cache.clear();
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertNull(cache.getEntry("1"));
+        // cleared entries are not evicted
+        Assert.assertEquals(cache.evictionCount(), 0);
+
+        // cache is fully usable after a clear
+        for (int i = 0; i < 6; i++) {
+            cache.putEntry(String.valueOf(i), i);
+        }
+        Assert.assertEquals(cache.size(), 5);
+        Assert.assertNull(cache.getEntry("0"));
+    }
+
+    @Test
+    public void multithreadGetPutAndClearTest() throws Exception {
+        final ConcurrentLRUCache<String, Object> cache = new ConcurrentLRUCache<>(50);
+        final String[] userAgents = TestData.createTestUserAgentList();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            final int tindex = i;
+            tasks.add(() -> {
+                for (int round = 0; round < 100; round++) {
+                    for (String ua : userAgents) {
+                        if (cache.getEntry(ua) == null) {
+                            cache.putEntry(ua, ua);
+                        }
+                        Assert.assertTrue(cache.size() <= 50);
+                    }
+                    if (tindex == 0 && round % 10 == 0) {
+                        cache.clear();
+                    }
+                }
+                return true;
+            });
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(32);
+        try {
+            for (Future<Boolean> f : executorService.invokeAll(tasks, 5, TimeUnit.MINUTES)) {
+                Assert.assertTrue(f.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        Assert.assertTrue(cache.size() <= 50);
+        // every entry still in cache maps to the right value
+        for (String ua : userAgents) {
+            Object value = cache.getEntry(ua);
+            if (value != null) {
+                Assert.assertEquals(value, ua);
+            }
+        }
+    }
+}
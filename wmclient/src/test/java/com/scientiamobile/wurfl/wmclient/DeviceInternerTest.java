@@ -0,0 +1,104 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DeviceInternerTest {
+
+    private static Model.JSONDeviceData device(String wurflId, String browserVersion, String ltime) {
+        Map<String, String> caps = new LinkedHashMap<>();
+        caps.put("brand_name", "Samsung");
+        caps.put("is_smartphone", "true");
+        caps.put("advertised_browser_version", browserVersion);
+        caps.put("wurfl_id", wurflId);
+        Model.JSONDeviceData device = Model.m.new JSONDeviceData(caps, "", 1700000000);
+        device.ltime = ltime;
+        return device;
+    }
+
+    @Test
+    public void sameContentSharedTest() {
+        DeviceInterner interner = new DeviceInterner();
+        Model.JSONDeviceData d1 = interner.intern(device("samsung_sm_s918b_ver1", "120", "2024-01-01"));
+        Model.JSONDeviceData d2 = interner.intern(device("samsung_sm_s918b_ver1", "120", "2024-01-01"));
+        Assert.assertSame(d2, d1);
+        Assert.assertEquals(interner.size(), 1);
+    }
+
+    @Test
+    public void differentContentNotSharedTest() {
+        DeviceInterner interner = new DeviceInterner();
+        Model.JSONDeviceData d1 = interner.intern(device("samsung_sm_s918b_ver1", "120", "2024-01-01"));
+        // same device, virtual capability values depending on the user agent
+        Model.JSONDeviceData d2 = interner.intern(device("samsung_sm_s918b_ver1", "121", "2024-01-01"));
+        // same device and capabilities, new WURFL file
+        Model.JSONDeviceData d3 = interner.intern(device("samsung_sm_s918b_ver1", "120", "2024-02-01"));
+        Assert.assertNotSame(d2, d1);
+        Assert.assertNotSame(d3, d1);
+        Assert.assertEquals(d2.capabilities.get("advertised_browser_version"), "121");
+        Assert.assertEquals(interner.size(), 3);
+
+        interner.clear();
+        Assert.assertEquals(interner.size(), 0);
+        Assert.assertNotSame(interner.intern(device("samsung_sm_s918b_ver1", "120", "2024-01-01")), d1);
+    }
+
+    @Test
+    public void sameDeviceVariantsTest() {
+        DeviceInterner interner = new DeviceInterner();
+        Model.JSONDeviceData[] variants = new Model.JSONDeviceData[50];
+        for (int i = 0; i < variants.length; i++) {
+            variants[i] = interner.intern(device("samsung_sm_s918b_ver1", String.valueOf(100 + i), "2024-01-01"));
+        }
+        for (int i = 0; i < variants.length; i++) {
+            Assert.assertSame(interner.intern(device("samsung_sm_s918b_ver1", String.valueOf(100 + i), "2024-01-01")), variants[i]);
+        }
+        Assert.assertEquals(interner.size(), variants.length);
+
+        // same device with other requested capabilities
+        Model.JSONDeviceData requested = device("samsung_sm_s918b_ver1", "100", "2024-01-01");
+        requested.capabilities.remove("brand_name");
+        Assert.assertNotSame(interner.intern(requested), variants[0]);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void internedCapabilitiesAreUnmodifiableTest() {
+        Model.JSONDeviceData device = new DeviceInterner().intern(device("samsung_sm_s918b_ver1", "120", "2024-01-01"));
+        device.capabilities.put("brand_name", "Apple");
+    }
+
+    @Test
+    public void releasedDevicesAreExpungedTest() throws InterruptedException {
+        DeviceInterner interner = new DeviceInterner();
+        for (int i = 0; i < 100; i++) {
+            interner.intern(device("device_" + i, "120", "2024-01-01"));
+        }
+        Assert.assertTrue(interner.size() > 0);
+
+        // devices are only weakly referenced by the interner
+        long deadline = System.currentTimeMillis() + 10000;
+        while (interner.size() > 1 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+            interner.intern(device("device_alive", "120", "2024-01-01"));
+        }
+        Assert.assertTrue(interner.size() <= 1, "Released devices still interned: " + interner.size());
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class HeadersKeyTest {
+
+    private static final String[] IMPORTANT_HEADERS = {"User-Agent", "Sec-CH-UA", "Device-Stock-UA"};
+
+    private static Map<String, String> headers(String... nameValues) {
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            headers.put(nameValues[i], nameValues[i + 1]);
+        }
+        return headers;
+    }
+
+    @Test
+    public void sameHeadersSameKeyTest() {
+        HeadersKey k1 = HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "Mozilla/5.0", "Sec-CH-UA", "Chrome", "Accept", "*/*"), false);
+        HeadersKey k2 = HeadersKey.of(IMPORTANT_HEADERS, headers("Sec-CH-UA", "Chrome", "User-Agent", "Mozilla/5.0"), false);
+        Assert.assertEquals(k1, k2);
+        Assert.assertEquals(k1.hashCode(), k2.hashCode());
+        Assert.assertEquals(k1.toString().length(), 32);
+    }
+
+    @Test
+    public void concatenationDoesNotCollideTest() {
+        // with plain concatenation, both would be "abc"
+        HeadersKey k1 = HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "ab", "Sec-CH-UA", "c"), false);
+        HeadersKey k2 = HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "a", "Sec-CH-UA", "bc"), false);
+        HeadersKey k3 = HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "abc"), false);
+        // same value in a different header
+        HeadersKey k4 = HeadersKey.of(IMPORTANT_HEADERS, headers("Sec-CH-UA", "abc"), false);
+        Set<HeadersKey> keys = new HashSet<>();
+        keys.add(k1);
+        keys.add(k2);
+        keys.add(k3);
+        keys.add(k4);
+        Assert.assertEquals(keys.size(), 4);
+    }
+
+    @Test
+    public void emptyHeadersTest() {
+        Assert.assertNull(HeadersKey.of(IMPORTANT_HEADERS, headers(), false));
+        Assert.assertNull(HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "", "Accept", "*/*"), false));
+        // empty values are ignored
+        Assert.assertEquals(HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "a", "Sec-CH-UA", ""), false),
+                HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "a"), false));
+    }
+
+    @Test
+    public void rawKeyTest() {
+        HeadersKey k1 = HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "ab", "Sec-CH-UA", "c"), true);
+        Assert.assertEquals(k1.getRaw(), "0:2:ab1:1:c");
+        Assert.assertNull(HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", "ab"), false).getRaw());
+
+        // keys with same fingerprint but different header values are different
+        HeadersKey forged = new HeadersKey(k1.getHi(), k1.getLo(), "0:3:abc");
+        Assert.assertNotEquals(k1, forged);
+        Assert.assertEquals(k1, new HeadersKey(k1.getHi(), k1.getLo(), "0:2:ab1:1:c"));
+    }
+
+    @Test
+    public void distributionTest() {
+        Set<HeadersKey> keys = new HashSet<>();
+        Set<Integer> hashCodes = new HashSet<>();
+        for (String ua : TestData.createTestUserAgentList()) {
+            HeadersKey key = HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", ua), false);
+            keys.add(key);
+            hashCodes.add(key.hashCode());
+        }
+        Set<String> distinctUserAgents = new HashSet<>(Arrays.asList(TestData.createTestUserAgentList()));
+        Assert.assertEquals(keys.size(), distinctUserAgents.size());
+        Assert.assertEquals(hashCodes.size(), distinctUserAgents.size());
+
+        // long values, spanning many hash blocks, that only differ in their last char
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longValue.append((char) ('a' + i % 26));
+        }
+        Assert.assertNotEquals(HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", longValue + "x"), false),
+                HeadersKey.of(IMPORTANT_HEADERS, headers("User-Agent", longValue + "y"), false));
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketBoundsTest() {
+        long previousUpper = -1;
+        for (int i = 0; i <= LatencyHistogram.bucketIndex(LatencyHistogram.MAX_TRACKABLE_MICROS); i++) {
+            long lower = LatencyHistogram.bucketLowerBound(i);
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            // buckets are contiguous
+            Assert.assertEquals(lower, previousUpper + 1);
+            Assert.assertEquals(LatencyHistogram.bucketIndex(lower), i);
+            Assert.assertEquals(LatencyHistogram.bucketIndex(upper), i);
+            // relative error is bounded
+            Assert.assertTrue(upper - lower <= Math.max(0, lower / LatencyHistogram.HALF_SUB_BUCKETS));
+            previousUpper = upper;
+        }
+        Assert.assertEquals(previousUpper, LatencyHistogram.MAX_TRACKABLE_MICROS);
+    }
+
+    @Test
+    public void percentilesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.snapshot().getCount(), 0);
+        Assert.assertEquals(histogram.snapshot().getValueAtPercentileMicros(99), 0);
+
+        // 1..1000 milliseconds
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 1000);
+        Assert.assertEquals(snapshot.getMaxMicros(), 1_000_000);
+        Assert.assertEquals(snapshot.getMeanMicros(), 500_500, 1);
+        assertClose(snapshot.getValueAtPercentileMicros(50), 500_000);
+        assertClose(snapshot.getValueAtPercentileMicros(99), 990_000);
+        Assert.assertEquals(snapshot.getValueAtPercentileMicros(100), 1_000_000);
+        assertClose(snapshot.getValueAtPercentileMicros(0), 1_000);
+    }
+
+    private static void assertClose(long actual, long expected) {
+        Assert.assertTrue(actual >= expected && actual <= expected + expected / LatencyHistogram.HALF_SUB_BUCKETS,
+                actual + " is not close to " + expected);
+    }
+
+    @Test
+    public void outOfRangeValuesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencySnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 2);
+        Assert.assertEquals(snapshot.getValueAtPercentileMicros(50), 0);
+        Assert.assertEquals(snapshot.getMaxMicros(), LatencyHistogram.MAX_TRACKABLE_MICROS);
+    }
+
+    @Test
+    public void concurrentRecordTest() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i * 1000L);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertEquals(histogram.snapshot().getCount(), 80000);
+        Assert.assertEquals(histogram.snapshot().getMaxMicros(), 9999);
+    }
+}
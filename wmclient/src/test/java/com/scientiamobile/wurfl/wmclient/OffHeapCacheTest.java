@@ -0,0 +1,254 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class OffHeapCacheTest {
+
+    private static HeadersKey key(int i) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", "Mozilla/5.0 test agent " + i);
+        return HeadersKey.of(new String[]{"User-Agent"}, headers, false);
+    }
+
+    private static Model.JSONDeviceData device(String wurflId) {
+        Map<String, String> caps = new LinkedHashMap<>();
+        caps.put("wurfl_id", wurflId);
+        caps.put("brand_name", "Samsung");
+        caps.put("is_smartphone", "true");
+        caps.put("marketing_name", null);
+        Model.JSONDeviceData device = Model.m.new JSONDeviceData(caps, "", 1700000000);
+        device.ltime = "2024-01-01 00:00:00";
+        return device;
+    }
+
+    @Test
+    public void putAndGetTest() {
+        OffHeapCache cache = new OffHeapCache(100);
+        for (int i = 0; i < 100; i++) {
+            cache.putEntry(key(i), device("device_" + i % 10));
+        }
+        Assert.assertEquals(cache.size(), 100);
+        // each distinct device is stored once
+        Assert.assertEquals(cache.recordCount(), 10);
+        for (int i = 0; i < 100; i++) {
+            Model.JSONDeviceData device = cache.getEntry(key(i));
+            Assert.assertNotNull(device);
+            Assert.assertEquals(device.capabilities, device("device_" + i % 10).capabilities);
+            Assert.assertEquals(device.ltime, "2024-01-01 00:00:00");
+            Assert.assertEquals(device.mtime, 1700000000);
+            Assert.assertEquals(device.error, "");
+        }
+        Assert.assertNull(cache.getEntry(key(100)));
+
+        cache.putEntry(key(42), device("device_replaced"));
+        Assert.assertEquals(cache.size(), 100);
+        Assert.assertEquals(cache.getEntry(key(42)).capabilities.get("wurfl_id"), "device_replaced");
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void devicesAreUnmodifiableTest() {
+        OffHeapCache cache = new OffHeapCache(10);
+        cache.putEntry(key(1), device("device_1"));
+        cache.getEntry(key(1)).capabilities.put("brand_name", "Apple");
+    }
+
+    @Test
+    public void clockEvictionTest() {
+        OffHeapCache cache = new OffHeapCache(10);
+        for (int i = 0; i < 10; i++) {
+            cache.putEntry(key(i), device("device_" + i));
+        }
+        // referenced entries get a second chance
+        for (int i = 0; i < 5; i++) {
+            cache.getEntry(key(i));
+        }
+        for (int i = 10; i < 15; i++) {
+            cache.putEntry(key(i), device("device_" + i));
+        }
+        Assert.assertEquals(cache.size(), 10);
+        Assert.assertEquals(cache.evictionCount(), 5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(cache.getEntry(key(i)), "Entry " + i + " was evicted");
+        }
+    }
+
+    @Test
+    public void randomOperationsTest() {
+        // compares the cache content with a map after random puts and evictions, which move index entries back
+        OffHeapCache cache = new OffHeapCache(500);
+        Map<Integer, String> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int n = 0; n < 20000; n++) {
+            int i = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                Model.JSONDeviceData device = cache.getEntry(key(i));
+                if (device != null) {
+                    Assert.assertEquals(device.capabilities.get("wurfl_id"), expected.get(i));
+                }
+            } else {
+                String wurflId = "device_" + random.nextInt(50);
+                cache.putEntry(key(i), device(wurflId));
+                expected.put(i, wurflId);
+            }
+        }
+        Assert.assertEquals(cache.size(), 500);
+        int found = 0;
+        for (int i = 0; i < 2000; i++) {
+            Model.JSONDeviceData device = cache.getEntry(key(i));
+            if (device != null) {
+                Assert.assertEquals(device.capabilities.get("wurfl_id"), expected.get(i));
+                found++;
+            }
+        }
+        Assert.assertEquals(found, 500);
+    }
+
+    @Test
+    public void clearTest() {
+        OffHeapCache cache = new OffHeapCache(100);
+        for (int i = 0; i < 100; i++) {
+            cache.putEntry(key(i), device("device_" + i));
+        }
+        cache.clear();
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertEquals(cache.recordCount(), 0);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(cache.getEntry(key(i)));
+        }
+        cache.putEntry(key(1), device("device_new"));
+        Assert.assertEquals(cache.getEntry(key(1)).capabilities.get("wurfl_id"), "device_new");
+        Assert.assertEquals(cache.evictionCount(), 0);
+    }
+
+    @Test
+    public void fullRecordSegmentsClearCacheTest() {
+        OffHeapCache cache = new OffHeapCache(100000, OffHeapCache.SEGMENT_SIZE, null);
+        int records = 0;
+        for (int i = 0; cache.size() == i; i++) {
+            cache.putEntry(key(i), device("device_" + i));
+            records = i;
+        }
+        // the entry that did not fit is stored in an empty cache
+        Assert.assertEquals(cache.size(), 1);
+        Assert.assertNotNull(cache.getEntry(key(records)));
+        // index of 2^18 slots and a single record segment
+        Assert.assertEquals(cache.offHeapBytes(), (1 << 18) * (OffHeapCache.SLOT_BYTES + 1L) + OffHeapCache.SEGMENT_SIZE);
+    }
+
+    @Test
+    public void encodingTest() {
+        Model.JSONDeviceData device = device("samsung_sm_s918b_ver1");
+        device.capabilities.put("complete_device_name", "Samsung Galaxy S23 Ultra – 三星");
+        Model.JSONDeviceData decoded = DeviceCodec.decode(DeviceCodec.encode(device));
+        Assert.assertEquals(decoded.capabilities, device.capabilities);
+        Assert.assertEquals(new ArrayList<>(decoded.capabilities.keySet()), new ArrayList<>(device.capabilities.keySet()));
+
+        Model.JSONDeviceData empty = Model.m.new JSONDeviceData(null, null, 0);
+        decoded = DeviceCodec.decode(DeviceCodec.encode(empty));
+        Assert.assertNull(decoded.capabilities);
+        Assert.assertNull(decoded.error);
+        Assert.assertNull(decoded.ltime);
+    }
+
+    @Test
+    public void compactEncodingTest() {
+        CapabilityLayout layout = CapabilityLayout.of(new String[]{"brand_name", "is_smartphone", "marketing_name", "complete_device_name"});
+        Model.JSONDeviceData device = device("samsung_sm_s918b_ver1");
+        device.capabilities.put("complete_device_name", "Samsung Galaxy S23 Ultra with a name longer than dictionary values");
+        device.capabilities = CompactCapabilities.of(layout, device.capabilities);
+
+        byte[] compact = DeviceCodec.encode(device, layout);
+        // names and dictionary values are not written
+        Assert.assertTrue(compact.length < DeviceCodec.encode(device).length);
+        Model.JSONDeviceData decoded = DeviceCodec.decode(compact, layout);
+        Assert.assertTrue(decoded.capabilities instanceof CompactCapabilities);
+        Assert.assertEquals(decoded.capabilities, device.capabilities);
+        Assert.assertEquals(decoded.ltime, device.ltime);
+        // other layouts write names and values
+        Assert.assertEquals(DeviceCodec.decode(DeviceCodec.encode(device, CapabilityLayout.of()), null).capabilities, device.capabilities);
+    }
+
+    @Test
+    public void compactRecordsTest() {
+        CapabilityLayout layout = CapabilityLayout.of(new String[]{"brand_name", "is_smartphone", "marketing_name"});
+        OffHeapCache cache = new OffHeapCache(100);
+        Model.JSONDeviceData device = device("device_compact");
+        device.capabilities = CompactCapabilities.of(layout, device.capabilities);
+        cache.putEntry(key(1), device);
+        Model.JSONDeviceData cached = cache.getEntry(key(1));
+        Assert.assertEquals(cached.capabilities, device.capabilities);
+        Assert.assertSame(((CompactCapabilities) cached.capabilities).layout(), layout);
+
+        // a device of another layout is stored with its names
+        CapabilityLayout other = CapabilityLayout.of(new String[]{"brand_name", "is_smartphone", "marketing_name"});
+        Model.JSONDeviceData otherDevice = device("device_other");
+        otherDevice.capabilities = CompactCapabilities.of(other, otherDevice.capabilities);
+        cache.putEntry(key(2), otherDevice);
+        Assert.assertEquals(cache.getEntry(key(2)).capabilities, otherDevice.capabilities);
+        Assert.assertFalse(cache.getEntry(key(2)).capabilities instanceof CompactCapabilities);
+
+        // clear releases the layout
+        cache.clear();
+        cache.putEntry(key(2), otherDevice);
+        Assert.assertSame(((CompactCapabilities) cache.getEntry(key(2)).capabilities).layout(), other);
+    }
+
+    @Test
+    public void multithreadGetPutAndClearTest() throws Exception {
+        final OffHeapCache cache = new OffHeapCache(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(thread);
+                    for (int n = 0; n < 20000; n++) {
+                        int i = random.nextInt(3000);
+                        Model.JSONDeviceData device = cache.getEntry(key(i));
+                        if (device == null) {
+                            cache.putEntry(key(i), device("device_" + i % 100));
+                        } else {
+                            Assert.assertEquals(device.capabilities.get("wurfl_id"), "device_" + i % 100);
+                        }
+                        if (thread == 0 && n % 5000 == 0) {
+                            cache.clear();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(cache.size() <= 1000);
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class TinyLFUCacheTest {
+
+    @Test
+    public void putAndGetTest() {
+        TinyLFUCache<String, Integer> cache = new TinyLFUCache<>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.putEntry(String.valueOf(i), i);
+        }
+        Assert.assertEquals(cache.size(), 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(cache.getEntry(String.valueOf(i)), Integer.valueOf(i));
+        }
+
+        // Now put an element with the same key and a different value
+        cache.putEntry("42", 159);
+        Assert.assertEquals(cache.size(), 100);
+        Assert.assertEquals(cache.getEntry("42"), Integer.valueOf(159));
+    }
+
+    @Test
+    public void maxSizeTest() {
+        TinyLFUCache<Integer, Integer> cache = new TinyLFUCache<>(50);
+        for (int i = 0; i < 1000; i++) {
+            cache.putEntry(i, i);
+            Assert.assertTrue(cache.size() <= 50);
+        }
+        Assert.assertEquals(cache.size(), 50);
+    }
+
+    @Test
+    public void scanResistanceTest() {
+        TinyLFUCache<String, Integer> cache = new TinyLFUCache<>(100);
+        // hot entries are requested several times
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 80; i++) {
+                String key = "hot-" + i;
+                if (cache.getEntry(key) == null) {
+                    cache.putEntry(key, i);
+                }
+            }
+        }
+
+        // a burst of keys that are seen only once
+        for (int i = 0; i < 10000; i++) {
+            cache.putEntry("scan-" + i, i);
+        }
+
+        int hotHits = 0;
+        for (int i = 0; i < 80; i++) {
+            if (cache.getEntry("hot-" + i) != null) {
+                hotHits++;
+            }
+        }
+        Assert.assertEquals(cache.size(), 100);
+        // with pure LRU eviction no hot entry would survive
+        Assert.assertTrue(hotHits >= 75, "Hot entries left in cache: " + hotHits);
+    }
+
+    @Test
+    public void clearTest() {
+        TinyLFUCache<String, Integer> cache = new TinyLFUCache<>(10);
+        for (int i = 0; i < 20; i++) {
+            cache.putEntry(String.valueOf(i), i);
+            cache.getEntry(String.valueOf(i));
+        }
+        cache.clear();
+        Assert.assertEquals(cache.size(), 0);
+        for (int i = 0; i < 20; i++) {
+            cache.putEntry(String.valueOf(i), i);
+        }
+        Assert.assertEquals(cache.size(), 10);
+    }
+
+    @Test
+    public void frequencySketchTest() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("popular");
+        }
+        sketch.increment("rare");
+        Assert.assertTrue(sketch.frequency("popular") >= 10);
+        Assert.assertTrue(sketch.frequency("rare") >= 1);
+        Assert.assertTrue(sketch.frequency("popular") > sketch.frequency("rare"));
+
+        // counters saturate at 15
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("popular");
+        }
+        Assert.assertEquals(sketch.frequency("popular"), 15);
+    }
+
+    @Test
+    public void multithreadGetAndPutTest() throws Exception {
+        final TinyLFUCache<String, Object> cache = new TinyLFUCache<>(50);
+        final String[] userAgents = TestData.createTestUserAgentList();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            final int tindex = i;
+            tasks.add(() -> {
+                for (int round = 0; round < 50; round++) {
+                    for (String ua : userAgents) {
+                        Object value = cache.getEntry(ua);
+                        if (value == null) {
+                            cache.putEntry(ua, ua);
+                        } else {
+                            Assert.assertEquals(value, ua);
+                        }
+                        Assert.assertTrue(cache.size() <= 50);
+                    }
+                    if (tindex == 0 && round % 10 == 0) {
+                        cache.clear();
+                    }
+                }
+                return true;
+            });
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(32);
+        try {
+            for (Future<Boolean> f : executorService.invokeAll(tasks, 5, TimeUnit.MINUTES)) {
+                Assert.assertTrue(f.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        Assert.assertTrue(cache.size() <= 50);
+    }
+
+    @Test
+    public void maxWeightTest() {
+        TinyLFUCache<String, Integer> cache = new TinyLFUCache<>(1000, 1000, (k, v) -> v, -1);
+        for (int i = 0; i < 500; i++) {
+            cache.putEntry(String.valueOf(i), 10);
+            Assert.assertTrue(cache.totalWeight() <= 1000);
+        }
+        Assert.assertEquals(cache.size(), 100);
+        Assert.assertEquals(cache.totalWeight(), 1000);
+        Assert.assertEquals(cache.evictionCount(), 400);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WindowedLatencyHistogramTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+    private static void record(WindowedLatencyHistogram histogram, int count, long millis) {
+        for (int i = 0; i < count; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    @Test
+    public void percentileFollowsLatencyChangesTest() {
+        AtomicLong now = new AtomicLong();
+        WindowedLatencyHistogram histogram = new WindowedLatencyHistogram(INTERVAL, now::get);
+        Assert.assertEquals(histogram.percentileNanos(90, 100), -1);
+        record(histogram, 1000, 100);
+        long slow = histogram.percentileNanos(90, 100);
+        Assert.assertTrue(slow >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        // values of the previous interval still count
+        now.addAndGet(INTERVAL);
+        record(histogram, 100, 1);
+        Assert.assertEquals(histogram.percentileNanos(90, 100), slow);
+
+        // values of older intervals are dropped
+        now.addAndGet(INTERVAL);
+        record(histogram, 100, 1);
+        Assert.assertTrue(histogram.percentileNanos(90, 100) < TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
+    @Test
+    public void idleWindowTest() {
+        AtomicLong now = new AtomicLong();
+        WindowedLatencyHistogram histogram = new WindowedLatencyHistogram(INTERVAL, now::get);
+        record(histogram, 200, 10);
+        Assert.assertTrue(histogram.percentileNanos(50, 100) > 0);
+
+        // nothing recorded in the last two intervals
+        now.addAndGet(2 * INTERVAL);
+        Assert.assertEquals(histogram.percentileNanos(50, 100), -1);
+        record(histogram, 99, 10);
+        Assert.assertEquals(histogram.percentileNanos(50, 100), -1);
+        record(histogram, 1, 10);
+        Assert.assertTrue(histogram.percentileNanos(50, 100) > 0);
+    }
+}
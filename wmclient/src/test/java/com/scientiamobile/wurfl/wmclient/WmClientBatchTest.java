@@ -0,0 +1,111 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests batch lookups against the WM stub server.
+ */
+public class WmClientBatchTest extends WmStubServerTestSupport {
+
+    @Test
+    public void batchResultsInInputOrderTest() throws WmException {
+        WmClient batchClient = createClient(WmClientConfig.defaults());
+        try {
+            List<String> useragents = new ArrayList<>();
+            for (int n = 0; n < 3; n++) {
+                for (int i = 0; i < 10; i++) {
+                    useragents.add(UA + " order " + i);
+                }
+            }
+            List<Model.JSONDeviceData> devices = batchClient.lookupUseragents(useragents, 4);
+            Assert.assertEquals(devices.size(), useragents.size());
+            for (int i = 0; i < useragents.size(); i++) {
+                // cached devices are shared, so the batch results are the cached ones
+                Assert.assertSame(devices.get(i), batchClient.lookupUseragent(useragents.get(i)));
+            }
+        } finally {
+            batchClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void batchDeduplicationTest() throws WmException {
+        WmClient batchClient = createClient(WmClientConfig.defaults());
+        try {
+            batchClient.lookupUseragent(UA + " dedup cached");
+            List<String> useragents = new ArrayList<>();
+            for (int n = 0; n < 4; n++) {
+                for (int i = 0; i < 5; i++) {
+                    useragents.add(UA + " dedup " + i);
+                }
+                useragents.add(UA + " dedup cached");
+            }
+            long lookups = server.getLookupCount();
+            Assert.assertEquals(batchClient.lookupUseragents(useragents).size(), useragents.size());
+            // duplicated and cached user agents are not sent to the server
+            Assert.assertEquals(server.getLookupCount(), lookups + 5);
+
+            // header maps with the same important headers are looked up once
+            Map<String, String> headers = new HashMap<>();
+            headers.put("User-Agent", UA + " dedup headers");
+            Map<String, String> otherHeaders = new HashMap<>(headers);
+            otherHeaders.put("X-Not-Important", "value");
+            lookups = server.getLookupCount();
+            List<Model.JSONDeviceData> devices = batchClient.lookupHeadersBatch(Arrays.asList(headers, otherHeaders, headers));
+            Assert.assertEquals(server.getLookupCount(), lookups + 1);
+            Assert.assertSame(devices.get(0), devices.get(1));
+            Assert.assertSame(devices.get(0), devices.get(2));
+        } finally {
+            batchClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void batchConcurrencyBoundTest() throws WmException {
+        WmClient batchClient = createClient(WmClientConfig.defaults());
+        server.setLatency(30, TimeUnit.MILLISECONDS);
+        try {
+            List<String> useragents = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                useragents.add(UA + " concurrency " + i);
+            }
+            batchClient.lookupUseragents(useragents, 3);
+            Assert.assertTrue(server.getMaxConcurrentLookups() > 1);
+            Assert.assertTrue(server.getMaxConcurrentLookups() <= 3);
+        } finally {
+            batchClient.destroyConnection();
+        }
+    }
+
+    @Test(expectedExceptions = WmException.class)
+    public void batchWithNullInputTest() throws WmException {
+        client.lookupUseragents(null);
+    }
+
+    @Test(expectedExceptions = WmException.class)
+    public void batchWithInvalidConcurrencyTest() throws WmException {
+        client.lookupUseragents(Arrays.asList(UA, UA), 0);
+    }
+}
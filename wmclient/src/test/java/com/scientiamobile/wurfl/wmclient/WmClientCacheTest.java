@@ -0,0 +1,282 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests cache bounds, off heap cache, cache snapshots and cache warm up against the WM stub server.
+ */
+public class WmClientCacheTest extends WmStubServerTestSupport {
+
+    @Test
+    public void cacheMaxWeightTest() throws WmException {
+        WmClient weightClient = createClient(WmClientConfig.builder().cacheMaxWeight(20 * 1024).build());
+        try {
+            for (int i = 0; i < 100; i++) {
+                weightClient.lookupUseragent(UA + " weight " + i);
+            }
+            int size = weightClient.getActualCacheSizes()[1];
+            Assert.assertTrue(size > 0 && size < 100, "Unexpected cache size " + size);
+            Assert.assertEquals(weightClient.getStats().getUserAgentCacheStats().getEvictionCount(), 100 - size);
+        } finally {
+            weightClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void offHeapCacheTest() throws WmException {
+        WmClient offHeapClient = createClient(WmClientConfig.defaults());
+        offHeapClient.setCacheSize(1000, CachePolicy.OFF_HEAP);
+        try {
+            Model.JSONDeviceData device = offHeapClient.lookupUseragent(UA + " off heap");
+            long lookups = server.getLookupCount();
+            Model.JSONDeviceData cached = offHeapClient.lookupUseragent(UA + " off heap");
+            Assert.assertEquals(server.getLookupCount(), lookups);
+            Assert.assertEquals(cached.capabilities, device.capabilities);
+            Assert.assertEquals(cached.getBoolean("is_smartphone"), device.getBoolean("is_smartphone"));
+            // decoded devices are shared like the heap cache ones
+            Assert.assertTrue(cached.capabilities instanceof CompactCapabilities);
+            Assert.assertSame(offHeapClient.lookupUseragent(UA + " off heap"), cached);
+            Assert.assertEquals(offHeapClient.getActualCacheSizes()[1], 1);
+            Assert.assertEquals(offHeapClient.getStats().getUserAgentCacheStats().getHitCount(), 2);
+        } finally {
+            offHeapClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void offHeapCacheBoundsNotSupportedTest() throws Exception {
+        WmClient weightClient = createClient(WmClientConfig.builder().cacheMaxWeight(1024 * 1024).build());
+        WmClient expiringClient = createClient(WmClientConfig.builder().cacheExpireAfterWrite(1, TimeUnit.HOURS).build());
+        try {
+            Assert.assertThrows(IllegalArgumentException.class, () -> weightClient.setCacheSize(1000, CachePolicy.OFF_HEAP));
+            Assert.assertThrows(IllegalArgumentException.class, () -> expiringClient.setCacheSize(1000, CachePolicy.OFF_HEAP));
+        } finally {
+            weightClient.destroyConnection();
+            expiringClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void cacheSnapshotTest() throws Exception {
+        Path file = Files.createTempFile("wm-cache", ".snapshot");
+        try {
+            WmClient first = createClient(WmClientConfig.defaults());
+            Model.JSONDeviceData device;
+            try {
+                device = first.lookupUseragent(UA + " snapshot");
+                first.lookupUseragent(UA + " snapshot 2");
+                first.lookupDeviceId(device.capabilities.get("wurfl_id"));
+                Assert.assertEquals(first.saveCacheSnapshot(file), 3);
+            } finally {
+                first.destroyConnection();
+            }
+
+            WmClient second = createClient(WmClientConfig.defaults());
+            try {
+                Assert.assertEquals(second.loadCacheSnapshot(file), 3);
+                Assert.assertEquals(second.getActualCacheSizes(), new int[]{1, 2});
+                long lookups = server.getLookupCount();
+                Model.JSONDeviceData cached = second.lookupUseragent(UA + " snapshot");
+                Assert.assertEquals(cached.capabilities, device.capabilities);
+                Assert.assertEquals(cached.ltime, device.ltime);
+                Assert.assertTrue(cached.capabilities instanceof CompactCapabilities);
+                Assert.assertSame(second.lookupDeviceId(device.capabilities.get("wurfl_id")), cached);
+                Assert.assertEquals(server.getLookupCount(), lookups);
+            } finally {
+                second.destroyConnection();
+            }
+
+            // snapshot of a previous WURFL file is discarded
+            server.changeLtime();
+            WmClient third = createClient(WmClientConfig.defaults());
+            try {
+                Assert.assertEquals(third.loadCacheSnapshot(file), 0);
+                Assert.assertEquals(third.getActualCacheSizes(), new int[]{0, 0});
+            } finally {
+                third.destroyConnection();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void cacheSnapshotConfigTest() throws Exception {
+        Path dir = Files.createTempDirectory("wm-cache");
+        Path file = dir.resolve("cache.snapshot");
+        WmClientConfig config = WmClientConfig.builder().cacheSnapshot(file).build();
+        try {
+            WmClient first = createClient(config);
+            first.setRequestedStaticCapabilities(new String[]{"brand_name", "model_name"});
+            first.lookupUseragent(UA + " snapshot config");
+            first.destroyConnection();
+            Assert.assertTrue(Files.isRegularFile(file));
+
+            // requested capabilities are configured, so that the snapshot is loaded by create
+            WmClient second = WmClient.create("http", "localhost", String.valueOf(server.getPort()), "",
+                    WmClientConfig.builder().cacheSnapshot(file).requestedCapabilities("brand_name", "model_name").build());
+            try {
+                Assert.assertEquals(second.getActualCacheSizes()[1], 1);
+                // loaded entries are kept by new caches
+                second.setCacheSize(1000);
+                Assert.assertEquals(second.getActualCacheSizes()[1], 1);
+                long lookups = server.getLookupCount();
+                Assert.assertEquals(second.lookupUseragent(UA + " snapshot config").capabilities.size(), 3);
+                Assert.assertEquals(server.getLookupCount(), lookups);
+            } finally {
+                second.destroyConnection();
+            }
+
+            // devices with different capabilities are not loaded
+            WmClient third = createClient(config);
+            try {
+                Assert.assertEquals(third.getActualCacheSizes()[1], 0);
+            } finally {
+                third.destroyConnection();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void largeCacheSnapshotConfigTest() throws Exception {
+        Path file = Files.createTempFile("wm-cache", ".snapshot");
+        try {
+            WmClient first = createClient(WmClientConfig.defaults());
+            try {
+                first.lookupUseragent(UA + " large snapshot");
+                first.saveCacheSnapshot(file);
+            } finally {
+                first.destroyConnection();
+            }
+            // a snapshot with more entries than the default cache size
+            CacheSnapshot saved = CacheSnapshot.read(file);
+            Model.JSONDeviceData device = saved.userAgents.values().iterator().next();
+            Map<HeadersKey, Model.JSONDeviceData> userAgents = new HashMap<>();
+            for (int i = 0; i < BufferedCache.DEFAULT_SIZE + 5000; i++) {
+                userAgents.put(new HeadersKey(i, i, null), device);
+            }
+            new CacheSnapshot(saved.ltime, saved.importantHeaders, saved.capabilities, userAgents, saved.deviceIds).write(file);
+
+            WmClient second = WmClient.create("http", "localhost", String.valueOf(server.getPort()), "",
+                    WmClientConfig.builder().cacheSnapshot(file).build());
+            try {
+                Assert.assertEquals(second.getActualCacheSizes()[1], BufferedCache.DEFAULT_SIZE + 5000);
+                second.setCacheSize(100000);
+                Assert.assertEquals(second.getActualCacheSizes()[1], BufferedCache.DEFAULT_SIZE + 5000);
+            } finally {
+                second.destroyConnection();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void cacheSnapshotVerifiedKeysTest() throws Exception {
+        Path file = Files.createTempFile("wm-cache", ".snapshot");
+        WmClientConfig verifying = WmClientConfig.builder().verifyCacheKeys(true).build();
+        try {
+            WmClient first = createClient(WmClientConfig.defaults());
+            try {
+                first.lookupUseragent(UA + " fingerprint");
+                Assert.assertEquals(first.saveCacheSnapshot(file), 1);
+            } finally {
+                first.destroyConnection();
+            }
+            // fingerprint only keys are not loaded by a client verifying keys
+            WmClient second = createClient(verifying);
+            try {
+                Assert.assertEquals(second.loadCacheSnapshot(file), 0);
+                Assert.assertEquals(second.getActualCacheSizes()[1], 0);
+                second.lookupUseragent(UA + " verified");
+                Assert.assertEquals(second.saveCacheSnapshot(file), 1);
+            } finally {
+                second.destroyConnection();
+            }
+
+            WmClient third = createClient(verifying);
+            try {
+                Assert.assertEquals(third.loadCacheSnapshot(file), 1);
+                long lookups = server.getLookupCount();
+                third.lookupUseragent(UA + " verified");
+                Assert.assertEquals(server.getLookupCount(), lookups);
+            } finally {
+                third.destroyConnection();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void warmUpCacheTest() throws Exception {
+        Path file = Files.createTempFile("wm-warm-up", ".txt");
+        Path snapshot = Files.createTempFile("wm-warm-up", ".snapshot");
+        try {
+            Files.write(file, Arrays.asList(
+                    "# top user agents",
+                    UA + " warm 1",
+                    "120\t" + UA + " warm 2",
+                    "",
+                    UA + " warm 1",
+                    "{\"User-Agent\": \"" + UA + " warm 3\", \"X-Unknown\": \"x\"}",
+                    "{not json"));
+            WmClient warmClient = createClient(WmClientConfig.defaults());
+            try {
+                long lookups = server.getLookupCount();
+                Assert.assertEquals(warmClient.warmUpCache(file, 2), 3);
+                Assert.assertEquals(server.getLookupCount(), lookups + 3);
+                Assert.assertEquals(warmClient.getActualCacheSizes()[1], 3);
+
+                warmClient.lookupUseragent(UA + " warm 1");
+                warmClient.lookupUseragent(UA + " warm 2");
+                Map<String, String> headers = new HashMap<>();
+                headers.put("User-Agent", UA + " warm 3");
+                warmClient.lookupHeaders(headers);
+                Assert.assertEquals(server.getLookupCount(), lookups + 3);
+
+                // cached entries are not looked up again
+                Assert.assertEquals(warmClient.warmUpCache(file, 2), 3);
+                Assert.assertEquals(server.getLookupCount(), lookups + 3);
+            } finally {
+                warmClient.destroyConnection();
+            }
+
+            CacheWarmer.main(new String[]{"http://localhost:" + server.getPort(), file.toString(), snapshot.toString(), "2"});
+            WmClient snapshotClient = createClient(WmClientConfig.defaults());
+            try {
+                Assert.assertEquals(snapshotClient.loadCacheSnapshot(snapshot), 3);
+            } finally {
+                snapshotClient.destroyConnection();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(snapshot);
+        }
+    }
+}
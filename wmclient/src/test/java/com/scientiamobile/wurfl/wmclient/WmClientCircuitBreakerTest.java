@@ -0,0 +1,138 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the circuit breaker against a failing WM stub server.
+ */
+public class WmClientCircuitBreakerTest extends WmStubServerTestSupport {
+
+    @Test
+    public void circuitBreakerTest() throws Exception {
+        WmClient breakerClient = createClient(WmClientConfig.builder()
+                .circuitBreaker(50, -1, 500, TimeUnit.MILLISECONDS)
+                .circuitBreakerFallback(Collections.singletonMap("is_mobile", "false"))
+                .build());
+        try {
+            Model.JSONDeviceData cached = breakerClient.lookupUseragent(UA + " breaker cached");
+            server.setErrorRate(1);
+            // with the first successful lookup, the window has enough calls to open the breaker
+            for (int i = 0; i < CircuitBreaker.MIN_CALLS - 1; i++) {
+                try {
+                    breakerClient.lookupUseragent(UA + " breaker failing " + i);
+                    Assert.fail("lookup must fail while the breaker is closed");
+                } catch (WmException e) {
+                    // expected
+                }
+            }
+            Assert.assertEquals(breakerClient.getStats().getCircuitBreakerState(), CircuitBreaker.State.OPEN);
+
+            // open breaker: lookups get the fallback device without reaching the server, cached devices are still returned
+            long lookups = server.getLookupCount();
+            Model.JSONDeviceData fallback = breakerClient.lookupUseragent(UA + " breaker open");
+            Assert.assertEquals(fallback.capabilities.get("wurfl_id"), "generic");
+            Assert.assertEquals(fallback.capabilities.get("is_mobile"), "false");
+            Assert.assertEquals(breakerClient.lookupUseragentAsync(UA + " breaker open async").get().capabilities.get("wurfl_id"), "generic");
+            Assert.assertSame(breakerClient.lookupUseragent(UA + " breaker cached"), cached);
+            Assert.assertEquals(server.getLookupCount(), lookups);
+            Assert.assertEquals(breakerClient.getStats().getCircuitBreakerRejectedCount(), 2);
+
+            // once the open time has elapsed, successful trial lookups close the breaker
+            server.setErrorRate(0);
+            Thread.sleep(600);
+            for (int i = 0; i < CircuitBreaker.HALF_OPEN_CALLS; i++) {
+                Assert.assertNotEquals(breakerClient.lookupUseragent(UA + " breaker trial " + i).capabilities.get("wurfl_id"), "generic");
+            }
+            Assert.assertEquals(breakerClient.getStats().getCircuitBreakerState(), CircuitBreaker.State.CLOSED);
+            // the fallback device is not cached
+            Assert.assertNotEquals(breakerClient.lookupUseragent(UA + " breaker open").capabilities.get("wurfl_id"), "generic");
+        } finally {
+            breakerClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void circuitBreakerServesExpiredEntriesTest() throws Exception {
+        WmClient breakerClient = createClient(WmClientConfig.builder()
+                .circuitBreaker(50, -1, 1, TimeUnit.MINUTES)
+                .cacheExpireAfterWrite(100, TimeUnit.MILLISECONDS)
+                .build());
+        try {
+            Model.JSONDeviceData device = breakerClient.lookupUseragent(UA + " breaker expired");
+            Thread.sleep(150);
+            openBreaker(breakerClient, CircuitBreaker.MIN_CALLS - 1);
+
+            // the expired entry is returned instead of failing, both by the sync and the async API
+            long lookups = server.getLookupCount();
+            Assert.assertSame(breakerClient.lookupUseragent(UA + " breaker expired"), device);
+            Assert.assertSame(breakerClient.lookupUseragentAsync(UA + " breaker expired").get(), device);
+            Assert.assertEquals(server.getLookupCount(), lookups);
+            // no fallback device: lookups without an expired entry fail
+            try {
+                breakerClient.lookupUseragent(UA + " breaker not cached");
+                Assert.fail("lookup must fail while the breaker is open");
+            } catch (WmException e) {
+                Assert.assertTrue(e.getMessage().contains("circuit breaker is open"));
+            }
+        } finally {
+            breakerClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void circuitBreakerServesStaleEntriesTest() throws Exception {
+        WmClient breakerClient = createClient(WmClientConfig.builder()
+                .circuitBreaker(50, -1, 1, TimeUnit.MINUTES)
+                .staleWhileRevalidate(1000)
+                .build());
+        try {
+            Model.JSONDeviceData device = breakerClient.lookupUseragent(UA + " breaker stale");
+            server.changeLtime();
+            // the client gets the new ltime: the cached device is now stale
+            breakerClient.lookupUseragent(UA + " breaker new ltime");
+            openBreaker(breakerClient, CircuitBreaker.MIN_CALLS - 2);
+
+            // the stale device is returned, and its refresh is rejected without reaching the server
+            long lookups = server.getLookupCount();
+            Assert.assertSame(breakerClient.lookupUseragent(UA + " breaker stale"), device);
+            Thread.sleep(100);
+            Assert.assertSame(breakerClient.lookupUseragent(UA + " breaker stale"), device);
+            Assert.assertEquals(server.getLookupCount(), lookups);
+            Assert.assertTrue(breakerClient.getStats().getCircuitBreakerRejectedCount() > 0);
+        } finally {
+            breakerClient.destroyConnection();
+        }
+    }
+
+    // Makes the server fail, and sends the failing lookups opening the breaker
+    private void openBreaker(WmClient breakerClient, int failures) {
+        server.setErrorRate(1);
+        for (int i = 0; i < failures; i++) {
+            try {
+                breakerClient.lookupUseragent(UA + " breaker failing " + i);
+                Assert.fail("lookup must fail while the breaker is closed");
+            } catch (WmException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(breakerClient.getStats().getCircuitBreakerState(), CircuitBreaker.State.OPEN);
+    }
+}
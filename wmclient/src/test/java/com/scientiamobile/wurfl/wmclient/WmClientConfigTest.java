@@ -0,0 +1,145 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class WmClientConfigTest {
+
+    @Test
+    public void defaultsTest() {
+        WmClientConfig config = WmClientConfig.defaults();
+        Assert.assertEquals(config.getMaxTotalConnections(), 200);
+        // all requests go to a single host, so the per route limit must not be left to HttpClient default (2)
+        Assert.assertEquals(config.getMaxConnectionsPerRoute(), 200);
+        Assert.assertEquals(config.getConnectTimeoutMillis(), -1);
+        Assert.assertEquals(config.getSocketTimeoutMillis(), -1);
+        Assert.assertEquals(config.getConnectionRequestTimeoutMillis(), -1);
+        Assert.assertEquals(config.getKeepAliveMillis(), -1);
+        Assert.assertEquals(config.getMaxIdleTimeMillis(), -1);
+        Assert.assertEquals(config.getValidateAfterInactivityMillis(), 2000);
+        Assert.assertFalse(config.isVerifyCacheKeys());
+        Assert.assertFalse(config.isStaleWhileRevalidate());
+        Assert.assertEquals(config.getStaleRefreshesPerSecond(), 0);
+        Assert.assertEquals(config.getLtimePollIntervalMillis(), -1);
+        Assert.assertEquals(config.getCacheMaxWeightBytes(), -1);
+        Assert.assertEquals(config.getCacheExpireAfterWriteMillis(), -1);
+        Assert.assertNull(config.getCacheSnapshotFile());
+        Assert.assertNull(config.getRequestedCapabilities());
+        Assert.assertEquals(config.getNodeEjectionFailures(), 5);
+        Assert.assertEquals(config.getNodeEjectionLatencyFactor(), 3.0);
+        Assert.assertEquals(config.getNodeEjectionTimeMillis(), 30000);
+        Assert.assertFalse(config.isHedgeRequests());
+        Assert.assertFalse(config.isCircuitBreaker());
+        Assert.assertNull(config.getCircuitBreakerFallback());
+    }
+
+    @Test
+    public void builderTest() {
+        WmClientConfig config = WmClientConfig.builder()
+                .maxTotalConnections(50)
+                .maxConnectionsPerRoute(20)
+                .connectTimeout(2, TimeUnit.SECONDS)
+                .socketTimeout(500, TimeUnit.MILLISECONDS)
+                .connectionRequestTimeout(1, TimeUnit.SECONDS)
+                .keepAlive(1, TimeUnit.MINUTES)
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .validateAfterInactivity(-1, TimeUnit.MILLISECONDS)
+                .verifyCacheKeys(true)
+                .staleWhileRevalidate(100)
+                .pollLtime(30, 5, TimeUnit.SECONDS)
+                .cacheMaxWeight(256L * 1024 * 1024)
+                .cacheExpireAfterWrite(1, TimeUnit.HOURS)
+                .requestedCapabilities("brand_name", "is_smartphone")
+                .nodeEjection(3, 0, 10, TimeUnit.SECONDS)
+                .hedgeRequests(95, 50)
+                .circuitBreaker(50, 2, 10, TimeUnit.SECONDS)
+                .circuitBreakerFallback(Collections.singletonMap("is_mobile", "false"))
+                .build();
+        Assert.assertEquals(config.getMaxTotalConnections(), 50);
+        Assert.assertEquals(config.getMaxConnectionsPerRoute(), 20);
+        Assert.assertEquals(config.getConnectTimeoutMillis(), 2000);
+        Assert.assertEquals(config.getSocketTimeoutMillis(), 500);
+        Assert.assertEquals(config.getConnectionRequestTimeoutMillis(), 1000);
+        Assert.assertEquals(config.getKeepAliveMillis(), 60000);
+        Assert.assertEquals(config.getMaxIdleTimeMillis(), 30000);
+        Assert.assertEquals(config.getValidateAfterInactivityMillis(), -1);
+        Assert.assertTrue(config.isVerifyCacheKeys());
+        Assert.assertTrue(config.isStaleWhileRevalidate());
+        Assert.assertEquals(config.getStaleRefreshesPerSecond(), 100);
+        Assert.assertEquals(config.getLtimePollIntervalMillis(), 30000);
+        Assert.assertEquals(config.getLtimePollJitterMillis(), 5000);
+        Assert.assertEquals(config.getCacheMaxWeightBytes(), 256L * 1024 * 1024);
+        Assert.assertEquals(config.getCacheExpireAfterWriteMillis(), 3600000);
+        Assert.assertEquals(config.getRequestedCapabilities(), new String[]{"brand_name", "is_smartphone"});
+        Assert.assertEquals(config.getNodeEjectionFailures(), 3);
+        Assert.assertEquals(config.getNodeEjectionLatencyFactor(), 0.0);
+        Assert.assertEquals(config.getNodeEjectionTimeMillis(), 10000);
+        Assert.assertTrue(config.isHedgeRequests());
+        Assert.assertEquals(config.getHedgePercentile(), 95.0);
+        Assert.assertEquals(config.getMaxHedgesPerSecond(), 50);
+        Assert.assertTrue(config.isCircuitBreaker());
+        Assert.assertEquals(config.getCircuitBreakerFailureRatePercent(), 50);
+        Assert.assertEquals(config.getCircuitBreakerSlowCallMillis(), 2000);
+        Assert.assertEquals(config.getCircuitBreakerOpenMillis(), 10000);
+        Assert.assertEquals(config.getCircuitBreakerFallback().get("is_mobile"), "false");
+        Assert.assertEquals(config.getCircuitBreakerFallback().get("wurfl_id"), "generic");
+    }
+
+    @Test
+    public void perRouteLimitCappedByTotalTest() {
+        WmClientConfig config = WmClientConfig.builder().maxTotalConnections(10).build();
+        Assert.assertEquals(config.getMaxConnectionsPerRoute(), 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidStaleRefreshRateTest() {
+        WmClientConfig.builder().staleWhileRevalidate(-1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidLtimePollIntervalTest() {
+        WmClientConfig.builder().pollLtime(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void emptyRequestedCapabilitiesTest() {
+        WmClientConfig.builder().requestedCapabilities();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidNodeEjectionLatencyFactorTest() {
+        WmClientConfig.builder().nodeEjection(5, 0.5, 30, TimeUnit.SECONDS);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidHedgePercentileTest() {
+        WmClientConfig.builder().hedgeRequests(100, 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidCircuitBreakerFailureRateTest() {
+        WmClientConfig.builder().circuitBreaker(0, -1, 30, TimeUnit.SECONDS);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidMaxConnectionsTest() {
+        WmClientConfig.builder().maxConnectionsPerRoute(0);
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests how cached devices are handled when WM server loads a new WURFL file.
+ */
+public class WmClientLtimeTest extends WmStubServerTestSupport {
+
+    @Test
+    public void ltimeChangeClearsCacheTest() throws WmException {
+        WmClient ltimeClient = createClient(WmClientConfig.defaults());
+        try {
+            ltimeClient.lookupUseragent(UA + " 1");
+            ltimeClient.lookupUseragent(UA + " 2");
+            Assert.assertEquals(ltimeClient.getActualCacheSizes()[1], 2);
+
+            server.changeLtime();
+            // the first lookup getting the new ltime clears the cache, then its device is cached
+            long lookups = server.getLookupCount();
+            ltimeClient.lookupUseragent(UA + " 3");
+            Assert.assertEquals(ltimeClient.getActualCacheSizes()[1], 1);
+            ltimeClient.lookupUseragent(UA + " 1");
+            Assert.assertEquals(ltimeClient.getActualCacheSizes()[1], 2);
+            Assert.assertEquals(server.getLookupCount(), lookups + 2);
+        } finally {
+            ltimeClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void staleWhileRevalidateTest() throws Exception {
+        WmClient staleClient = createClient(WmClientConfig.builder().staleWhileRevalidate(1000).build());
+        try {
+            Model.JSONDeviceData device = staleClient.lookupUseragent(UA + " stale 1");
+            staleClient.lookupUseragent(UA + " stale 2");
+            String oldLtime = server.getLtime();
+            String newLtime = server.changeLtime();
+            // the client gets the new ltime with this lookup: cached devices are kept
+            staleClient.lookupUseragent(UA + " stale 3");
+            Assert.assertEquals(staleClient.getActualCacheSizes()[1], 3);
+
+            Model.JSONDeviceData stale = staleClient.lookupUseragent(UA + " stale 1");
+            Assert.assertSame(stale, device);
+            Assert.assertEquals(stale.ltime, oldLtime);
+            Assert.assertEquals(staleClient.getStats().getUserAgentCacheStats().getStaleHitCount(), 1);
+
+            // the stale device is replaced in background
+            Model.JSONDeviceData refreshed = stale;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (oldLtime.equals(refreshed.ltime) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                refreshed = staleClient.lookupUseragent(UA + " stale 1");
+            }
+            Assert.assertEquals(refreshed.ltime, newLtime);
+            Assert.assertEquals(refreshed.capabilities.get("wurfl_id"), device.capabilities.get("wurfl_id"));
+            Assert.assertEquals(staleClient.getActualCacheSizes()[1], 3);
+        } finally {
+            staleClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void staleRefreshRateTest() throws Exception {
+        WmClient staleClient = createClient(WmClientConfig.builder().staleWhileRevalidate(1).build());
+        try {
+            for (int i = 0; i < 5; i++) {
+                staleClient.lookupUseragent(UA + " rate " + i);
+            }
+            server.changeLtime();
+            staleClient.lookupUseragent(UA + " rate new ltime");
+
+            long lookups = server.getLookupCount();
+            for (int i = 0; i < 5; i++) {
+                staleClient.lookupUseragent(UA + " rate " + i);
+            }
+            Thread.sleep(200);
+            // one refresh per second
+            Assert.assertEquals(server.getLookupCount() - lookups, 1);
+            Assert.assertEquals(staleClient.getStats().getUserAgentCacheStats().getStaleHitCount(), 5);
+        } finally {
+            staleClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void ltimePollerTest() throws Exception {
+        WmClient pollingClient = createClient(WmClientConfig.builder().pollLtime(50, 20, TimeUnit.MILLISECONDS).build());
+        try {
+            pollingClient.lookupUseragent(UA + " poll 1");
+            pollingClient.lookupUseragent(UA + " poll 2");
+            Assert.assertEquals(pollingClient.getActualCacheSizes()[1], 2);
+
+            long infoRequests = server.getRequestCount(WmStubServer.GET_INFO_PATH);
+            server.changeLtime();
+            // caches are cleared by the poller, without any lookup
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pollingClient.getActualCacheSizes()[1] > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(pollingClient.getActualCacheSizes()[1], 0);
+            Assert.assertTrue(server.getRequestCount(WmStubServer.GET_INFO_PATH) > infoRequests);
+        } finally {
+            pollingClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void ltimePollerMakesDevicesStaleTest() throws Exception {
+        WmClient pollingClient = createClient(WmClientConfig.builder()
+                .pollLtime(50, 0, TimeUnit.MILLISECONDS)
+                .staleWhileRevalidate(1000)
+                .build());
+        try {
+            Model.JSONDeviceData device = pollingClient.lookupUseragent(UA + " poll stale");
+            String newLtime = server.changeLtime();
+            // the device is refreshed in background after the poller has seen the new ltime
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!newLtime.equals(device.ltime) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                device = pollingClient.lookupUseragent(UA + " poll stale");
+            }
+            Assert.assertEquals(device.ltime, newLtime);
+            Assert.assertEquals(pollingClient.getActualCacheSizes()[1], 1);
+            Assert.assertTrue(pollingClient.getStats().getUserAgentCacheStats().getStaleHitCount() > 0);
+        } finally {
+            pollingClient.destroyConnection();
+        }
+    }
+}
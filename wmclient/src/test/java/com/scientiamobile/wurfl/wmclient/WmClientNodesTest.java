@@ -0,0 +1,209 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests clients balancing lookups across several WM stub servers.
+ */
+public class WmClientNodesTest extends WmStubServerTestSupport {
+
+    @Test
+    public void multiNodeTest() throws Exception {
+        WmStubServer second = new WmStubServer(0, 200).setLtime(server.getLtime()).start();
+        WmClient multiClient = WmClient.create(Arrays.asList("http://localhost:" + server.getPort(), "http://localhost:" + second.getPort()),
+                WmClientConfig.defaults());
+        multiClient.setCacheSize(1000);
+        try {
+            long firstLookups = server.getLookupCount();
+            for (int i = 0; i < 40; i++) {
+                multiClient.lookupUseragent(UA + " node " + i);
+            }
+            // both nodes receive lookups
+            Assert.assertTrue(server.getLookupCount() > firstLookups);
+            Assert.assertTrue(second.getLookupCount() > 0);
+            List<WmNodeStats> nodeStats = multiClient.getStats().getNodeStats();
+            Assert.assertEquals(nodeStats.size(), 2);
+            Assert.assertEquals(nodeStats.get(1).getUrl(), "http://localhost:" + second.getPort() + "/");
+            // lookups plus the getinfo request sent to each node at creation
+            Assert.assertEquals(nodeStats.get(0).getRequestCount() + nodeStats.get(1).getRequestCount(), 42);
+            Assert.assertFalse(nodeStats.get(0).isEjected());
+        } finally {
+            multiClient.destroyConnection();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void nodesWithDifferentLtimesTest() throws Exception {
+        WmStubServer second = new WmStubServer(0, 200).setLtime("2020-01-01 00:00:00").start();
+        WmClient multiClient = WmClient.create(Arrays.asList("http://localhost:" + server.getPort(), "http://localhost:" + second.getPort()),
+                WmClientConfig.defaults());
+        multiClient.setCacheSize(1000);
+        try {
+            // the client uses the WURFL file of the first node: lookups go to it, and its caches are not cleared
+            long firstLookups = server.getLookupCount();
+            long secondLookups = second.getLookupCount();
+            for (int n = 0; n < 10; n++) {
+                for (int i = 0; i < 5; i++) {
+                    multiClient.lookupUseragent(UA + " ltime " + i);
+                }
+            }
+            Assert.assertEquals(server.getLookupCount(), firstLookups + 5);
+            Assert.assertEquals(second.getLookupCount(), secondLookups);
+            Assert.assertEquals(multiClient.getActualCacheSizes()[1], 5);
+
+            // once both nodes load a new WURFL file, the client moves to it
+            server.changeLtime();
+            second.setLtime(server.getLtime());
+            // the first node reports the new file: the other one, which the client does not know to have moved, is reached too
+            secondLookups = second.getLookupCount();
+            for (int i = 0; i < 100 && second.getLookupCount() == secondLookups; i++) {
+                multiClient.lookupUseragent(UA + " new ltime " + i);
+            }
+            Model.JSONDeviceData device = multiClient.lookupUseragent(UA + " ltime 0");
+            Assert.assertEquals(device.ltime, server.getLtime());
+            long lookups = server.getLookupCount() + second.getLookupCount();
+            Assert.assertSame(multiClient.lookupUseragent(UA + " ltime 0"), device);
+            Assert.assertEquals(server.getLookupCount() + second.getLookupCount(), lookups);
+        } finally {
+            multiClient.destroyConnection();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void failingNodeEjectionTest() throws Exception {
+        WmStubServer second = new WmStubServer(0, 200).setLtime(server.getLtime()).start();
+        WmClient multiClient = WmClient.create(Arrays.asList("http://localhost:" + server.getPort(), "http://localhost:" + second.getPort()),
+                WmClientConfig.builder().nodeEjection(2, 0, 1, TimeUnit.MINUTES).build());
+        multiClient.setCacheSize(1000);
+        second.failNextRequests(1000);
+        try {
+            int failures = 0;
+            for (int i = 0; i < 40; i++) {
+                try {
+                    multiClient.lookupUseragent(UA + " failing node " + i);
+                } catch (WmException e) {
+                    failures++;
+                }
+            }
+            // lookups fail until the node is ejected
+            Assert.assertEquals(failures, 2);
+            WmNodeStats failing = multiClient.getStats().getNodeStats().get(1);
+            Assert.assertTrue(failing.isEjected());
+            Assert.assertEquals(failing.getEjectionCount(), 1);
+            Assert.assertEquals(failing.getFailureCount(), 2);
+        } finally {
+            multiClient.destroyConnection();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void slowNodeEjectionTest() throws Exception {
+        WmStubServer second = new WmStubServer(0, 200).setLtime(server.getLtime()).start();
+        second.setLatency(30, TimeUnit.MILLISECONDS);
+        WmClient multiClient = WmClient.create(Arrays.asList("http://localhost:" + server.getPort(), "http://localhost:" + second.getPort()),
+                WmClientConfig.builder().nodeEjection(5, 3, 1, TimeUnit.MINUTES).build());
+        multiClient.setCacheSize(1000);
+        try {
+            for (int i = 0; i < 100 && !multiClient.getStats().getNodeStats().get(1).isEjected(); i++) {
+                multiClient.lookupUseragent(UA + " slow node " + i);
+            }
+            WmNodeStats slow = multiClient.getStats().getNodeStats().get(1);
+            Assert.assertTrue(slow.isEjected());
+            long slowLookups = second.getLookupCount();
+            for (int i = 0; i < 20; i++) {
+                multiClient.lookupUseragent(UA + " after ejection " + i);
+            }
+            Assert.assertEquals(second.getLookupCount(), slowLookups);
+            Assert.assertFalse(multiClient.getStats().getNodeStats().get(0).isEjected());
+        } finally {
+            multiClient.destroyConnection();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void hedgedRequestsTest() throws Exception {
+        WmStubServer second = new WmStubServer(0, 200).setLtime(server.getLtime()).start();
+        WmClient hedgingClient = WmClient.create(Arrays.asList("http://localhost:" + server.getPort(), "http://localhost:" + second.getPort()),
+                WmClientConfig.builder().hedgeRequests(90, 1000).nodeEjection(5, 0, 1, TimeUnit.MINUTES).build());
+        hedgingClient.setCacheSize(1000);
+        try {
+            // the hedge delay is known once enough lookups have been recorded. A steady latency keeps loopback jitter below it
+            server.setLatency(20, TimeUnit.MILLISECONDS);
+            second.setLatency(20, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 110; i++) {
+                hedgingClient.lookupUseragent(UA + " hedge warm " + i);
+            }
+            Assert.assertEquals(hedgingClient.getStats().getHedgeWinCount(), 0);
+
+            second.setLatency(2, TimeUnit.SECONDS);
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                Model.JSONDeviceData device = hedgingClient.lookupUseragent(UA + " hedged " + i);
+                Assert.assertNotNull(device.capabilities.get("wurfl_id"));
+            }
+            // lookups sent to the slow server are answered by the other one
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            WmClientStats stats = hedgingClient.getStats();
+            Assert.assertTrue(stats.getHedgeWinCount() > 0);
+            Assert.assertTrue(stats.getHedgedRequestCount() >= stats.getHedgeWinCount());
+            // cancelled requests are not node failures
+            Assert.assertEquals(stats.getNodeStats().get(1).getFailureCount(), 0);
+        } finally {
+            hedgingClient.destroyConnection();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void hedgeDelayWithSlowNodeTest() throws Exception {
+        WmStubServer second = new WmStubServer(0, 200).setLtime(server.getLtime()).start();
+        WmClient hedgingClient = WmClient.create(Arrays.asList("http://localhost:" + server.getPort(), "http://localhost:" + second.getPort()),
+                WmClientConfig.builder().hedgeRequests(50, 1000).nodeEjection(5, 0, 1, TimeUnit.MINUTES).build());
+        hedgingClient.setCacheSize(1000);
+        try {
+            server.setLatency(40, TimeUnit.MILLISECONDS);
+            second.setLatency(40, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 110; i++) {
+                hedgingClient.lookupUseragent(UA + " hedge delay warm " + i);
+            }
+            long delay = hedgingClient.hedgeDelayNanos(WmStubServer.LOOKUP_USERAGENT_PATH);
+            Assert.assertTrue(delay >= TimeUnit.MILLISECONDS.toNanos(30));
+
+            // first requests sent to the slow node are cancelled by hedges: their time until cancellation keeps the delay,
+            // while the fast responses of the other node alone would halve it
+            server.setLatency(0, TimeUnit.MILLISECONDS);
+            second.setLatency(2, TimeUnit.SECONDS);
+            for (int i = 0; i < 500; i++) {
+                hedgingClient.lookupUseragent(UA + " hedge delay slow " + i);
+            }
+            Assert.assertTrue(hedgingClient.getStats().getHedgeWinCount() > 0);
+            Assert.assertTrue(hedgingClient.hedgeDelayNanos(WmStubServer.LOOKUP_USERAGENT_PATH) >= delay / 2);
+        } finally {
+            hedgingClient.destroyConnection();
+            second.stop();
+        }
+    }
+}
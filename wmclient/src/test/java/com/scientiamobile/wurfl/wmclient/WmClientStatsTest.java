@@ -0,0 +1,170 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests client statistics and Java Flight Recorder events.
+ */
+public class WmClientStatsTest extends WmStubServerTestSupport {
+
+    @Test
+    public void statsTest() throws Exception {
+        WmClient statsClient = createClient(WmClientConfig.defaults());
+        try {
+            WmClientStats stats = statsClient.getStats();
+            Assert.assertEquals(stats.getUserAgentCacheStats().getRequestCount(), 0);
+            Assert.assertTrue(stats.getLatencies().isEmpty());
+
+            for (int i = 0; i < 3; i++) {
+                statsClient.lookupUseragent(UA + " stats");
+            }
+            statsClient.lookupUseragentAsync(UA + " stats async").get();
+            String wurflId = statsClient.lookupUseragent(UA + " stats").capabilities.get("wurfl_id");
+            statsClient.lookupDeviceId(wurflId);
+            try {
+                statsClient.lookupDeviceId("unknown_device");
+            } catch (WmException e) {
+                // expected
+            }
+
+            stats = statsClient.getStats();
+            CacheStats uaStats = stats.getUserAgentCacheStats();
+            Assert.assertEquals(uaStats.getHitCount(), 3);
+            Assert.assertEquals(uaStats.getMissCount(), 2);
+            Assert.assertEquals(uaStats.getLoadSuccessCount(), 2);
+            Assert.assertEquals(uaStats.getLoadFailureCount(), 0);
+            Assert.assertTrue(uaStats.getTotalLoadTimeNanos() > 0);
+            Assert.assertEquals(uaStats.getSize(), 2);
+            Assert.assertEquals(uaStats.getHitRate(), 0.6, 0.001);
+
+            CacheStats devIdStats = stats.getDeviceIdCacheStats();
+            Assert.assertEquals(devIdStats.getMissCount(), 2);
+            Assert.assertEquals(devIdStats.getLoadSuccessCount(), 1);
+            Assert.assertEquals(devIdStats.getLoadFailureCount(), 1);
+
+            Assert.assertEquals(stats.getLatency(WmStubServer.LOOKUP_USERAGENT_PATH).getCount(), 2);
+            Assert.assertEquals(stats.getLatency(WmStubServer.LOOKUP_DEVICE_ID_PATH).getCount(), 2);
+            Assert.assertNull(stats.getLatency(WmStubServer.LOOKUP_REQUEST_PATH));
+            Assert.assertEquals(stats.getInFlightRequests(), 0);
+            Assert.assertEquals(stats.getLeasedConnections(), 0);
+            Assert.assertTrue(stats.getAvailableConnections() > 0);
+        } finally {
+            statsClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void idleAsyncConnectionsAreEvictedTest() throws Exception {
+        WmClient evictingClient = createClient(WmClientConfig.builder().evictIdleConnections(200, TimeUnit.MILLISECONDS).build());
+        try {
+            evictingClient.lookupUseragentAsync(UA + " idle async").get();
+            Assert.assertTrue(evictingClient.getStats().getAvailableConnections() > 0);
+            // connections of both the blocking and the non blocking client are closed once idle
+            for (int i = 0; i < 50 && evictingClient.getStats().getAvailableConnections() > 0; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(evictingClient.getStats().getAvailableConnections(), 0);
+        } finally {
+            evictingClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void flightRecorderEventsTest() throws Exception {
+        WmClient jfrClient = createClient(WmClientConfig.defaults());
+        Path file = Files.createTempFile("wmclient", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.scientiamobile.wurfl.wmclient.Lookup");
+            recording.enable("com.scientiamobile.wurfl.wmclient.CacheClear");
+            recording.enable("com.scientiamobile.wurfl.wmclient.CatalogLoad");
+            recording.start();
+
+            jfrClient.lookupUseragent(UA + " jfr");
+            jfrClient.lookupUseragent(UA + " jfr");
+            jfrClient.lookupUseragentAsync(UA + " jfr async").get();
+            jfrClient.getAllDeviceMakes();
+            server.changeLtime();
+            jfrClient.lookupUseragent(UA + " jfr new ltime");
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> lookups = new ArrayList<>();
+            List<RecordedEvent> clears = new ArrayList<>();
+            List<RecordedEvent> catalogLoads = new ArrayList<>();
+            for (RecordedEvent e : events) {
+                switch (e.getEventType().getName()) {
+                    case "com.scientiamobile.wurfl.wmclient.Lookup":
+                        lookups.add(e);
+                        break;
+                    case "com.scientiamobile.wurfl.wmclient.CacheClear":
+                        clears.add(e);
+                        break;
+                    case "com.scientiamobile.wurfl.wmclient.CatalogLoad":
+                        catalogLoads.add(e);
+                        break;
+                    default:
+                }
+            }
+
+            Assert.assertEquals(lookups.size(), 4);
+            lookups.sort(Comparator.comparing(RecordedEvent::getStartTime));
+            Assert.assertEquals(lookups.get(0).getString("cacheResult"), LookupEvent.MISS);
+            Assert.assertEquals(lookups.get(0).getString("endpoint"), WmStubServer.LOOKUP_USERAGENT_PATH);
+            Assert.assertTrue(lookups.get(0).getLong("requestBytes") > 0);
+            Assert.assertTrue(lookups.get(0).getLong("responseBytes") > 0);
+            Assert.assertTrue(lookups.get(0).getBoolean("success"));
+            Assert.assertEquals(lookups.get(1).getString("cacheResult"), LookupEvent.HIT);
+            Assert.assertEquals(lookups.get(2).getString("cacheResult"), LookupEvent.MISS);
+
+            Assert.assertEquals(clears.size(), 1);
+            Assert.assertEquals(clears.get(0).getString("newLtime"), server.getLtime());
+            Assert.assertEquals(clears.get(0).getInt("userAgentEntriesDropped"), 2);
+
+            Assert.assertEquals(catalogLoads.size(), 1);
+            // catalog devices plus the generic one
+            Assert.assertEquals(catalogLoads.get(0).getInt("itemCount"), server.getDeviceIds().size() + 1);
+        } finally {
+            Files.deleteIfExists(file);
+            jfrClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void disabledLookupEventsAreSharedTest() {
+        Assert.assertSame(LookupEvent.start(), LookupEvent.DISABLED);
+        try (Recording recording = new Recording()) {
+            recording.enable("com.scientiamobile.wurfl.wmclient.Lookup");
+            recording.start();
+            Assert.assertNotSame(LookupEvent.start(), LookupEvent.DISABLED);
+        }
+        Assert.assertSame(LookupEvent.start(), LookupEvent.DISABLED);
+    }
+}
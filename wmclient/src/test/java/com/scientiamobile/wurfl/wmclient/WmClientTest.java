@@ -125,6 +125,35 @@ public class WmClientTest {
 
     }
 
+    @Test
+    public void createWithConfigTest() throws WmException {
+        String host = "localhost";
+        String port = "8080";
+        String envHost = System.getenv("WM_HOST");
+        String envPort = System.getenv("WM_PORT");
+        if (StringUtils.isNotEmpty(envHost)){
+            host = envHost;
+        }
+        if(StringUtils.isNotEmpty(envPort)){
+            port = envPort;
+        }
+        WmClientConfig config = WmClientConfig.builder()
+                .maxConnectionsPerRoute(50)
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .socketTimeout(10, TimeUnit.SECONDS)
+                .keepAlive(1, TimeUnit.MINUTES)
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+        WmClient client = WmClient.create("http", host, port, "", config);
+        try {
+            assertNotNull(client);
+            Model.JSONDeviceData device = client.lookupDeviceId("nokia_generic_series40");
+            assertEquals(device.capabilities.get("resolution_width"), "128");
+        } finally {
+            client.destroyConnection();
+        }
+    }
+
     @Test(expectedExceptions = {WmException.class})
     public void createWithServerDownTest() throws WmException {
         WmClient.create("http", "localhost", "18080", "");
@@ -471,6 +500,102 @@ public class WmClientTest {
         _client.lookupRequest(null);
     }
 
+    @Test
+    public void lookupUseragentAsyncTest() throws Exception {
+        WmClient client = createCachedTestClient(1000);
+        try {
+            String ua = "Mozilla/5.0 (Linux; Android 7.0; SAMSUNG SM-G950F Build/NRD90M) AppleWebKit/537.36 (KHTML, like Gecko) SamsungBrowser/5.2 Chrome/51.0.2704.106 Mobile Safari/537.36";
+            Model.JSONDeviceData device = client.lookupUseragentAsync(ua).get(30, TimeUnit.SECONDS);
+            assertNotNull(device);
+            assertEquals(device.capabilities.get("model_name"), "SM-G950F");
+            assertEquals(client.getActualCacheSizes()[1], 1);
+
+            // device is now in cache, so the future is already completed
+            CompletableFuture<Model.JSONDeviceData> cached = client.lookupUseragentAsync(ua);
+            assertTrue(cached.isDone());
+            assertSame(cached.get(), device);
+        } finally {
+            client.destroyConnection();
+        }
+    }
+
+    @Test
+    public void lookupHeadersAndDeviceIdAsyncTest() throws Exception {
+        WmClient client = createCachedTestClient(1000);
+        try {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("user-agent", "Mozilla/5.0 (Nintendo Switch; WebApplet) AppleWebKit/601.6 (KHTML, like Gecko) NF/4.0.0.5.9 NintendoBrowser/5.1.0.13341");
+            CompletableFuture<Model.JSONDeviceData> byHeaders = client.lookupHeadersAsync(headers);
+            CompletableFuture<Model.JSONDeviceData> byId = client.lookupDeviceIdAsync("nokia_generic_series40");
+            CompletableFuture<Model.JSONDeviceData> byRequest = client.lookupRequestAsync(createTestRequest(true));
+
+            assertEquals(byHeaders.get(30, TimeUnit.SECONDS).capabilities.get("wurfl_id"), "nintendo_switch_ver1");
+            assertEquals(byId.get(30, TimeUnit.SECONDS).capabilities.get("resolution_width"), "128");
+            assertEquals(byRequest.get(30, TimeUnit.SECONDS).capabilities.get("brand_name"), "Nintendo");
+        } finally {
+            client.destroyConnection();
+        }
+    }
+
+    @Test
+    public void lookupAsyncWithErrorsTest() throws Exception {
+        try {
+            _client.lookupDeviceIdAsync("nokia_generic_series40_wrong").get(30, TimeUnit.SECONDS);
+            fail("lookup of a wrong device ID should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WmException);
+        }
+
+        try {
+            _client.lookupRequestAsync(null).get(30, TimeUnit.SECONDS);
+            fail("lookup of a null request should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WmException);
+        }
+    }
+
+    @Test
+    public void lookupUseragentsBatchTest() throws WmException {
+        WmClient client = createCachedTestClient(1000);
+        try {
+            List<String> useragents = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                useragents.addAll(Arrays.asList(TestData.USER_AGENTS));
+            }
+            List<Model.JSONDeviceData> devices = client.lookupUseragents(useragents, 4);
+            assertEquals(devices.size(), useragents.size());
+            // duplicated user agents were looked up only once
+            assertEquals(client.getActualCacheSizes()[1], TestData.USER_AGENTS.length);
+            for (int i = 0; i < useragents.size(); i++) {
+                // results are in input order
+                Model.JSONDeviceData expected = client.lookupUseragent(useragents.get(i));
+                assertEquals(devices.get(i).capabilities.get("wurfl_id"), expected.capabilities.get("wurfl_id"));
+            }
+        } finally {
+            client.destroyConnection();
+        }
+    }
+
+    @Test
+    public void lookupHeadersBatchTest() throws WmException {
+        Map<String, String> switchHeaders = new HashMap<>();
+        switchHeaders.put("User-Agent", "Mozilla/5.0 (Nintendo Switch; WebApplet) AppleWebKit/601.6 (KHTML, like Gecko) NF/4.0.0.5.9 NintendoBrowser/5.1.0.13341");
+        Map<String, String> samsungHeaders = new HashMap<>();
+        samsungHeaders.put("user-agent", "Mozilla/5.0 (Linux; Android 7.0; SAMSUNG SM-G950F Build/NRD90M) AppleWebKit/537.36 (KHTML, like Gecko) SamsungBrowser/5.2 Chrome/51.0.2704.106 Mobile Safari/537.36");
+        samsungHeaders.put("Accept-Encoding", "gzip, deflate");
+
+        List<Model.JSONDeviceData> devices = _client.lookupHeadersBatch(Arrays.asList(switchHeaders, samsungHeaders, switchHeaders));
+        assertEquals(devices.size(), 3);
+        assertEquals(devices.get(0).capabilities.get("wurfl_id"), "nintendo_switch_ver1");
+        assertEquals(devices.get(1).capabilities.get("model_name"), "SM-G950F");
+        assertEquals(devices.get(2).capabilities.get("wurfl_id"), "nintendo_switch_ver1");
+    }
+
+    @Test(expectedExceptions = WmException.class)
+    public void lookupBatchWithNullInputTest() throws WmException {
+        _client.lookupUseragents(null);
+    }
+
     @Test
     public void destroyConnectionTest() throws WmException {
         boolean exc = false;
@@ -565,6 +690,26 @@ public class WmClientTest {
         client.destroyConnection();
     }
 
+    @Test
+    public void lookupWithTinyLfuCacheTest() throws WmException {
+        WmClient client = createCachedTestClient(1000);
+        client.setCacheSize(1000, CachePolicy.W_TINY_LFU);
+        try {
+            for (int i = 0; i < 3; i++) {
+                for (String ua : TestData.USER_AGENTS) {
+                    Model.JSONDeviceData d = client.lookupUseragent(ua);
+                    Assert.assertNotNull(d);
+                    Assert.assertNotNull(d.capabilities.get("wurfl_id"));
+                }
+            }
+            int[] csizes = client.getActualCacheSizes();
+            Assert.assertEquals(csizes[0], 0);
+            Assert.assertEquals(csizes[1], TestData.USER_AGENTS.length);
+        } finally {
+            client.destroyConnection();
+        }
+    }
+
     @Test
     public void setRequestedCapabilitiesTest() throws WmException {
         WmClient client = createCachedTestClient(1000);
@@ -607,6 +752,33 @@ public class WmClientTest {
         client.destroyConnection();
     }
 
+    @Test
+    public void concurrentLookupsOfSameUserAgentShareResultTest() throws Exception {
+        WmClient client = createCachedTestClient(1000);
+        final String ua = "Mozilla/5.0 (Linux; Android 13; SM-S911B) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/112.0.0.0 Mobile Safari/537.36";
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        try {
+            List<Callable<Model.JSONDeviceData>> lookups = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                lookups.add(() -> client.lookupUseragent(ua));
+            }
+            Model.JSONDeviceData first = null;
+            for (Future<Model.JSONDeviceData> f : executorService.invokeAll(lookups, 1, TimeUnit.MINUTES)) {
+                Model.JSONDeviceData d = f.get();
+                Assert.assertNotNull(d);
+                if (first == null) {
+                    first = d;
+                }
+                // Concurrent misses are served by a single server call, then by the cache: all threads get the same instance
+                Assert.assertSame(d, first);
+            }
+            Assert.assertEquals(client.getActualCacheSizes()[1], 1);
+        } finally {
+            executorService.shutdown();
+            client.destroyConnection();
+        }
+    }
+
     @Test
     public void getAllDeviceMakesTest() throws Exception {
 
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WmDataHandlerTest {
+
+    @Test
+    public void parseStreamedDeviceTest() throws IOException {
+        String json = "{\"capabilities\":{\"brand_name\":\"Samsung\",\"model_name\":\"Galaxy S23 è\"},\"error\":\"\",\"mtime\":1,\"ltime\":\"2024-01-01\"}";
+        final AtomicBoolean closed = new AtomicBoolean();
+        InputStream content = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        // chunked response of unknown length
+        response.setEntity(new InputStreamEntity(content, -1, ContentType.APPLICATION_JSON));
+
+        WmDataHandler<Model.JSONDeviceData> handler = new WmDataHandler<>(Model.JSONDeviceData.class);
+        Model.JSONDeviceData device = handler.handleResponse(response);
+        Assert.assertEquals(handler.getBytesRead(), json.getBytes(StandardCharsets.UTF_8).length);
+        Assert.assertEquals(device.capabilities.get("brand_name"), "Samsung");
+        Assert.assertEquals(device.capabilities.get("model_name"), "Galaxy S23 è");
+        Assert.assertEquals(device.ltime, "2024-01-01");
+        // stream must be closed so that the connection goes back to the pool
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void parseArrayWithCharsetTest() throws IOException {
+        String json = "[{\"device_os\":\"Android\",\"device_os_version\":\"14\"},{\"device_os\":\"iOS\",\"device_os_version\":\"17.1\"}]";
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(json.getBytes(StandardCharsets.UTF_16), ContentType.create("application/json", StandardCharsets.UTF_16)));
+
+        Model.JSONDeviceOsVersions[] versions = new WmDataHandler<>(Model.JSONDeviceOsVersions[].class).handleResponse(response);
+        Assert.assertEquals(versions.length, 2);
+        Assert.assertEquals(versions[1].osName, "iOS");
+        Assert.assertEquals(versions[1].osVersion, "17.1");
+    }
+
+    @Test
+    public void emptyResponseTest() throws IOException {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 204, "No Content");
+        Assert.assertNull(new WmDataHandler<>(Model.JSONDeviceData.class).handleResponse(response));
+    }
+
+    @Test(expectedExceptions = ClientProtocolException.class)
+    public void errorStatusTest() throws IOException {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, "Internal Server Error");
+        new WmDataHandler<>(Model.JSONDeviceData.class).handleResponse(response);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import com.google.gson.Gson;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class WmJsonTest {
+
+    private static final String DEVICE_JSON = "{\"capabilities\":{\"brand_name\":\"Apple\",\"model_name\":\"iPhone\",\"is_smartphone\":\"true\","
+            + "\"resolution_width\":\"1170\",\"wurfl_id\":\"apple_iphone_ver16\"},\"error\":\"\",\"mtime\":1718445062,"
+            + "\"ltime\":\"2024-06-14 12:15:00\",\"unknown_field\":{\"a\":[1,2]}}";
+
+    private static final String INFO_JSON = "{\"wurfl_api_version\":\"1.13.2.0\",\"wm_version\":\"2.2.1\",\"wurfl_info\":\"root:/wurfl.zip\","
+            + "\"important_headers\":[\"User-Agent\",\"Sec-CH-UA\"],\"static_caps\":[\"brand_name\",\"model_name\"],"
+            + "\"virtual_caps\":[\"is_smartphone\"],\"ltime\":\"2024-06-14 12:15:00\"}";
+
+    @Test
+    public void readDeviceDataTest() {
+        Model.JSONDeviceData device = WmJson.GSON.fromJson(DEVICE_JSON, Model.JSONDeviceData.class);
+        Assert.assertEquals(device.capabilities.size(), 5);
+        Assert.assertEquals(device.capabilities.get("brand_name"), "Apple");
+        Assert.assertEquals(device.capabilities.get("wurfl_id"), "apple_iphone_ver16");
+        Assert.assertEquals(device.error, "");
+        Assert.assertEquals(device.mtime, 1718445062);
+        Assert.assertEquals(device.ltime, "2024-06-14 12:15:00");
+    }
+
+    @Test
+    public void readDeviceDataWithErrorTest() {
+        Model.JSONDeviceData device = WmJson.GSON.fromJson("{\"error\":\"device not found\",\"mtime\":0,\"capabilities\":null}",
+                Model.JSONDeviceData.class);
+        Assert.assertNull(device.capabilities);
+        Assert.assertEquals(device.error, "device not found");
+        Assert.assertNull(device.ltime);
+    }
+
+    @Test
+    public void readInfoDataTest() {
+        Model.JSONInfoData info = WmJson.GSON.fromJson(INFO_JSON, Model.JSONInfoData.class);
+        Assert.assertEquals(info.getWurflApiVersion(), "1.13.2.0");
+        Assert.assertEquals(info.getWmVersion(), "2.2.1");
+        Assert.assertEquals(info.getWurflInfo(), "root:/wurfl.zip");
+        Assert.assertEquals(info.getImportantHeaders(), new String[]{"User-Agent", "Sec-CH-UA"});
+        Assert.assertEquals(info.getStaticCaps(), new String[]{"brand_name", "model_name"});
+        Assert.assertEquals(info.getVirtualCaps(), new String[]{"is_smartphone"});
+        Assert.assertEquals(info.ltime, "2024-06-14 12:15:00");
+    }
+
+    @Test
+    public void writeRequestTest() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("User-Agent", "Mozilla/5.0 \"quoted\"");
+        headers.put("Sec-CH-UA", "\"Chromium\";v=\"112\"");
+        Model.Request request = Model.newRequest(headers, new String[]{"brand_name"}, null, null);
+
+        String json = WmJson.GSON.toJson(request);
+        // hand written adapter produces the same JSON as the reflective one
+        Assert.assertEquals(json, new Gson().toJson(request));
+
+        Model.Request read = WmJson.GSON.fromJson(json, Model.Request.class);
+        Assert.assertEquals(read.getLookupHeaders(), headers);
+        Assert.assertEquals(read.getRequestedCaps(), new String[]{"brand_name"});
+        Assert.assertNull(read.getRequestedVcaps());
+        Assert.assertNull(read.getWurflId());
+    }
+
+    @Test
+    public void deviceDataRoundTripTest() {
+        Model.JSONDeviceData device = WmJson.GSON.fromJson(DEVICE_JSON, Model.JSONDeviceData.class);
+        Model.JSONDeviceData copy = WmJson.GSON.fromJson(WmJson.GSON.toJson(device), Model.JSONDeviceData.class);
+        Assert.assertEquals(copy.capabilities, device.capabilities);
+        Assert.assertEquals(copy.mtime, device.mtime);
+        Assert.assertEquals(copy.ltime, device.ltime);
+    }
+}
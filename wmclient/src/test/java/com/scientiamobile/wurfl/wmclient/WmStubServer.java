@@ -0,0 +1,548 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stub of a WURFL Microservice server, answering all the endpoints used by WmClient with synthetic data.<br>
+ * It allows running the client without a real WM server, ie: in unit tests, benchmarks and load tests on a laptop.
+ * The stub serves a fixed catalog of fake devices: the same user agent, headers or WURFL ID always get the same device.<br>
+ * Response latency, error injection and changes of the WURFL file load time (ltime) can be configured at any time,
+ * also while the server is running.<br>
+ * The stub can also run as a standalone process, see {@link #main(String[])}.<br>
+ * Loading this class sets the JVM-wide system property sun.net.httpserver.nodelay to true, unless it is already set, so that
+ * the JDK HTTP server sends small responses without waiting for the client's delayed ACK. It affects all the JDK HTTP servers
+ * of the JVM, which read it once, when the first one is created.
+ */
+public class WmStubServer {
+
+    static {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    static final String LOOKUP_REQUEST_PATH = "/v2/lookuprequest/json";
+    static final String LOOKUP_USERAGENT_PATH = "/v2/lookupuseragent/json";
+    static final String LOOKUP_DEVICE_ID_PATH = "/v2/lookupdeviceid/json";
+    static final String GET_INFO_PATH = "/v2/getinfo/json";
+    static final String ALL_DEVICES_PATH = "/v2/alldevices/json";
+    static final String ALL_DEVICE_OS_VERSIONS_PATH = "/v2/alldeviceosversions/json";
+
+    static final String[] IMPORTANT_HEADERS = {"User-Agent", "X-UCBrowser-Device-UA", "Device-Stock-UA", "Sec-CH-UA",
+            "Sec-CH-UA-Full-Version-List", "Sec-CH-UA-Mobile", "Sec-CH-UA-Model", "Sec-CH-UA-Platform", "Sec-CH-UA-Platform-Version"};
+    static final String[] STATIC_CAPS = {"brand_name", "model_name", "marketing_name", "device_os", "device_os_version",
+            "is_smarttv", "is_tablet", "is_wireless_device", "pointing_method", "resolution_height", "resolution_width"};
+    static final String[] VIRTUAL_CAPS = {"advertised_browser", "advertised_browser_version", "advertised_device_os",
+            "advertised_device_os_version", "complete_device_name", "form_factor", "is_android", "is_app", "is_app_webview",
+            "is_full_desktop", "is_ios", "is_mobile", "is_robot", "is_smartphone", "is_touchscreen"};
+
+    static final String GENERIC_ID = "generic";
+    static final int DEFAULT_DEVICE_COUNT = 1000;
+
+    private static final String[] BRANDS = {"Apple", "Samsung", "Xiaomi", "Google", "Motorola", "Huawei", "Nintendo", "Sony"};
+    private static final String[] FORM_FACTORS = {"Smartphone", "Smartphone", "Smartphone", "Tablet", "Desktop", "Smart-TV"};
+
+    private final Gson gson = new Gson();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final Map<String, Map<String, String>> devicesById = new LinkedHashMap<>();
+    private final List<String> deviceIds = new ArrayList<>();
+    private final String allDevicesJson;
+    private final String allOsVersionsJson;
+
+    private final ConcurrentHashMap<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicInteger activeLookups = new AtomicInteger();
+    private final AtomicInteger maxActiveLookups = new AtomicInteger();
+
+    private volatile String ltime = "2024-01-01 00:00:00";
+    // ltime when the server was started, restored by reset()
+    private volatile String startLtime;
+    private final AtomicInteger ltimeChanges = new AtomicInteger();
+    private volatile long minLatencyMicros;
+    private volatile long maxLatencyMicros;
+    private volatile double errorRate;
+    private volatile int errorStatus = 500;
+    private final AtomicInteger failNextRequests = new AtomicInteger();
+
+    /**
+     * Creates a stub server listening on the loopback interface, serving {@value #DEFAULT_DEVICE_COUNT} devices.
+     *
+     * @param port listening port, 0 to use any free port
+     * @throws IOException if the server socket cannot be opened
+     */
+    public WmStubServer(int port) throws IOException {
+        this(port, DEFAULT_DEVICE_COUNT);
+    }
+
+    /**
+     * Creates a stub server listening on the loopback interface.
+     *
+     * @param port        listening port, 0 to use any free port
+     * @param deviceCount number of devices in the stub catalog, besides the generic one
+     * @throws IOException if the server socket cannot be opened
+     */
+    public WmStubServer(int port, int deviceCount) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), deviceCount);
+    }
+
+    private WmStubServer(InetSocketAddress address, int deviceCount) throws IOException {
+        createCatalog(deviceCount);
+        List<Map<String, String>> makeModels = new ArrayList<>();
+        Set<Map<String, String>> osVersions = new LinkedHashSet<>();
+        for (Map<String, String> device : devicesById.values()) {
+            Map<String, String> makeModel = new LinkedHashMap<>();
+            makeModel.put("brand_name", device.get("brand_name"));
+            makeModel.put("model_name", device.get("model_name"));
+            makeModel.put("marketing_name", device.get("marketing_name"));
+            makeModels.add(makeModel);
+            Map<String, String> osVersion = new LinkedHashMap<>();
+            osVersion.put("device_os", device.get("device_os"));
+            osVersion.put("device_os_version", device.get("device_os_version"));
+            osVersions.add(osVersion);
+        }
+        allDevicesJson = gson.toJson(makeModels);
+        allOsVersionsJson = gson.toJson(osVersions);
+
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "wm-stub-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(GET_INFO_PATH, exchange -> handle(exchange, this::getInfo));
+        server.createContext(LOOKUP_USERAGENT_PATH, exchange -> handle(exchange, this::lookup));
+        server.createContext(LOOKUP_REQUEST_PATH, exchange -> handle(exchange, this::lookup));
+        server.createContext(LOOKUP_DEVICE_ID_PATH, exchange -> handle(exchange, this::lookupDeviceId));
+        server.createContext(ALL_DEVICES_PATH, exchange -> handle(exchange, e -> allDevicesJson));
+        server.createContext(ALL_DEVICE_OS_VERSIONS_PATH, exchange -> handle(exchange, e -> allOsVersionsJson));
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @return this server
+     */
+    public WmStubServer start() {
+        startLtime = ltime;
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the port the server is listening to
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Sets a fixed delay applied to every response.
+     *
+     * @param latency delay, 0 for no delay
+     * @param unit    delay time unit
+     * @return this server
+     */
+    public WmStubServer setLatency(long latency, TimeUnit unit) {
+        return setLatency(latency, latency, unit);
+    }
+
+    /**
+     * Sets a delay applied to every response, uniformly distributed between the given bounds.
+     *
+     * @param minLatency minimum delay
+     * @param maxLatency maximum delay
+     * @param unit       delay time unit
+     * @return this server
+     */
+    public WmStubServer setLatency(long minLatency, long maxLatency, TimeUnit unit) {
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new IllegalArgumentException("Invalid latency range " + minLatency + " - " + maxLatency);
+        }
+        this.minLatencyMicros = unit.toMicros(minLatency);
+        this.maxLatencyMicros = unit.toMicros(maxLatency);
+        return this;
+    }
+
+    /**
+     * Makes the given fraction of requests fail with the configured error status.
+     *
+     * @param errorRate a value between 0 (no errors) and 1 (all requests fail)
+     * @return this server
+     */
+    public WmStubServer setErrorRate(double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Sets the HTTP status sent by failing requests. Default is 500.
+     *
+     * @param errorStatus a HTTP status code
+     * @return this server
+     */
+    public WmStubServer setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * Makes the next requests fail with the configured error status, regardless of the error rate.
+     *
+     * @param count number of requests that must fail
+     * @return this server
+     */
+    public WmStubServer failNextRequests(int count) {
+        failNextRequests.set(count);
+        return this;
+    }
+
+    /**
+     * Restores the settings the server was started with: no latency, no errors, error status 500 and the initial load time.
+     * The maximum number of concurrent lookups is reset too.
+     *
+     * @return this server
+     */
+    public WmStubServer reset() {
+        setLatency(0, TimeUnit.MILLISECONDS);
+        errorRate = 0;
+        errorStatus = 500;
+        failNextRequests.set(0);
+        ltime = startLtime;
+        maxActiveLookups.set(0);
+        return this;
+    }
+
+    /**
+     * Sets the WURFL file load time returned by the server, as if a new WURFL file had been loaded.
+     *
+     * @param ltime a load time
+     * @return this server
+     */
+    public WmStubServer setLtime(String ltime) {
+        this.ltime = ltime;
+        return this;
+    }
+
+    /**
+     * Simulates the load of a new WURFL file by changing the load time returned by the server.
+     *
+     * @return the new load time
+     */
+    public String changeLtime() {
+        String newLtime = "2024-01-01 00:00:00." + ltimeChanges.incrementAndGet();
+        this.ltime = newLtime;
+        return newLtime;
+    }
+
+    /**
+     * @return the WURFL file load time currently returned by the server
+     */
+    public String getLtime() {
+        return ltime;
+    }
+
+    /**
+     * @return number of device lookup requests received since the server started, including the failed ones
+     */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * @return maximum number of device lookup requests served at the same time since the server started, or was reset
+     */
+    public int getMaxConcurrentLookups() {
+        return maxActiveLookups.get();
+    }
+
+    /**
+     * @param path an endpoint path, ie: /v2/getinfo/json
+     * @return number of requests received for the given endpoint since the server started
+     */
+    public long getRequestCount(String path) {
+        LongAdder count = requestCounts.get(path);
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * @return the WURFL IDs of the devices in the stub catalog, excluding the generic one
+     */
+    public List<String> getDeviceIds() {
+        return Collections.unmodifiableList(deviceIds);
+    }
+
+    // Builds a deterministic catalog, so that tests and benchmarks always see the same devices
+    private void createCatalog(int deviceCount) {
+        devicesById.put(GENERIC_ID, createDevice(GENERIC_ID, 0, "generic", "", "", "", "Desktop"));
+        Random random = new Random(42);
+        for (int i = 0; i < deviceCount; i++) {
+            String brand = BRANDS[random.nextInt(BRANDS.length)];
+            String formFactor = FORM_FACTORS[random.nextInt(FORM_FACTORS.length)];
+            String os = "Apple".equals(brand) ? "iOS" : "Desktop".equals(formFactor) ? "Windows" : "Android";
+            String model = brand.substring(0, 2).toUpperCase() + "-" + (100 + i);
+            String id = brand.toLowerCase() + "_" + model.toLowerCase().replace('-', '_') + "_ver1";
+            devicesById.put(id, createDevice(id, random.nextInt(), brand, model, brand + " " + (i % 20 + 1),
+                    os, formFactor));
+            deviceIds.add(id);
+        }
+    }
+
+    private static Map<String, String> createDevice(String id, int seed, String brand, String model, String marketingName,
+                                                    String os, String formFactor) {
+        boolean mobile = "Smartphone".equals(formFactor) || "Tablet".equals(formFactor);
+        String osVersion = os.isEmpty() ? "" : String.valueOf(Math.abs(seed % 8) + 10);
+        Map<String, String> caps = new LinkedHashMap<>();
+        caps.put("brand_name", brand);
+        caps.put("model_name", model);
+        caps.put("marketing_name", marketingName);
+        caps.put("device_os", os);
+        caps.put("device_os_version", osVersion);
+        caps.put("is_smarttv", String.valueOf("Smart-TV".equals(formFactor)));
+        caps.put("is_tablet", String.valueOf("Tablet".equals(formFactor)));
+        caps.put("is_wireless_device", String.valueOf(mobile));
+        caps.put("pointing_method", mobile ? "touchscreen" : "mouse");
+        caps.put("resolution_height", mobile ? "2400" : "1080");
+        caps.put("resolution_width", mobile ? "1080" : "1920");
+        caps.put("advertised_browser", "iOS".equals(os) ? "Mobile Safari" : "Chrome");
+        caps.put("advertised_browser_version", String.valueOf(Math.abs(seed % 30) + 100));
+        caps.put("advertised_device_os", os);
+        caps.put("advertised_device_os_version", osVersion);
+        caps.put("complete_device_name", (brand + " " + model).trim());
+        caps.put("form_factor", formFactor);
+        caps.put("is_android", String.valueOf("Android".equals(os)));
+        caps.put("is_app", "false");
+        caps.put("is_app_webview", "false");
+        caps.put("is_full_desktop", String.valueOf("Desktop".equals(formFactor)));
+        caps.put("is_ios", String.valueOf("iOS".equals(os)));
+        caps.put("is_mobile", String.valueOf(mobile));
+        caps.put("is_robot", "false");
+        caps.put("is_smartphone", String.valueOf("Smartphone".equals(formFactor)));
+        caps.put("is_touchscreen", String.valueOf(mobile));
+        caps.put("wurfl_id", id);
+        return caps;
+    }
+
+    private interface ResponseWriter {
+        String write(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, ResponseWriter writer) throws IOException {
+        String path = exchange.getHttpContext().getPath();
+        boolean lookup = path.startsWith("/v2/lookup");
+        try {
+            requestCounts.computeIfAbsent(path, p -> new LongAdder()).increment();
+            if (lookup) {
+                lookupCount.incrementAndGet();
+                maxActiveLookups.accumulateAndGet(activeLookups.incrementAndGet(), Math::max);
+            }
+            delay();
+            if (lookup) {
+                // before the response is sent, since the client may send the next lookup as soon as it is received
+                activeLookups.decrementAndGet();
+            }
+
+            if (shouldFail()) {
+                send(exchange, errorStatus, "{\"error\":\"Injected error\"}");
+            } else {
+                send(exchange, 200, writer.write(exchange));
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 400, "{\"error\":\"" + e.getMessage() + "\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay() {
+        long min = minLatencyMicros;
+        long max = maxLatencyMicros;
+        long latency = max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+        if (latency > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean shouldFail() {
+        if (failNextRequests.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+            return true;
+        }
+        double rate = errorRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private String getInfo(HttpExchange exchange) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("wurfl_api_version", "1.13.0.0");
+        info.put("wm_version", "2.2.0-stub");
+        info.put("wurfl_info", "Root:/stub/wurfl.zip");
+        info.put("important_headers", IMPORTANT_HEADERS);
+        info.put("static_caps", STATIC_CAPS);
+        info.put("virtual_caps", VIRTUAL_CAPS);
+        info.put("ltime", ltime);
+        return gson.toJson(info);
+    }
+
+    private String lookup(HttpExchange exchange) throws IOException {
+        JsonObject request = readRequest(exchange);
+        StringBuilder headers = new StringBuilder();
+        if (request.has("lookup_headers")) {
+            JsonObject lookupHeaders = request.getAsJsonObject("lookup_headers");
+            for (String h : IMPORTANT_HEADERS) {
+                // WM server matches header names ignoring their case
+                for (Map.Entry<String, JsonElement> e : lookupHeaders.entrySet()) {
+                    if (e.getKey().equalsIgnoreCase(h) && !e.getValue().getAsString().isEmpty()) {
+                        headers.append(e.getValue().getAsString()).append('\n');
+                    }
+                }
+            }
+        }
+        String wurflId = headers.length() == 0 ? GENERIC_ID : deviceIds.get(Math.floorMod(headers.toString().hashCode(), deviceIds.size()));
+        return deviceResponse(request, devicesById.get(wurflId), "");
+    }
+
+    private String lookupDeviceId(HttpExchange exchange) throws IOException {
+        JsonObject request = readRequest(exchange);
+        String wurflId = request.has("wurfl_id") ? request.get("wurfl_id").getAsString() : "";
+        Map<String, String> device = devicesById.get(wurflId);
+        if (device == null) {
+            return deviceResponse(request, Collections.emptyMap(), "File: /stub/wurfl.zip, no device with id '" + wurflId + "'");
+        }
+        return deviceResponse(request, device, "");
+    }
+
+    private JsonObject readRequest(HttpExchange exchange) throws IOException {
+        try (InputStreamReader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            JsonElement json = JsonParser.parseReader(reader);
+            if (!json.isJsonObject()) {
+                throw new IllegalArgumentException("Request body is not a JSON object");
+            }
+            return json.getAsJsonObject();
+        }
+    }
+
+    // Returns the requested capabilities only; if neither static nor virtual capabilities are requested, all of them are returned
+    private String deviceResponse(JsonObject request, Map<String, String> device, String error) {
+        Map<String, String> capabilities = new LinkedHashMap<>();
+        boolean all = !request.has("requested_caps") && !request.has("requested_vcaps");
+        for (Map.Entry<String, String> cap : device.entrySet()) {
+            if (all || "wurfl_id".equals(cap.getKey()) || isRequested(request, "requested_caps", cap.getKey())
+                    || isRequested(request, "requested_vcaps", cap.getKey())) {
+                capabilities.put(cap.getKey(), cap.getValue());
+            }
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("capabilities", capabilities);
+        response.put("error", error);
+        response.put("mtime", System.currentTimeMillis() / 1000);
+        response.put("ltime", ltime);
+        return gson.toJson(response);
+    }
+
+    private static boolean isRequested(JsonObject request, String field, String capName) {
+        if (!request.has(field) || !request.get(field).isJsonArray()) {
+            return false;
+        }
+        for (JsonElement e : request.getAsJsonArray(field)) {
+            if (capName.equals(e.getAsString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Runs the stub as a standalone server, ie: to load test an application using WmClient.<br>
+     * Usage: {@code WmStubServer [port] [latency ms] [error rate] [ltime change interval seconds]}<br>
+     * Default port is 8080, the server listens on all interfaces. Latency can be a range, ie: 5-20.
+     *
+     * @param args command line arguments
+     * @throws Exception if the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        WmStubServer stub = new WmStubServer(new InetSocketAddress(port), DEFAULT_DEVICE_COUNT);
+        if (args.length > 1) {
+            String[] latency = args[1].split("-");
+            stub.setLatency(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1]), TimeUnit.MILLISECONDS);
+        }
+        if (args.length > 2) {
+            stub.setErrorRate(Double.parseDouble(args[2]));
+        }
+        stub.start();
+        System.out.println("WM stub server listening on port " + stub.getPort());
+
+        // server threads are daemons, the main thread keeps the process alive
+        long interval = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (interval > 0) {
+                TimeUnit.SECONDS.sleep(interval);
+                System.out.println("WM stub server ltime changed to " + stub.changeLtime());
+            } else {
+                TimeUnit.DAYS.sleep(1);
+            }
+        }
+    }
+}
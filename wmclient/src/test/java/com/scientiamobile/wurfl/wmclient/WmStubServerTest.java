@@ -0,0 +1,216 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs WmClient against the in-process WM stub server, so it does not need a running WURFL Microservice server.
+ */
+public class WmStubServerTest extends WmStubServerTestSupport {
+
+    @Test
+    public void getInfoTest() throws WmException {
+        Model.JSONInfoData info = client.getInfo();
+        Assert.assertEquals(info.getImportantHeaders(), WmStubServer.IMPORTANT_HEADERS);
+        Assert.assertEquals(info.getStaticCaps(), WmStubServer.STATIC_CAPS);
+        Assert.assertEquals(info.getVirtualCaps(), WmStubServer.VIRTUAL_CAPS);
+        Assert.assertEquals(info.ltime, server.getLtime());
+    }
+
+    @Test
+    public void lookupsTest() throws WmException {
+        Model.JSONDeviceData device = client.lookupUseragent(UA);
+        String wurflId = device.capabilities.get("wurfl_id");
+        Assert.assertTrue(server.getDeviceIds().contains(wurflId));
+        Assert.assertEquals(device.capabilities.size(), WmStubServer.STATIC_CAPS.length + WmStubServer.VIRTUAL_CAPS.length + 1);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("user-agent", UA);
+        Assert.assertEquals(client.lookupHeaders(headers).capabilities.get("wurfl_id"), wurflId);
+
+        Model.JSONDeviceData byId = client.lookupDeviceId(wurflId);
+        Assert.assertEquals(byId.capabilities, device.capabilities);
+
+        Assert.assertEquals(client.lookupUseragent("").capabilities.get("wurfl_id"), WmStubServer.GENERIC_ID);
+    }
+
+    @Test(expectedExceptions = WmException.class)
+    public void lookupUnknownDeviceIdTest() throws WmException {
+        client.lookupDeviceId("nokia_unknown_device");
+    }
+
+    @Test
+    public void lookupErrorMessageTest() throws Exception {
+        String prefix = "Unable to complete request to WM server: ";
+        try {
+            client.lookupDeviceId("nokia_unknown_device");
+            Assert.fail("Lookup of an unknown device ID should fail");
+        } catch (WmException e) {
+            Assert.assertTrue(e.getMessage().startsWith(prefix));
+            Assert.assertFalse(e.getMessage().substring(prefix.length()).contains(prefix));
+        }
+        try {
+            client.lookupDeviceIdAsync("nokia_unknown_device").get();
+            Assert.fail("Lookup of an unknown device ID should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof WmException);
+            Assert.assertTrue(e.getCause().getMessage().startsWith(prefix));
+            Assert.assertFalse(e.getCause().getMessage().substring(prefix.length()).contains(prefix));
+        }
+    }
+
+    @Test
+    public void requestedCapabilitiesTest() throws WmException {
+        WmClient capsClient = createClient(WmClientConfig.defaults());
+        try {
+            capsClient.setRequestedCapabilities(new String[]{"brand_name", "is_smartphone"});
+            Model.JSONDeviceData device = capsClient.lookupUseragent(UA);
+            Assert.assertEquals(device.capabilities.keySet(), new HashSet<>(Arrays.asList("brand_name", "is_smartphone", "wurfl_id")));
+        } finally {
+            capsClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void makesAndOsesTest() throws WmException {
+        String[] makes = client.getAllDeviceMakes();
+        Assert.assertTrue(makes.length > 0);
+        Assert.assertTrue(client.getAllDevicesForMake(makes[0]).length > 0);
+
+        String[] oses = client.getAllOSes();
+        Assert.assertTrue(Arrays.asList(oses).contains("Android"));
+        Assert.assertTrue(client.getAllVersionsForOS("Android").length > 0);
+    }
+
+    @Test
+    public void lookupsAreCachedTest() throws WmException {
+        long lookups = server.getLookupCount();
+        for (int i = 0; i < 10; i++) {
+            client.lookupUseragent(UA + " cached");
+        }
+        Assert.assertEquals(server.getLookupCount(), lookups + 1);
+        Assert.assertTrue(server.getRequestCount(WmStubServer.LOOKUP_USERAGENT_PATH) > 0);
+    }
+
+    @Test
+    public void cachedDevicesAreSharedTest() throws WmException {
+        // stub devices are picked by hashing the headers: some of these lookups resolve to the same device
+        Map<String, Model.JSONDeviceData> byWurflId = new HashMap<>();
+        boolean shared = false;
+        for (int i = 0; i < 300; i++) {
+            Model.JSONDeviceData device = client.lookupUseragent(UA + " shared " + i);
+            Model.JSONDeviceData previous = byWurflId.putIfAbsent(device.capabilities.get("wurfl_id"), device);
+            if (previous != null) {
+                Assert.assertSame(device, previous);
+                shared = true;
+            }
+        }
+        Assert.assertTrue(shared);
+        Assert.assertSame(client.lookupDeviceId(byWurflId.keySet().iterator().next()), byWurflId.values().iterator().next());
+    }
+
+    @Test
+    public void cachedCapabilitiesAreCompactTest() throws WmException {
+        Model.JSONDeviceData device = client.lookupUseragent(UA + " compact");
+        Assert.assertTrue(device.capabilities instanceof CompactCapabilities);
+        Assert.assertEquals(device.capabilities.size(), WmStubServer.STATIC_CAPS.length + WmStubServer.VIRTUAL_CAPS.length + 1);
+
+        client.setRequestedCapabilities(new String[]{"brand_name", "is_smartphone", "form_factor"});
+        try {
+            Model.JSONDeviceData requested = client.lookupUseragent(UA + " compact");
+            Assert.assertTrue(requested.capabilities instanceof CompactCapabilities);
+            Assert.assertEquals(requested.capabilities.keySet().size(), 4);
+            Assert.assertEquals(requested.capabilities.get("wurfl_id"), device.capabilities.get("wurfl_id"));
+            Assert.assertEquals(requested.capabilities.get("brand_name"), device.capabilities.get("brand_name"));
+            Assert.assertEquals(requested.capabilities.get("is_smartphone"), device.capabilities.get("is_smartphone"));
+            Assert.assertEquals(requested.capabilities.get("form_factor"), device.capabilities.get("form_factor"));
+        } finally {
+            client.setRequestedCapabilities(null);
+        }
+    }
+
+    @Test
+    public void headersCacheKeysDoNotCollideTest() throws WmException {
+        WmClient keysClient = createClient(WmClientConfig.builder().verifyCacheKeys(true).build());
+        try {
+            Map<String, String> h1 = new HashMap<>();
+            h1.put("User-Agent", "ab");
+            h1.put("Sec-CH-UA", "c");
+            Map<String, String> h2 = new HashMap<>();
+            h2.put("User-Agent", "a");
+            h2.put("Sec-CH-UA", "bc");
+            Model.JSONDeviceData d1 = keysClient.lookupHeaders(h1);
+            Model.JSONDeviceData d2 = keysClient.lookupHeaders(h2);
+            Assert.assertNotSame(d1, d2);
+            Assert.assertEquals(keysClient.getActualCacheSizes()[1], 2);
+            Assert.assertSame(keysClient.lookupHeaders(h1), d1);
+        } finally {
+            keysClient.destroyConnection();
+        }
+    }
+
+    @Test
+    public void errorInjectionTest() throws WmException {
+        server.failNextRequests(1);
+        try {
+            client.lookupUseragent(UA + " error");
+            Assert.fail("Injected error should make lookup fail");
+        } catch (WmException e) {
+            Assert.assertTrue(e.getMessage().contains("500"));
+        }
+        // errors are not cached
+        Assert.assertNotNull(client.lookupUseragent(UA + " error"));
+
+        server.setErrorRate(1).setErrorStatus(503);
+        try {
+            client.lookupUseragent(UA + " error rate");
+            Assert.fail("Injected error should make lookup fail");
+        } catch (WmException e) {
+            Assert.assertTrue(e.getMessage().contains("503"));
+        } finally {
+            server.setErrorStatus(500);
+        }
+    }
+
+    @Test
+    public void latencyTest() throws WmException {
+        WmClient timeoutClient = createClient(WmClientConfig.builder().socketTimeout(100, TimeUnit.MILLISECONDS).build());
+        server.setLatency(300, TimeUnit.MILLISECONDS);
+        try {
+            long start = System.nanoTime();
+            client.lookupUseragent(UA + " latency");
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+
+            try {
+                timeoutClient.lookupUseragent(UA + " timeout");
+                Assert.fail("Lookup should time out");
+            } catch (WmException e) {
+                // expected
+            }
+        } finally {
+            server.setLatency(0, TimeUnit.MILLISECONDS);
+            timeoutClient.destroyConnection();
+        }
+    }
+}
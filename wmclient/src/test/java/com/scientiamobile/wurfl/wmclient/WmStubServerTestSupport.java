@@ -0,0 +1,54 @@
+/**
+ * Copyright 2018 Scientiamobile Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scientiamobile.wurfl.wmclient;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * Starts a WM stub server, and a client using it, for each test class. Server settings changed by a test (latency, errors,
+ * ltime) are reset after it, so that tests do not depend on their execution order.
+ */
+public abstract class WmStubServerTestSupport {
+
+    static final String UA = "Mozilla/5.0 (Linux; Android 13; SM-S918B) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Mobile Safari/537.36";
+
+    WmStubServer server;
+    WmClient client;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        server = new WmStubServer(0, 200).start();
+        client = createClient(WmClientConfig.defaults());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        client.destroyConnection();
+        server.stop();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void resetServer() {
+        server.reset();
+    }
+
+    WmClient createClient(WmClientConfig config) throws WmException {
+        WmClient wmClient = WmClient.create("http", "localhost", String.valueOf(server.getPort()), "", config);
+        wmClient.setCacheSize(1000);
+        return wmClient;
+    }
+}